@@ -0,0 +1,42 @@
+#!/bin/sh
+# Mide el tiempo de 'todos' sobre una carta de una página con 'java -jar' y con el lanzador
+# scripts/docx-tool.sh (la misma línea de comandos que usan los usuarios), con y sin AppCDS.
+#
+#   mvn -B package && scripts/benchmark-arranque.sh [repeticiones]
+
+set -e
+DIR=$(cd "$(dirname "$0")/.." && pwd)
+JAR="$DIR/target/docx-tools_replace_tags-1.0.0.jar"
+JSA="$DIR/target/docx-tool.jsa"
+N=${1:-20}
+TMP=$(mktemp -d)
+trap 'rm -rf "$TMP"' EXIT
+
+if [ ! -f "$JSA" ]; then
+    echo "No existe $JSA; ejecute 'mvn package' con JDK 13 o superior" >&2
+    exit 1
+fi
+
+java -jar "$JAR" muestra "$TMP/carta.docx" > /dev/null
+
+medir() {
+    inicio=$(date +%s%N)
+    i=0
+    while [ $i -lt "$N" ]; do
+        "$@" todos "$TMP/carta.docx" "$TMP/salida.docx" \
+            "<<NOMBRE>>" "Juan" "<<DIRECCION>>" "Calle 1||BR||Bogotá" "<<FECHA>>" "2024" > /dev/null
+        i=$((i + 1))
+    done
+    fin=$(date +%s%N)
+    echo $(( (fin - inicio) / N / 1000000 ))
+}
+
+BASE=$(medir java -jar "$JAR")
+# Un JSA inexistente hace que el lanzador arranque sin AppCDS pero con el resto de sus opciones
+SIN=$(DOCX_TOOL_JAR="$JAR" DOCX_TOOL_JSA="$TMP/no-existe.jsa" medir "$DIR/scripts/docx-tool.sh")
+CON=$(DOCX_TOOL_JAR="$JAR" DOCX_TOOL_JSA="$JSA" medir "$DIR/scripts/docx-tool.sh")
+echo "todos, carta de una página, media de $N ejecuciones:"
+echo "  java -jar:            ${BASE} ms"
+echo "  lanzador sin AppCDS:  ${SIN} ms"
+echo "  lanzador con AppCDS:  ${CON} ms"
+echo "  ahorro del lanzador:  $((BASE - CON)) ms"
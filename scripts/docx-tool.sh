@@ -0,0 +1,28 @@
+#!/bin/sh
+# Lanzador de docx-tool. Usa el archivo AppCDS generado por el build si existe,
+# lo que evita cargar y verificar de nuevo las clases de la aplicación y de JAXP/XSLT.
+#
+#   scripts/docx-tool.sh todos carta.docx salida.docx "<<NOMBRE>>" "Juan"
+#
+# Variables: DOCX_TOOL_JAR, DOCX_TOOL_JSA, JAVA_OPTS (se añaden después de las opciones
+# del lanzador, así que pueden anularlas).
+
+DIR=$(cd "$(dirname "$0")/.." && pwd)
+JAR=${DOCX_TOOL_JAR:-"$DIR/target/docx-tools_replace_tags-1.0.0.jar"}
+JSA=${DOCX_TOOL_JSA:-"$DIR/target/docx-tool.jsa"}
+
+# Solo C1 en los comandos de un documento: compilan antes y terminan en milisegundos. Los
+# procesos largos (lote, watch, combinar, bench...) necesitan C2 para su throughput.
+case "$1" in
+    cuadros|encabezados|pies|todos|predeterminado|loop|compilar-tags|muestra|extraer|\
+    merge-manifests|combinar-manifiestos|help|-h|--help|version|-v|--version)
+        COMPILACION="-XX:TieredStopAtLevel=1" ;;
+    *)
+        COMPILACION="" ;;
+esac
+
+if [ -f "$JSA" ]; then
+    # -Xshare:auto: si el archivo no corresponde a esta JVM, se arranca sin él
+    exec java -XX:SharedArchiveFile="$JSA" -Xshare:auto $COMPILACION $JAVA_OPTS -jar "$JAR" "$@"
+fi
+exec java $COMPILACION $JAVA_OPTS -jar "$JAR" "$@"
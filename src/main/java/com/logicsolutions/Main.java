@@ -40,6 +40,36 @@ public class Main {
             case "loop":
                 new LoopCommand().execute(commandArgs);
                 break;
+            case "compilar-tags":
+                new CompilarTagsCommand().execute(commandArgs);
+                break;
+            case "muestra":
+                new MuestraCommand().execute(commandArgs);
+                break;
+            case "entrenar-cds":
+                new EntrenamientoCdsCommand().execute(commandArgs);
+                break;
+            case "watch":
+            case "vigilar":
+                new WatchCommand().execute(commandArgs);
+                break;
+            case "lote":
+            case "batch":
+                new LoteCommand().execute(commandArgs);
+                break;
+            case "merge-manifests":
+            case "combinar-manifiestos":
+                new CombinarManifiestosCommand().execute(commandArgs);
+                break;
+            case "combinar":
+                new CombinarCommand().execute(commandArgs);
+                break;
+            case "bench":
+                new BenchCommand().execute(commandArgs);
+                break;
+            case "extraer":
+                new ExtraerCommand().execute(commandArgs);
+                break;
             case "help":
             case "-h":
             case "--help":
@@ -85,17 +115,61 @@ public class Main {
         System.out.println("                Soporta saltos de línea con ||BR||");
         System.out.println("                Uso: todos <origen> <destino> <tag1> <valor1> [<tag2> <valor2> ...]");
         System.out.println("                Ej:  todos doc.docx out.docx \"<<DIR>>\" \"Calle 1||BR||Ciudad\"");
+        System.out.println("                Documentos enormes: todos --baja-memoria <MB> <origen> <destino> ...");
+        System.out.println("                Menor latencia en un documento enorme: todos --paralelo <hilos> <origen> <destino> ...");
         System.out.println();
         System.out.println("  predeterminado  Reemplaza TODAS las etiquetas <<...>> con un valor único");
         System.out.println("                  Uso: predeterminado <origen> <destino> <textoReemplazo>");
         System.out.println("                  Ej:  predeterminado doc.docx out.docx \"[PENDIENTE]\"");
         System.out.println();
+        System.out.println("  combinar      Genera un solo documento con una copia de la plantilla por registro");
+        System.out.println("                Uso: combinar <plantilla.docx> <registros.tsv> <destino.docx>");
+        System.out.println("                registros.tsv: primera línea con los tags, una línea de valores por registro");
+        System.out.println();
+        System.out.println("  lote          Renderiza en paralelo los documentos de un archivo de trabajos");
+        System.out.println("                Uso: lote <trabajos.tsv> [--hilos N] [--memoria-mb MB] [--cache carpeta] [--silencioso]");
+        System.out.println("                Un solo archivo de salida: --salida-zip lote.zip (entradas <id>.docx)");
+        System.out.println("                Tras una caída: lote <trabajos.tsv> --reanudar (usa <trabajos.tsv>.progreso)");
+        System.out.println("                Varias máquinas: --shard i/N en cada una (escribe un manifiesto por shard)");
+        System.out.println("                Solapar lectura, renderizado y escritura: --etapas [--cola-lectura N] [--cola-escritura N]");
+        System.out.println("                Métricas Prometheus y salud en http://127.0.0.1:<puerto>/metrics: --metricas <puerto>");
+        System.out.println("                Línea: id <TAB> comando <TAB> origen <TAB> destino <TAB> tag1 <TAB> valor1 ...");
+        System.out.println("                   o:  id <TAB> comando <TAB> origen <TAB> destino <TAB> @tags.tagsbin");
+        System.out.println();
+        System.out.println("  merge-manifests  Combina y verifica los manifiestos de los shards de un lote");
+        System.out.println("                Uso: merge-manifests <combinado.tsv> <manifiesto1> [<manifiesto2> ...]");
+        System.out.println();
+        System.out.println("  watch         Vigila una carpeta y renderiza cada archivo .job en cuanto llega");
+        System.out.println("                Uso: watch <carpeta> [--hilos N] [--memoria-mb MB] [--cache carpeta] [--silencioso]");
+        System.out.println("                Resultados atómicos; los trabajos pasan a hecho/ o fallido/");
+        System.out.println("                Métricas y /health/live, /health/ready: --metricas [host:]puerto");
+        System.out.println();
+        System.out.println("  extraer       Recupera por id un documento de un lote generado con --salida-zip");
+        System.out.println("                Uso: extraer <lote.zip> <id> [destino.docx]   |   extraer <lote.zip> --listar");
+        System.out.println();
+        System.out.println("  compilar-tags Convierte un mapa de tags a la forma binaria .tagsbin");
+        System.out.println("                Uso: compilar-tags <tags.json|.properties|.tsv> <salida.tagsbin>");
+        System.out.println();
+        System.out.println("  bench         Mide throughput, latencias, asignación y GC de un comando (salida JSON)");
+        System.out.println("                Uso: bench [<plantilla.docx>] [--comando todos] [--documentos N] [--concurrencia C]");
+        System.out.println("                           [--calentamiento W] [--tags-file mapa] [--salida resultado.json]");
+        System.out.println();
+        System.out.println("  muestra       Genera un documento de muestra para pruebas y benchmarks");
+        System.out.println("                Uso: muestra <destino.docx> [parrafos]");
+        System.out.println();
         System.out.println("  help          Muestra esta ayuda");
         System.out.println("  version       Muestra la versión del programa");
         System.out.println();
         System.out.println("NOTAS:");
         System.out.println("  - Los tags deben estar en formato <<TAG>>");
         System.out.println("  - Use comillas para valores con espacios");
+        System.out.println("  - Con muchos tags use --tags-file <archivo> (.json, .properties, .tsv o .tagsbin)");
+        System.out.println("  - Con --cache <carpeta> se reutilizan documentos ya generados con la misma plantilla y tags");
         System.out.println("  - El comando 'todos' ignora cuadros de texto (use 'cuadros' para esos)");
+        System.out.println("  - 'todos', 'loop' y 'predeterminado' también reemplazan en notas al pie y notas finales");
+        System.out.println("  - Para arrancar más rápido use scripts/docx-tool.sh, que aprovecha el archivo CDS");
+        System.out.println("  - Entradas rechazadas por límites (ajustables con -Ddocxtool.limite.<nombre>=valor, 0 = sin límite):");
+        System.out.println("      entrada.mb=512 y total.mb=2048 descomprimidos, relacion=500 (compresión),");
+        System.out.println("      profundidad=1000 y elementos=50000000 (XML), segundos=600 por documento");
     }
 }
@@ -0,0 +1,62 @@
+package com.logicsolutions.batch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Lee documentos de un archivo generado por {@link BatchArchiveWriter}.
+ * La búsqueda por id usa el directorio central del zip, sin recorrer las entradas.
+ */
+public class BatchArchiveReader implements AutoCloseable {
+
+    private static final String EXTENSION = ".docx";
+
+    private final ZipFile zip;
+
+    public BatchArchiveReader(Path archivo) throws IOException {
+        this.zip = new ZipFile(archivo.toFile());
+    }
+
+    static String nombreEntrada(String id) {
+        return id + EXTENSION;
+    }
+
+    /**
+     * Copia el documento del id indicado a la salida
+     *
+     * @return false si el archivo no contiene ese id
+     */
+    public boolean extraer(String id, OutputStream output) throws IOException {
+        ZipEntry entry = zip.getEntry(nombreEntrada(id));
+        if (entry == null) {
+            return false;
+        }
+        try (InputStream in = zip.getInputStream(entry)) {
+            in.transferTo(output);
+        }
+        return true;
+    }
+
+    public List<String> listarIds() {
+        List<String> ids = new ArrayList<>(zip.size());
+        var entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            String nombre = entries.nextElement().getName();
+            if (nombre.endsWith(EXTENSION)) {
+                ids.add(nombre.substring(0, nombre.length() - EXTENSION.length()));
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+}
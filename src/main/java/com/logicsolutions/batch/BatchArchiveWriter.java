@@ -0,0 +1,80 @@
+package com.logicsolutions.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Escribe todos los documentos de un lote en un único .zip en lugar de un archivo por trabajo.
+ * <p>
+ * Cada documento se guarda como entrada {@code <id>.docx} sin comprimir (un .docx ya está
+ * comprimido), de modo que la salida se reduce a escrituras secuenciales grandes. El
+ * directorio central del zip actúa como tabla de offsets para leer después por id
+ * (ver {@link BatchArchiveReader}). El archivo se escribe en un temporal y se renombra
+ * al cerrar.
+ */
+public class BatchArchiveWriter implements AutoCloseable {
+
+    private static final int BUFFER_ESCRITURA = 1024 * 1024;
+
+    private final Path destino;
+    private final Path temporal;
+    private final ZipOutputStream zip;
+    private int documentos;
+
+    public BatchArchiveWriter(Path destino) throws IOException {
+        this.destino = destino.toAbsolutePath();
+        Files.createDirectories(this.destino.getParent());
+        this.temporal = Files.createTempFile(this.destino.getParent(), "." + this.destino.getFileName(), ".tmp");
+        this.zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal), BUFFER_ESCRITURA));
+        this.zip.setMethod(ZipOutputStream.STORED);
+    }
+
+    /**
+     * Agrega un documento ya renderizado. Seguro para varios hilos.
+     *
+     * @throws java.util.zip.ZipException si el id ya existe en el archivo
+     */
+    public void agregar(String id, byte[] docx) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(docx);
+
+        ZipEntry entry = new ZipEntry(BatchArchiveReader.nombreEntrada(id));
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(docx.length);
+        entry.setCompressedSize(docx.length);
+        entry.setCrc(crc.getValue());
+
+        synchronized (zip) {
+            zip.putNextEntry(entry);
+            zip.write(docx);
+            zip.closeEntry();
+            documentos++;
+        }
+    }
+
+    public synchronized int getDocumentos() {
+        return documentos;
+    }
+
+    public Path getDestino() {
+        return destino;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (zip) {
+                zip.close();
+            }
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+}
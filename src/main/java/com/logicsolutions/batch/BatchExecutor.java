@@ -0,0 +1,567 @@
+package com.logicsolutions.batch;
+
+import com.logicsolutions.commands.Comandos;
+import com.logicsolutions.commands.DocxCommand;
+import com.logicsolutions.util.Consola;
+import com.logicsolutions.util.EstadisticasReemplazo;
+import com.logicsolutions.util.Hashing;
+import com.logicsolutions.util.LimiteExcedidoException;
+import com.logicsolutions.util.LimitesEntrada;
+import com.logicsolutions.util.MappedZip;
+import com.logicsolutions.util.Metricas;
+import com.logicsolutions.util.ResultCache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Renderiza los trabajos de un lote en paralelo dentro de una sola JVM.
+ * <p>
+ * La admisión se controla con un presupuesto de memoria: antes de encolar un trabajo
+ * se reservan los bytes estimados por {@link MemoryEstimator}. Si no hay presupuesto
+ * el lector se bloquea (backpressure), de modo que los contratos grandes no provocan
+ * OOM y las cartas pequeñas ocupan todos los núcleos. Un trabajo que excede el
+ * presupuesto completo se ejecuta solo.
+ * <p>
+ * Cada documento se escribe en un temporal junto al destino y se renombra de forma
+ * atómica al terminar, así nunca queda a la vista un .docx a medio escribir. Con
+ * {@link #usarArchivoSalida} los documentos van a un único .zip y se ignora el destino.
+ * Con {@link #usarEtapas} la lectura y la escritura se solapan con el renderizado.
+ * <p>
+ * Un renderizado que supera el plazo de {@link LimitesEntrada} se cancela interrumpiendo su
+ * hilo (ver {@link #conPlazo}), así un documento patológico no ocupa un worker para siempre.
+ */
+public class BatchExecutor implements AutoCloseable {
+
+    private static final int BUFFER_SALIDA = 64 * 1024;
+
+    private final int hilos;
+    private final int presupuestoKb;
+    private final Semaphore memoria;
+    // Limita además los trabajos encolados para no leer el origen completo por adelantado
+    private final Semaphore enVuelo;
+    private final ThreadPoolExecutor pool;
+    // Interrumpe los renderizados que superan el plazo por documento
+    private final ScheduledThreadPoolExecutor vigilante;
+    // Productores bloqueados en enviar() por falta de presupuesto o de hueco
+    private final AtomicInteger esperandoAdmision = new AtomicInteger();
+    private volatile ResultCache cache;
+    private volatile BatchArchiveWriter archivoSalida;
+    private volatile BatchJournal diario;
+    private volatile BatchManifest manifiesto;
+    private volatile BatchShard shard;
+    private volatile BatchStages etapas;
+    private volatile boolean silenciosa;
+    private final EstadisticasReemplazo estadisticas = new EstadisticasReemplazo();
+
+    public BatchExecutor(int hilos, long presupuestoBytes) {
+        if (hilos < 1) {
+            throw new IllegalArgumentException("El número de hilos debe ser mayor que cero");
+        }
+        this.hilos = hilos;
+        this.presupuestoKb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, presupuestoBytes / 1024));
+        this.memoria = new Semaphore(presupuestoKb);
+        this.enVuelo = new Semaphore(hilos * 2);
+        this.pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(hilos, crearFabricaHilos("lote"));
+        this.vigilante = new ScheduledThreadPoolExecutor(1, crearFabricaHilos("lote-plazo"));
+        this.vigilante.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Ejecuta todos los trabajos del lector y espera a que terminen
+     */
+    public BatchResult ejecutar(BatchJobReader lector) throws Exception {
+        long inicio = System.currentTimeMillis();
+        BatchResult resultado = new BatchResult();
+        Phaser pendientes = new Phaser(1);
+
+        while (true) {
+            BatchJob job;
+            try {
+                job = lector.siguiente();
+            } catch (IllegalArgumentException e) {
+                // Una línea mal formada es un trabajo fallido más: el resto del lote sigue
+                resultado.registrarLineaInvalida(e);
+                continue;
+            }
+            if (job == null) {
+                break;
+            }
+            BatchJob actual = job;
+            if (shard != null && !shard.contiene(actual)) {
+                resultado.registrarDeOtroShard();
+                continue;
+            }
+            if (diario != null && diario.completado(actual)) {
+                resultado.registrarOmitido();
+                continue;
+            }
+            resultado.registrarTags(actual.getReemplazos().keySet());
+            pendientes.register();
+            enviar(actual, error -> {
+                if (error == null) {
+                    resultado.registrarExito();
+                } else {
+                    resultado.registrarFallo(actual, error);
+                }
+                pendientes.arriveAndDeregister();
+            });
+        }
+        pendientes.arriveAndAwaitAdvance();
+        resultado.setEstadisticas(estadisticas);
+
+        resultado.setMilisegundos(System.currentTimeMillis() - inicio);
+        return resultado;
+    }
+
+    /**
+     * Encola un trabajo, bloqueando mientras no haya presupuesto de memoria.
+     * {@code alTerminar} recibe null si el documento se generó o la excepción si falló.
+     */
+    public void enviar(BatchJob job, Consumer<Exception> alTerminar) throws InterruptedException {
+        int kb;
+        try {
+            kb = reservaKb(job);
+        } catch (Exception e) {
+            alTerminar.accept(e);
+            return;
+        }
+
+        BatchStages etapasActuales = etapas;
+        Future<MappedZip> precarga = etapasActuales != null ? etapasActuales.precargar(job) : null;
+        esperandoAdmision.incrementAndGet();
+        try {
+            enVuelo.acquire();
+            try {
+                memoria.acquire(kb);
+            } catch (InterruptedException e) {
+                enVuelo.release();
+                throw e;
+            }
+        } finally {
+            esperandoAdmision.decrementAndGet();
+        }
+
+        try {
+            pool.execute(() -> ejecutarAdmitido(job, kb, etapasActuales, precarga, alTerminar));
+        } catch (RuntimeException e) {
+            if (precarga != null) {
+                etapasActuales.consumida(precarga);
+            }
+            memoria.release(kb);
+            enVuelo.release();
+            alTerminar.accept(e);
+        }
+    }
+
+    /**
+     * Renderiza y escribe un trabajo ya admitido. Cualquier Throwable, también un
+     * OutOfMemoryError o StackOverflowError de una plantilla patológica, acaba en
+     * {@link #terminar}: si no, su hueco no se liberaría y el lote no terminaría nunca.
+     */
+    private void ejecutarAdmitido(BatchJob job, int kb, BatchStages etapasActuales, Future<MappedZip> precarga,
+                                  Consumer<Exception> alTerminar) {
+        long inicioMilis = System.currentTimeMillis();
+        long inicio = System.nanoTime();
+        if (etapasActuales == null) {
+            Exception error = null;
+            String checksum = null;
+            try {
+                checksum = procesar(job);
+            } catch (Throwable t) {
+                error = comoExcepcion(t);
+            } finally {
+                memoria.release(kb);
+            }
+            terminar(job, checksum, error, inicioMilis, inicio, alTerminar);
+            return;
+        }
+
+        MappedZip.usarPrecargado(etapasActuales.consumida(precarga));
+        byte[] docx;
+        try {
+            docx = conPlazo(() -> renderizar(job));
+        } catch (Throwable t) {
+            terminar(job, null, comoExcepcion(t), inicioMilis, inicio, alTerminar);
+            return;
+        } finally {
+            MappedZip.usarPrecargado(null);
+            // El DOM ya no existe; lo que queda en memoria está acotado por la cola de escritura
+            memoria.release(kb);
+        }
+        try {
+            etapasActuales.escribir(() -> {
+                Exception error = null;
+                String checksum = null;
+                try {
+                    checksum = escribir(job, docx);
+                } catch (Throwable t) {
+                    error = comoExcepcion(t);
+                }
+                terminar(job, checksum, error, inicioMilis, inicio, alTerminar);
+            });
+        } catch (Throwable t) {
+            if (t instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            terminar(job, null, comoExcepcion(t), inicioMilis, inicio, alTerminar);
+        }
+    }
+
+    /**
+     * Los errores de la JVM se informan como fallo del trabajo, igual que las excepciones
+     */
+    private static Exception comoExcepcion(Throwable t) {
+        return t instanceof Exception ? (Exception) t : new ExecutionException(t.toString(), t);
+    }
+
+    /**
+     * Registra el trabajo en el diario y el manifiesto, libera su hueco y avisa a {@code alTerminar}
+     */
+    private void terminar(BatchJob job, String checksum, Exception error, long inicioMilis, long inicio,
+                          Consumer<Exception> alTerminar) {
+        long nanos = System.nanoTime() - inicio;
+        long milisegundos = nanos / 1_000_000;
+        try {
+            BatchJournal diarioActual = diario;
+            if (diarioActual != null) {
+                diarioActual.registrar(job, checksum);
+            }
+            BatchManifest manifiestoActual = manifiesto;
+            if (manifiestoActual != null) {
+                manifiestoActual.registrar(job, salida(job), checksum, inicioMilis, milisegundos);
+            }
+        } catch (Throwable t) {
+            // Sin la línea del diario el trabajo se repetirá al reanudar
+            error = error != null ? error : comoExcepcion(t);
+        } finally {
+            enVuelo.release();
+        }
+        Metricas.global().registrarDocumento(job.getComando(), error == null, nanos);
+        alTerminar.accept(error);
+    }
+
+    /**
+     * Consulta la caché de resultados antes de renderizar cada trabajo (null la desactiva)
+     */
+    public void usarCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Silencia los mensajes de cada renderizado (partes procesadas, tags reemplazados); el
+     * resto de la salida del proceso no cambia
+     */
+    public void usarSalidaSilenciosa(boolean silenciosa) {
+        this.silenciosa = silenciosa;
+    }
+
+    /**
+     * Escribe los documentos como entradas {@code <id>.docx} de un único archivo (null lo desactiva)
+     */
+    public void usarArchivoSalida(BatchArchiveWriter archivoSalida) {
+        this.archivoSalida = archivoSalida;
+    }
+
+    /**
+     * Registra cada trabajo terminado en el diario y, en {@link #ejecutar}, omite los
+     * que el diario da por completados (null lo desactiva)
+     */
+    public void usarDiario(BatchJournal diario) {
+        this.diario = diario;
+    }
+
+    /**
+     * Registra cada trabajo terminado (salida, checksum y tiempos) en el manifiesto (null lo desactiva)
+     */
+    public void usarManifiesto(BatchManifest manifiesto) {
+        this.manifiesto = manifiesto;
+    }
+
+    /**
+     * En {@link #ejecutar} procesa solo los trabajos que pertenecen al shard (null los procesa todos)
+     */
+    public void usarShard(BatchShard shard) {
+        this.shard = shard;
+    }
+
+    /**
+     * Separa la lectura, el renderizado y la escritura en etapas con colas propias: mientras
+     * se renderiza un documento se mapean y cargan los orígenes de los siguientes (el
+     * renderizado usa ese mismo mapeo) y se escriben los ya generados. Debe llamarse antes de
+     * enviar trabajos.
+     *
+     * @param documentosEnLectura  orígenes leídos por delante del renderizado
+     * @param documentosEnEscritura documentos renderizados que pueden esperar a ser escritos
+     * @param hilosEscritura        hilos dedicados a escribir resultados
+     */
+    public void usarEtapas(int documentosEnLectura, int documentosEnEscritura, int hilosEscritura) {
+        if (etapas != null) {
+            throw new IllegalStateException("Las etapas ya están configuradas");
+        }
+        this.etapas = new BatchStages(documentosEnLectura, documentosEnEscritura, hilosEscritura);
+        // Los trabajos en vuelo incluyen ahora los que esperan en la cola de escritura
+        enVuelo.release(documentosEnEscritura + hilosEscritura);
+    }
+
+    /**
+     * Reemplazos acumulados de todos los trabajos terminados por este executor
+     */
+    public EstadisticasReemplazo getEstadisticas() {
+        return estadisticas;
+    }
+
+    public int getHilos() {
+        return hilos;
+    }
+
+    /**
+     * Trabajos admitidos que esperan un hilo de renderizado o su escritura
+     */
+    public int getTrabajosEnCola() {
+        BatchStages etapasActuales = etapas;
+        return pool.getQueue().size() + (etapasActuales != null ? etapasActuales.escriturasPendientes() : 0);
+    }
+
+    /**
+     * Hilos de renderizado ocupados en este momento
+     */
+    public int getHilosActivos() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Productores bloqueados en {@link #enviar} esperando presupuesto o hueco
+     */
+    public int getEsperandoAdmision() {
+        return esperandoAdmision.get();
+    }
+
+    /**
+     * true si un nuevo trabajo tendría que esperar: todos los huecos están ocupados
+     */
+    public boolean estaSaturado() {
+        return enVuelo.availablePermits() == 0 || esperandoAdmision.get() > 0;
+    }
+
+    public boolean estaCerrado() {
+        return pool.isShutdown();
+    }
+
+    private String salida(BatchJob job) {
+        BatchArchiveWriter archivo = archivoSalida;
+        if (archivo != null) {
+            return archivo.getDestino() + "!" + BatchArchiveReader.nombreEntrada(job.getId());
+        }
+        return Paths.get(job.getDestino()).toAbsolutePath().toString();
+    }
+
+    private int reservaKb(BatchJob job) throws Exception {
+        long kb = MemoryEstimator.estimarBytes(job.getOrigen()) / 1024 + 1;
+        return (int) Math.min(kb, presupuestoKb);
+    }
+
+    private DocxCommand crearComando(BatchJob job) {
+        DocxCommand comando = Comandos.crear(job.getComando());
+        ResultCache cacheActual = cache;
+        if (cacheActual != null) {
+            comando = cacheActual.envolver(job.getComando(), comando);
+        }
+        return comando;
+    }
+
+    /**
+     * @return SHA-256 del documento generado
+     */
+    private String procesar(BatchJob job) throws Exception {
+        if (archivoSalida != null) {
+            return escribir(job, conPlazo(() -> renderizar(job)));
+        }
+
+        DocxCommand comando = crearComando(job);
+        Path destino = Paths.get(job.getDestino()).toAbsolutePath();
+        Files.createDirectories(destino.getParent());
+
+        Path temporal = Files.createTempFile(destino.getParent(), "." + destino.getFileName(), ".tmp");
+        try {
+            MessageDigest digest = Hashing.sha256();
+            try (OutputStream out = new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporal), BUFFER_SALIDA), digest)) {
+                conPlazo(() -> {
+                    comando.render(job.getOrigen(), out, job.getReemplazos());
+                    return null;
+                });
+            }
+            estadisticas.fusionar(comando.getEstadisticas());
+            registrarMetricas(job, comando, Files.size(temporal));
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Hashing.toHex(digest.digest());
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Renderiza el documento completo en memoria
+     */
+    private byte[] renderizar(BatchJob job) throws Exception {
+        DocxCommand comando = crearComando(job);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        comando.render(job.getOrigen(), buffer, job.getReemplazos());
+        estadisticas.fusionar(comando.getEstadisticas());
+        registrarMetricas(job, comando, buffer.size());
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Reemplazos y bytes de un documento generado. Un resultado reutilizado de la caché no
+     * hizo reemplazos, así que tampoco cuenta tags sin coincidencia.
+     */
+    private static void registrarMetricas(BatchJob job, DocxCommand comando, long bytesSalida) throws IOException {
+        Metricas metricas = Metricas.global();
+        if (!comando.resultadoReutilizado()) {
+            metricas.registrarReemplazos(comando.getEstadisticas(), job.getReemplazos().keySet());
+        }
+        metricas.registrarBytes(Files.size(Paths.get(job.getOrigen())), bytesSalida);
+    }
+
+    /**
+     * Escribe un documento ya renderizado en el archivo de salida o, de forma atómica, en su destino
+     *
+     * @return SHA-256 del documento
+     */
+    private String escribir(BatchJob job, byte[] docx) throws Exception {
+        BatchArchiveWriter archivo = archivoSalida;
+        if (archivo != null) {
+            archivo.agregar(job.getId(), docx);
+            return Hashing.sha256Hex(docx);
+        }
+
+        Path destino = Paths.get(job.getDestino()).toAbsolutePath();
+        Files.createDirectories(destino.getParent());
+
+        Path temporal = Files.createTempFile(destino.getParent(), "." + destino.getFileName(), ".tmp");
+        try {
+            Files.write(temporal, docx);
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Hashing.sha256Hex(docx);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Ejecuta un renderizado con un corte programado al vencer el plazo de {@link LimitesEntrada}.
+     * El corte interrumpe el hilo: {@link com.logicsolutions.util.PlazoRender} y las esperas
+     * bloqueantes lo abandonan aunque no esté leyendo la plantilla. Si el corte llega cuando el
+     * renderizado ya terminó, su interrupción se descarta y no alcanza al siguiente trabajo.
+     * Solo debe envolver el renderizado: interrumpir una escritura en un canal compartido (el
+     * archivo de salida del lote) lo cerraría para todos los trabajos. Aplica también la
+     * salida silenciosa ({@link #usarSalidaSilenciosa}) al renderizado.
+     */
+    private <T> T conPlazo(Callable<T> tarea) throws Exception {
+        boolean silencio = silenciosa;
+        Callable<T> render = () -> Consola.ejecutarCon(silencio, tarea);
+        long milisegundos = LimitesEntrada.porDefecto().getMilisegundos();
+        if (milisegundos <= 0) {
+            return render.call();
+        }
+        Corte corte = new Corte(Thread.currentThread());
+        ScheduledFuture<?> programado = vigilante.schedule(corte::disparar, milisegundos, TimeUnit.MILLISECONDS);
+        try {
+            return render.call();
+        } catch (Exception e) {
+            if (corte.isDisparado()) {
+                throw new LimiteExcedidoException("Límite excedido: el documento lleva más de "
+                        + milisegundos / 1000 + " s en proceso; renderizado cancelado", e);
+            }
+            throw e;
+        } finally {
+            programado.cancel(false);
+            if (corte.desactivar()) {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * Interrupción de un hilo de renderizado, solo mientras ese renderizado siga en curso
+     */
+    private static final class Corte {
+        private final Thread hilo;
+        private boolean activo = true;
+        private boolean disparado;
+
+        Corte(Thread hilo) {
+            this.hilo = hilo;
+        }
+
+        synchronized void disparar() {
+            if (activo) {
+                disparado = true;
+                hilo.interrupt();
+            }
+        }
+
+        synchronized boolean isDisparado() {
+            return disparado;
+        }
+
+        /**
+         * @return true si el corte llegó a interrumpir el hilo
+         */
+        synchronized boolean desactivar() {
+            activo = false;
+            return disparado;
+        }
+    }
+
+    /**
+     * Espera a que terminen los trabajos encolados y libera los hilos. Si se interrumpe la
+     * espera, conserva la interrupción y vuelve sin esperar al resto.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        vigilante.shutdownNow();
+        BatchStages etapasActuales = etapas;
+        if (etapasActuales != null) {
+            etapasActuales.close();
+        }
+    }
+
+    private static ThreadFactory crearFabricaHilos(String nombre) {
+        AtomicInteger contador = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, nombre + "-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,50 @@
+package com.logicsolutions.batch;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Un documento a renderizar dentro de un lote: comando, plantilla, destino y reemplazos.
+ */
+public class BatchJob {
+
+    private final String id;
+    private final String comando;
+    private final String origen;
+    private final String destino;
+    private final Map<String, String> reemplazos;
+
+    public BatchJob(String id, String comando, String origen, String destino, Map<String, String> reemplazos) {
+        this.id = id;
+        this.comando = comando;
+        this.origen = origen;
+        this.destino = destino;
+        this.reemplazos = Collections.unmodifiableMap(new LinkedHashMap<>(reemplazos));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getComando() {
+        return comando;
+    }
+
+    public String getOrigen() {
+        return origen;
+    }
+
+    public String getDestino() {
+        return destino;
+    }
+
+    public Map<String, String> getReemplazos() {
+        return reemplazos;
+    }
+
+    @Override
+    public String toString() {
+        return id + " (" + comando + ": " + origen + " -> " + destino + ")";
+    }
+}
@@ -0,0 +1,113 @@
+package com.logicsolutions.batch;
+
+import com.logicsolutions.util.TagMapLoader;
+import com.logicsolutions.util.Tsv;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lee un archivo de trabajos en formato TSV, una línea por documento:
+ * <pre>
+ * id  comando  origen  destino  [tag1  valor1  tag2  valor2 ...]
+ * id  comando  origen  destino  @mapa.tagsbin
+ * </pre>
+ * La segunda forma toma los tags de un archivo (ver {@link TagMapLoader}); los mapas
+ * ya cargados se reutilizan entre líneas que apuntan al mismo archivo.
+ * Las líneas vacías y las que empiezan con '#' se ignoran. En los tags y valores se
+ * admiten los escapes \t, \n y \\; las columnas fijas y la ruta del mapa se leen tal cual.
+ * La lectura es perezosa para no cargar lotes enormes en memoria.
+ */
+public class BatchJobReader implements Closeable {
+
+    private static final int MAX_MAPAS_EN_MEMORIA = 64;
+
+    /** id, comando, origen y destino se toman tal cual: las rutas de Windows llevan barras */
+    private static final int COLUMNAS_LITERALES = 4;
+
+    private final BufferedReader reader;
+    private final String nombre;
+    private int numeroLinea;
+    private final Map<String, Map<String, String>> mapasCargados =
+            new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+                    return size() > MAX_MAPAS_EN_MEMORIA;
+                }
+            };
+
+    public BatchJobReader(Path archivo) throws IOException {
+        this(Files.newBufferedReader(archivo, StandardCharsets.UTF_8), archivo.toString());
+    }
+
+    public BatchJobReader(BufferedReader reader, String nombre) {
+        this.reader = reader;
+        this.nombre = nombre;
+    }
+
+    /**
+     * Devuelve el siguiente trabajo o null al llegar al final del archivo
+     *
+     * @throws IllegalArgumentException si la línea está mal formada o su mapa de tags no se
+     *                                  puede cargar; la siguiente llamada continúa con la
+     *                                  línea posterior
+     */
+    public BatchJob siguiente() throws IOException {
+        String linea;
+        while ((linea = reader.readLine()) != null) {
+            numeroLinea++;
+            if (linea.isBlank() || linea.startsWith("#")) {
+                continue;
+            }
+            return parsearLinea(linea);
+        }
+        return null;
+    }
+
+    private BatchJob parsearLinea(String linea) {
+        List<String> campos = Tsv.dividirCampos(linea, COLUMNAS_LITERALES);
+        if (campos.size() == 5 && campos.get(4).startsWith("@")) {
+            // La ruta del mapa tampoco se interpreta
+            campos = Tsv.dividirCampos(linea, COLUMNAS_LITERALES + 1);
+            Map<String, String> reemplazos = cargarMapa(campos.get(4).substring(1));
+            return new BatchJob(campos.get(0), campos.get(1), campos.get(2), campos.get(3), reemplazos);
+        }
+        if (campos.size() < 4 || (campos.size() - 4) % 2 != 0) {
+            throw new IllegalArgumentException(nombre + ":" + numeroLinea
+                    + ": se esperaba 'id comando origen destino [tag valor ...]' separados por tabulador");
+        }
+
+        Map<String, String> reemplazos = new LinkedHashMap<>();
+        for (int i = 4; i < campos.size(); i += 2) {
+            reemplazos.put(campos.get(i), campos.get(i + 1));
+        }
+        return new BatchJob(campos.get(0), campos.get(1), campos.get(2), campos.get(3), reemplazos);
+    }
+
+    private Map<String, String> cargarMapa(String ruta) {
+        Map<String, String> mapa = mapasCargados.get(ruta);
+        if (mapa == null) {
+            try {
+                mapa = TagMapLoader.cargar(Paths.get(ruta));
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalArgumentException(nombre + ":" + numeroLinea
+                        + ": no se pudo cargar el mapa de tags: " + e, e);
+            }
+            mapasCargados.put(ruta, mapa);
+        }
+        return mapa;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,131 @@
+package com.logicsolutions.batch;
+
+import com.logicsolutions.util.Hashing;
+import com.logicsolutions.util.Tsv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Diario de progreso de un lote, para reanudarlo tras una caída.
+ * <p>
+ * Cada trabajo terminado añade una línea {@code id destino estado sha256} (separada por
+ * tabuladores). El archivo solo crece y se sincroniza a disco por tandas, así que una caída
+ * pierde como mucho la última tanda, que simplemente se vuelve a renderizar. Al reanudar,
+ * un trabajo se omite solo si su última línea es OK y el documento en disco conserva el
+ * mismo destino y checksum.
+ */
+public class BatchJournal implements AutoCloseable {
+
+    static final String OK = "OK";
+    static final String ERROR = "ERROR";
+
+    private static final int LINEAS_POR_SYNC = 256;
+    private static final long MILIS_POR_SYNC = 1000;
+
+    private final FileChannel canal;
+    private final BufferedWriter writer;
+    private final Map<String, String[]> completados;
+    private int pendientes;
+    private long ultimaSync = System.currentTimeMillis();
+
+    /**
+     * @param reanudar si es false el diario existente se descarta
+     */
+    public BatchJournal(Path archivo, boolean reanudar) throws IOException {
+        this.completados = reanudar ? leer(archivo) : new HashMap<>();
+        this.canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                reanudar ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        this.writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(canal), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Indica si el trabajo ya se completó en una ejecución anterior y su salida sigue intacta
+     */
+    public boolean completado(BatchJob job) throws IOException {
+        String[] linea = completados.get(job.getId());
+        if (linea == null || !OK.equals(linea[2])) {
+            return false;
+        }
+        Path destino = Paths.get(job.getDestino()).toAbsolutePath();
+        if (!destino.toString().equals(linea[1])) {
+            return false;
+        }
+        try {
+            return linea[3].equals(Hashing.sha256Hex(destino));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    public int getCompletadosPrevios() {
+        return completados.size();
+    }
+
+    public synchronized void registrar(BatchJob job, String checksum) throws IOException {
+        String destino = Paths.get(job.getDestino()).toAbsolutePath().toString();
+        writer.write(Tsv.escapar(job.getId()));
+        writer.write('\t');
+        writer.write(Tsv.escapar(destino));
+        writer.write('\t');
+        writer.write(checksum != null ? OK : ERROR);
+        writer.write('\t');
+        writer.write(checksum != null ? checksum : "");
+        writer.write('\n');
+
+        pendientes++;
+        long ahora = System.currentTimeMillis();
+        if (pendientes >= LINEAS_POR_SYNC || ahora - ultimaSync >= MILIS_POR_SYNC) {
+            sincronizar();
+        }
+    }
+
+    private void sincronizar() throws IOException {
+        writer.flush();
+        canal.force(false);
+        pendientes = 0;
+        ultimaSync = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sincronizar();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Última línea de cada id. Una línea incompleta al final (caída a mitad de escritura) se ignora.
+     */
+    private static Map<String, String[]> leer(Path archivo) throws IOException {
+        Map<String, String[]> lineas = new HashMap<>();
+        if (!Files.exists(archivo)) {
+            return lineas;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(archivo, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                List<String> campos = Tsv.dividirCampos(linea);
+                if (campos.size() == 4) {
+                    lineas.put(campos.get(0), campos.toArray(new String[0]));
+                }
+            }
+        }
+        return lineas;
+    }
+}
@@ -0,0 +1,165 @@
+package com.logicsolutions.batch;
+
+import com.logicsolutions.util.Tsv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Manifiesto de los documentos generados por un proceso de lote (normalmente un shard).
+ * <p>
+ * Cabecera con líneas {@code # clave valor} (shard, host, inicio) y una línea por trabajo:
+ * {@code id salida estado sha256 inicio milisegundos}, separadas por tabuladores. Al cerrar
+ * se añade {@code # fin}, que distingue un manifiesto completo de uno de un proceso caído.
+ * Al reanudar un lote el manifiesto se amplía, y la última línea de cada id es la válida.
+ */
+public class BatchManifest implements AutoCloseable {
+
+    static final String CLAVE_SHARD = "shard";
+    static final String CLAVE_FIN = "fin";
+
+    private final BufferedWriter writer;
+    private int correctos;
+    private int fallidos;
+
+    /**
+     * @param ampliar si es false el manifiesto existente se descarta
+     */
+    public BatchManifest(Path archivo, BatchShard shard, boolean ampliar) throws IOException {
+        this.writer = Files.newBufferedWriter(archivo, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, ampliar ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        cabecera(CLAVE_SHARD, shard != null ? shard.toString() : "1/1");
+        cabecera("host", nombreHost());
+        cabecera("inicio", Instant.now().toString());
+        writer.flush();
+    }
+
+    /**
+     * @param salida   documento generado (ruta o entrada del .zip)
+     * @param checksum SHA-256 del documento, o null si falló
+     */
+    public synchronized void registrar(BatchJob job, String salida, String checksum, long inicioMilis,
+                                       long milisegundos) throws IOException {
+        writer.write(Tsv.escapar(job.getId()));
+        writer.write('\t');
+        writer.write(Tsv.escapar(salida));
+        writer.write('\t');
+        writer.write(checksum != null ? BatchJournal.OK : BatchJournal.ERROR);
+        writer.write('\t');
+        writer.write(checksum != null ? checksum : "");
+        writer.write('\t');
+        writer.write(Instant.ofEpochMilli(inicioMilis).toString());
+        writer.write('\t');
+        writer.write(Long.toString(milisegundos));
+        writer.write('\n');
+        if (checksum != null) {
+            correctos++;
+        } else {
+            fallidos++;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            cabecera(CLAVE_FIN, Instant.now() + "\t" + correctos + "\t" + fallidos);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void cabecera(String clave, String valor) throws IOException {
+        writer.write("# " + clave + "\t" + valor + "\n");
+    }
+
+    private static String nombreHost() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "desconocido";
+        }
+    }
+
+    /**
+     * Lee un manifiesto: cabecera y la última línea de cada id
+     */
+    public static Contenido leer(Path archivo) throws IOException {
+        Contenido contenido = new Contenido(archivo);
+        try (BufferedReader reader = Files.newBufferedReader(archivo, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                if (linea.startsWith("# ")) {
+                    int tab = linea.indexOf('\t');
+                    String clave = tab > 0 ? linea.substring(2, tab) : linea.substring(2);
+                    String valor = tab > 0 ? linea.substring(tab + 1) : "";
+                    if (CLAVE_SHARD.equals(clave)) {
+                        if (contenido.shard != null && !contenido.shard.toString().equals(valor)) {
+                            throw new IOException(archivo + " mezcla los shards " + contenido.shard + " y " + valor);
+                        }
+                        contenido.shard = BatchShard.parsear(valor);
+                        contenido.completo = false;
+                    } else if (CLAVE_FIN.equals(clave)) {
+                        contenido.completo = true;
+                    }
+                    continue;
+                }
+                List<String> campos = Tsv.dividirCampos(linea);
+                // Una línea incompleta al final (caída a mitad de escritura) se ignora
+                if (campos.size() == 6) {
+                    contenido.filas.put(campos.get(0), campos.toArray(new String[0]));
+                }
+            }
+        }
+        if (contenido.shard == null) {
+            throw new IOException(archivo + " no es un manifiesto de lote (falta la cabecera de shard)");
+        }
+        return contenido;
+    }
+
+    /**
+     * Manifiesto leído de disco
+     */
+    public static final class Contenido {
+
+        private final Path archivo;
+        private final Map<String, String[]> filas = new LinkedHashMap<>();
+        private BatchShard shard;
+        private boolean completo;
+
+        private Contenido(Path archivo) {
+            this.archivo = archivo;
+        }
+
+        public Path getArchivo() {
+            return archivo;
+        }
+
+        public BatchShard getShard() {
+            return shard;
+        }
+
+        /**
+         * Si el proceso que lo escribió terminó (la última ejecución cerró con {@code # fin})
+         */
+        public boolean isCompleto() {
+            return completo;
+        }
+
+        /**
+         * id -> {id, salida, estado, sha256, inicio, milisegundos}, en orden de escritura
+         */
+        public Map<String, String[]> getFilas() {
+            return filas;
+        }
+    }
+}
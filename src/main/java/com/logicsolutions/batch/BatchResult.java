@@ -0,0 +1,109 @@
+package com.logicsolutions.batch;
+
+import com.logicsolutions.util.EstadisticasReemplazo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resultado acumulado de un lote. Se actualiza concurrentemente desde los workers.
+ */
+public class BatchResult {
+
+    private final AtomicInteger exitos = new AtomicInteger();
+    private final AtomicInteger fallos = new AtomicInteger();
+    private final AtomicInteger omitidos = new AtomicInteger();
+    private final AtomicInteger deOtrosShards = new AtomicInteger();
+    private final Queue<String> errores = new ConcurrentLinkedQueue<>();
+    private final Set<String> tagsSolicitados = ConcurrentHashMap.newKeySet();
+    private volatile EstadisticasReemplazo estadisticas = new EstadisticasReemplazo();
+    private volatile long milisegundos;
+
+    void registrarExito() {
+        exitos.incrementAndGet();
+    }
+
+    void registrarFallo(BatchJob job, Exception e) {
+        fallos.incrementAndGet();
+        errores.add(job.getId() + ": " + e);
+    }
+
+    /**
+     * Línea del archivo de trabajos que no se pudo leer; el mensaje empieza por archivo:línea
+     */
+    void registrarLineaInvalida(Exception e) {
+        fallos.incrementAndGet();
+        errores.add(e.getMessage());
+    }
+
+    void registrarOmitido() {
+        omitidos.incrementAndGet();
+    }
+
+    void registrarDeOtroShard() {
+        deOtrosShards.incrementAndGet();
+    }
+
+    void registrarTags(Collection<String> tags) {
+        tagsSolicitados.addAll(tags);
+    }
+
+    void setEstadisticas(EstadisticasReemplazo estadisticas) {
+        this.estadisticas = estadisticas;
+    }
+
+    void setMilisegundos(long milisegundos) {
+        this.milisegundos = milisegundos;
+    }
+
+    public int getExitos() {
+        return exitos.get();
+    }
+
+    public int getFallos() {
+        return fallos.get();
+    }
+
+    /**
+     * Trabajos no renderizados por estar completos según el diario de una ejecución anterior
+     */
+    public int getOmitidos() {
+        return omitidos.get();
+    }
+
+    /**
+     * Trabajos del archivo que corresponden a otros shards
+     */
+    public int getDeOtrosShards() {
+        return deOtrosShards.get();
+    }
+
+    public List<String> getErrores() {
+        return new ArrayList<>(errores);
+    }
+
+    /**
+     * Reemplazos de todos los documentos renderizados en el lote
+     */
+    public EstadisticasReemplazo getEstadisticas() {
+        return estadisticas;
+    }
+
+    /**
+     * Tags pedidos por algún trabajo que no aparecieron en ningún documento
+     */
+    public List<String> getTagsFaltantes() {
+        return estadisticas.faltantes(new TreeSet<>(tagsSolicitados));
+    }
+
+    public long getMilisegundos() {
+        return milisegundos;
+    }
+}
@@ -0,0 +1,83 @@
+package com.logicsolutions.batch;
+
+import com.logicsolutions.util.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Partición estable de los trabajos de un lote entre N procesos ({@code --shard i/N}).
+ * <p>
+ * El shard de un trabajo depende solo de su id (SHA-256), así que cada proceso lee el
+ * archivo de trabajos completo y se queda con su parte sin coordinarse con los demás:
+ * basta un sistema de archivos compartido. La asignación es la misma en cualquier JVM
+ * y no cambia al añadir o quitar otros trabajos.
+ */
+public final class BatchShard {
+
+    private final int indice;
+    private final int total;
+
+    /**
+     * @param indice shard de este proceso, de 1 a {@code total}
+     */
+    public BatchShard(int indice, int total) {
+        if (total < 1 || indice < 1 || indice > total) {
+            throw new IllegalArgumentException("Shard inválido: " + indice + "/" + total
+                    + " (se espera i/N con 1 <= i <= N)");
+        }
+        this.indice = indice;
+        this.total = total;
+    }
+
+    /**
+     * Interpreta el formato {@code i/N}, por ejemplo {@code 2/4}
+     */
+    public static BatchShard parsear(String texto) {
+        int barra = texto.indexOf('/');
+        if (barra < 0) {
+            throw new IllegalArgumentException("Shard inválido: " + texto + " (formato i/N)");
+        }
+        try {
+            return new BatchShard(Integer.parseInt(texto.substring(0, barra).trim()),
+                    Integer.parseInt(texto.substring(barra + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Shard inválido: " + texto + " (formato i/N)");
+        }
+    }
+
+    /**
+     * Shard (de 1 a {@code total}) al que pertenece un id
+     */
+    public static int asignar(String id, int total) {
+        byte[] hash = Hashing.sha256().digest(id.getBytes(StandardCharsets.UTF_8));
+        long valor = 0;
+        for (int i = 0; i < 8; i++) {
+            valor = (valor << 8) | (hash[i] & 0xff);
+        }
+        return (int) Long.remainderUnsigned(valor, total) + 1;
+    }
+
+    public boolean contiene(BatchJob job) {
+        return asignar(job.getId(), total) == indice;
+    }
+
+    public int getIndice() {
+        return indice;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Sufijo para nombres de archivo propios del shard, por ejemplo {@code shard-2-de-4}
+     */
+    public String sufijo() {
+        return "shard-" + indice + "-de-" + total;
+    }
+
+    @Override
+    public String toString() {
+        return indice + "/" + total;
+    }
+}
@@ -0,0 +1,126 @@
+package com.logicsolutions.batch;
+
+import com.logicsolutions.util.MappedZip;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Etapas de lectura y escritura que {@link BatchExecutor} solapa con el renderizado.
+ * <p>
+ * Lectura: un hilo mapea el origen de los próximos trabajos, valida su directorio central y
+ * carga sus páginas mientras se renderizan los actuales; el renderizado recibe ese mismo
+ * mapeo ({@link MappedZip#usarPrecargado}) en lugar de volver a abrir el archivo y esperar al
+ * disco. Una plantilla compartida por miles de trabajos se mapea y se lee una sola vez.
+ * Escritura: otros hilos
+ * guardan los documentos ya renderizados en memoria mientras los hilos de renderizado
+ * siguen con el siguiente. Cada etapa tiene su propia cola acotada: si se llena, la etapa
+ * anterior espera.
+ */
+class BatchStages implements AutoCloseable {
+
+    private final ExecutorService lectura;
+    private final ExecutorService escritura;
+    private final Semaphore colaLectura;
+    private final Semaphore colaEscritura;
+    private final int capacidadEscritura;
+
+    BatchStages(int documentosEnLectura, int documentosEnEscritura, int hilosEscritura) {
+        if (documentosEnLectura < 1 || documentosEnEscritura < 1 || hilosEscritura < 1) {
+            throw new IllegalArgumentException("Las colas y los hilos de las etapas deben ser mayores que cero");
+        }
+        this.colaLectura = new Semaphore(documentosEnLectura);
+        this.capacidadEscritura = documentosEnEscritura + hilosEscritura;
+        this.colaEscritura = new Semaphore(capacidadEscritura);
+        this.lectura = Executors.newSingleThreadExecutor(crearFabricaHilos("lote-lectura"));
+        this.escritura = Executors.newFixedThreadPool(hilosEscritura, crearFabricaHilos("lote-escritura"));
+    }
+
+    /**
+     * Encola la lectura anticipada del origen, bloqueando si ya hay demasiados documentos leídos
+     * por delante del renderizado. El renderizado debe llamar a {@link #consumida} al empezar.
+     */
+    Future<MappedZip> precargar(BatchJob job) throws InterruptedException {
+        colaLectura.acquire();
+        try {
+            return lectura.submit(() -> MappedZip.precargar(job.getOrigen()));
+        } catch (RuntimeException e) {
+            colaLectura.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Espera a que termine la lectura anticipada y libera su hueco en la cola. Un error de
+     * lectura se ignora: el renderizado volverá a abrir el origen y lo informará.
+     *
+     * @return el mapeo precargado, o null si no se pudo leer
+     */
+    MappedZip consumida(Future<MappedZip> precarga) {
+        try {
+            return precarga.get();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        } finally {
+            colaLectura.release();
+        }
+    }
+
+    /**
+     * Entrega un documento a la etapa de escritura, bloqueando mientras su cola esté llena
+     */
+    void escribir(Runnable tarea) throws InterruptedException {
+        colaEscritura.acquire();
+        try {
+            escritura.execute(() -> {
+                try {
+                    tarea.run();
+                } finally {
+                    colaEscritura.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            colaEscritura.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Documentos renderizados que esperan o están en la etapa de escritura
+     */
+    int escriturasPendientes() {
+        return capacidadEscritura - colaEscritura.availablePermits();
+    }
+
+    /**
+     * Espera a que terminen las escrituras pendientes y libera los hilos. Si se interrumpe la
+     * espera, conserva la interrupción y vuelve sin esperar al resto.
+     */
+    @Override
+    public void close() {
+        lectura.shutdownNow();
+        escritura.shutdown();
+        try {
+            escritura.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory crearFabricaHilos(String nombre) {
+        AtomicInteger contador = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, nombre + "-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,164 @@
+package com.logicsolutions.batch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Carpeta vigilada: cada archivo {@code *.job} que aparece se renderiza en cuanto llega.
+ * <p>
+ * Un archivo de trabajo tiene el mismo formato que el archivo de un lote (ver
+ * {@link BatchJobReader}) y puede contener uno o varios documentos. Al terminar todos
+ * sus documentos se mueve a {@code hecho/}, o a {@code fallido/} junto con un
+ * {@code .error} si alguno falló. Para que no se lea un archivo a medio copiar, los
+ * productores deben escribirlo con otra extensión y renombrarlo a .job.
+ */
+public class HotFolderWatcher {
+
+    public static final String EXTENSION = ".job";
+
+    private final Path carpeta;
+    private final Path hecho;
+    private final Path fallido;
+    private final BatchExecutor executor;
+    private final Set<Path> enProceso = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger completados = new AtomicInteger();
+    private final AtomicInteger fallidos = new AtomicInteger();
+    private volatile WatchService watchService;
+
+    public HotFolderWatcher(Path carpeta, BatchExecutor executor) throws IOException {
+        this.carpeta = carpeta.toAbsolutePath();
+        this.hecho = this.carpeta.resolve("hecho");
+        this.fallido = this.carpeta.resolve("fallido");
+        this.executor = executor;
+        Files.createDirectories(hecho);
+        Files.createDirectories(fallido);
+    }
+
+    /**
+     * Procesa los trabajos ya presentes y vigila la carpeta hasta que se llame a {@link #detener()}
+     */
+    public void vigilar() throws IOException, InterruptedException {
+        watchService = FileSystems.getDefault().newWatchService();
+        carpeta.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        // Los archivos que llegaron antes de registrar el servicio
+        escanear();
+
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> evento : key.pollEvents()) {
+                    if (evento.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        escanear();
+                    } else {
+                        aceptar(carpeta.resolve((Path) evento.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    throw new IOException("La carpeta vigilada ya no está disponible: " + carpeta);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // detener() cerró el servicio
+        }
+    }
+
+    public void detener() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    public int getCompletados() {
+        return completados.get();
+    }
+
+    public int getFallidos() {
+        return fallidos.get();
+    }
+
+    private void escanear() throws IOException, InterruptedException {
+        try (DirectoryStream<Path> archivos = Files.newDirectoryStream(carpeta, "*" + EXTENSION)) {
+            for (Path archivo : archivos) {
+                aceptar(archivo);
+            }
+        }
+    }
+
+    private void aceptar(Path archivo) throws InterruptedException {
+        if (!archivo.getFileName().toString().endsWith(EXTENSION) || !Files.isRegularFile(archivo)
+                || !enProceso.add(archivo)) {
+            return;
+        }
+        try {
+            procesar(archivo);
+        } catch (IOException | RuntimeException e) {
+            finalizar(archivo, List.of(archivo.getFileName() + ": " + e));
+        }
+    }
+
+    private void procesar(Path archivo) throws IOException, InterruptedException {
+        System.out.println("Trabajo recibido: " + archivo.getFileName());
+        Queue<String> errores = new ConcurrentLinkedQueue<>();
+        // Empieza en 1 para que el archivo no se cierre antes de leer todas sus líneas
+        AtomicInteger pendientes = new AtomicInteger(1);
+
+        try (BatchJobReader lector = new BatchJobReader(archivo)) {
+            BatchJob job;
+            while ((job = lector.siguiente()) != null) {
+                BatchJob actual = job;
+                pendientes.incrementAndGet();
+                executor.enviar(actual, error -> {
+                    if (error != null) {
+                        errores.add(actual.getId() + ": " + error);
+                    }
+                    if (pendientes.decrementAndGet() == 0) {
+                        finalizar(archivo, List.copyOf(errores));
+                    }
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            errores.add(archivo.getFileName() + ": " + e);
+        }
+
+        if (pendientes.decrementAndGet() == 0) {
+            finalizar(archivo, List.copyOf(errores));
+        }
+    }
+
+    private void finalizar(Path archivo, List<String> errores) {
+        try {
+            if (errores.isEmpty()) {
+                Files.move(archivo, hecho.resolve(archivo.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                completados.incrementAndGet();
+                System.out.println("Trabajo completado: " + archivo.getFileName());
+            } else {
+                Path destino = fallido.resolve(archivo.getFileName());
+                Files.move(archivo, destino, StandardCopyOption.REPLACE_EXISTING);
+                Files.write(fallido.resolve(archivo.getFileName() + ".error"), errores, StandardCharsets.UTF_8);
+                fallidos.incrementAndGet();
+                System.err.println("Trabajo fallido: " + archivo.getFileName() + " (" + errores.size() + " errores)");
+            }
+        } catch (IOException e) {
+            System.err.println("No se pudo mover " + archivo + ": " + e.getMessage());
+        } finally {
+            enProceso.remove(archivo);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.logicsolutions.batch;
+
+import com.logicsolutions.util.DocxUtils;
+import com.logicsolutions.util.MappedZip;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+
+/**
+ * Estima la memoria que necesita renderizar un documento a partir del directorio
+ * central del ZIP (tamaños inflados de las partes XML), sin descomprimir nada.
+ */
+public final class MemoryEstimator {
+
+    /** Relación aproximada entre el XML inflado y su árbol DOM en heap */
+    static final int FACTOR_DOM = 10;
+
+    /** Buffers de ZIP, transformador y demás objetos fijos por documento */
+    static final long BASE_POR_DOCUMENTO = 2L * 1024 * 1024;
+
+    private MemoryEstimator() {
+    }
+
+    public static long estimarBytes(String docx) throws IOException {
+        long mayorParte = 0;
+        long totalPartes = 0;
+
+        try (MappedZip zip = MappedZip.abrir(docx)) {
+            Enumeration<ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (!DocxUtils.isDocumentXml(name) && !DocxUtils.isHeaderXml(name) && !DocxUtils.isFooterXml(name)) {
+                    continue;
+                }
+                // Si el directorio central no trae el tamaño, se asume una compresión típica de XML
+                long size = entry.getSize() >= 0 ? entry.getSize() : entry.getCompressedSize() * 10;
+                mayorParte = Math.max(mayorParte, size);
+                totalPartes += size;
+            }
+        }
+
+        // Las partes se procesan de una en una: solo el DOM mayor está vivo, más los
+        // bytes serializados que algunos comandos retienen hasta escribir el ZIP
+        return BASE_POR_DOCUMENTO + mayorParte * FACTOR_DOM + totalPartes;
+    }
+}
@@ -0,0 +1,122 @@
+package com.logicsolutions.batch;
+
+import com.logicsolutions.util.Metricas;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Endpoint HTTP local con las métricas del proceso y sus comprobaciones de salud.
+ * <ul>
+ *   <li>{@code /metrics}: {@link Metricas} en formato de texto de Prometheus, más la cola y los
+ *       hilos activos del executor</li>
+ *   <li>{@code /health/live}: 200 mientras el executor acepta trabajo</li>
+ *   <li>{@code /health/ready}: 200 si un trabajo nuevo empezaría sin esperar; 503 si la cola
+ *       está llena (el balanceador debería enviar el trabajo a otra instancia)</li>
+ * </ul>
+ * Sin host explícito escucha solo en 127.0.0.1.
+ */
+public class MetricsServer implements AutoCloseable {
+
+    private static final String HOST_POR_DEFECTO = "127.0.0.1";
+    private static final String TIPO_METRICAS = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer servidor;
+    private final ExecutorService hilo;
+    private final BatchExecutor executor;
+
+    private MetricsServer(HttpServer servidor, ExecutorService hilo, BatchExecutor executor) {
+        this.servidor = servidor;
+        this.hilo = hilo;
+        this.executor = executor;
+    }
+
+    /**
+     * Arranca el servidor en segundo plano
+     *
+     * @param direccion "puerto" o "host:puerto"
+     */
+    public static MetricsServer iniciar(String direccion, BatchExecutor executor) throws IOException {
+        int separador = direccion.lastIndexOf(':');
+        String host = separador > 0 ? direccion.substring(0, separador) : HOST_POR_DEFECTO;
+        int puerto = Integer.parseInt(direccion.substring(separador + 1));
+
+        HttpServer servidor = HttpServer.create(new InetSocketAddress(host, puerto), 0);
+        // Un solo hilo: las consultas son baratas y no deben competir con el renderizado
+        ExecutorService hilo = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metricas");
+            t.setDaemon(true);
+            return t;
+        });
+        MetricsServer metricas = new MetricsServer(servidor, hilo, executor);
+        servidor.createContext("/metrics", metricas::metricas);
+        servidor.createContext("/health/live", metricas::vivo);
+        servidor.createContext("/health/ready", metricas::listo);
+        servidor.setExecutor(hilo);
+        servidor.start();
+        return metricas;
+    }
+
+    public InetSocketAddress getDireccion() {
+        return servidor.getAddress();
+    }
+
+    private void metricas(HttpExchange intercambio) throws IOException {
+        StringBuilder sb = new StringBuilder(8192);
+        Metricas.global().escribir(sb);
+        Metricas.indicador(sb, "docxtool_queue_depth", "Trabajos admitidos que esperan renderizado o escritura",
+                executor.getTrabajosEnCola());
+        Metricas.indicador(sb, "docxtool_active_workers", "Hilos de renderizado ocupados", executor.getHilosActivos());
+        Metricas.indicador(sb, "docxtool_workers", "Hilos de renderizado configurados", executor.getHilos());
+        Metricas.indicador(sb, "docxtool_admission_waiting", "Productores esperando presupuesto o hueco en la cola",
+                executor.getEsperandoAdmision());
+        Metricas.indicador(sb, "docxtool_ready", "1 si un trabajo nuevo empezaría sin esperar", listo() ? 1 : 0);
+        responder(intercambio, 200, TIPO_METRICAS, sb.toString());
+    }
+
+    private void vivo(HttpExchange intercambio) throws IOException {
+        boolean vivo = !executor.estaCerrado();
+        responder(intercambio, vivo ? 200 : 503, "text/plain; charset=utf-8", vivo ? "vivo\n" : "detenido\n");
+    }
+
+    private void listo(HttpExchange intercambio) throws IOException {
+        String detalle = "cola=" + executor.getTrabajosEnCola()
+                + " activos=" + executor.getHilosActivos() + "/" + executor.getHilos()
+                + " esperando=" + executor.getEsperandoAdmision() + "\n";
+        if (listo()) {
+            responder(intercambio, 200, "text/plain; charset=utf-8", "listo " + detalle);
+        } else {
+            responder(intercambio, 503, "text/plain; charset=utf-8", "saturado " + detalle);
+        }
+    }
+
+    private boolean listo() {
+        return !executor.estaCerrado() && !executor.estaSaturado();
+    }
+
+    private static void responder(HttpExchange intercambio, int estado, String tipo, String cuerpo) throws IOException {
+        byte[] bytes = cuerpo.getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", tipo);
+        if ("HEAD".equals(intercambio.getRequestMethod())) {
+            intercambio.sendResponseHeaders(estado, -1);
+            intercambio.close();
+            return;
+        }
+        intercambio.sendResponseHeaders(estado, bytes.length);
+        try (OutputStream out = intercambio.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        servidor.stop(0);
+        hilo.shutdownNow();
+    }
+}
@@ -0,0 +1,361 @@
+package com.logicsolutions.batch;
+
+import com.logicsolutions.commands.Comandos;
+import com.logicsolutions.commands.DocxCommand;
+import com.logicsolutions.util.Consola;
+import com.logicsolutions.util.EstadisticasReemplazo;
+import com.logicsolutions.util.Metricas;
+import com.logicsolutions.util.ResultCache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renderizado reactivo: recibe mapas de reemplazos de un {@link Flow.Publisher} y publica
+ * los .docx generados con una plantilla y un comando fijos.
+ * <p>
+ * Los registros se piden al origen solo cuando el suscriptor tiene demanda, y nunca hay
+ * más pendientes (pedidos, renderizándose o esperando entrega) que el límite de trabajos
+ * en vuelo ni que los que caben en el presupuesto de memoria según {@link MemoryEstimator}.
+ * Así un flujo lento de consumo frena al productor en lugar de acumular documentos.
+ * <p>
+ * Admite un único suscriptor. Un registro que falla se emite con su error
+ * ({@link RenderedDocument#getError()}); un error del origen se propaga cuando terminan
+ * los documentos en curso.
+ */
+public class RenderProcessor implements Flow.Processor<Map<String, String>, RenderedDocument>, AutoCloseable {
+
+    private final String comando;
+    private final String plantilla;
+    private final int limite;
+    private final ExecutorService pool;
+    private final EstadisticasReemplazo estadisticas = new EstadisticasReemplazo();
+    private volatile ResultCache cache;
+    private volatile boolean silenciosa;
+
+    private final Queue<RenderedDocument> listos = new ArrayDeque<>();
+    private final AtomicInteger enDrenaje = new AtomicInteger();
+    private Flow.Subscription origen;
+    private Flow.Subscriber<? super RenderedDocument> suscriptor;
+    private long demanda;
+    private int pedidos;
+    private int renderizando;
+    private long secuencia;
+    private boolean origenTerminado;
+    private Throwable errorOrigen;
+    // Demanda no positiva del suscriptor: termina sin esperar a los documentos en curso
+    private Throwable errorDemanda;
+    private boolean cancelado;
+    private boolean terminado;
+
+    /**
+     * @param hilos            hilos de renderizado
+     * @param maxEnVuelo       registros pendientes como máximo
+     * @param presupuestoBytes memoria para documentos en curso; limita además los pendientes
+     */
+    public RenderProcessor(String comando, String plantilla, int hilos, int maxEnVuelo,
+                           long presupuestoBytes) throws Exception {
+        if (!Comandos.existe(comando)) {
+            throw new IllegalArgumentException("Comando desconocido: " + comando);
+        }
+        if (hilos < 1 || maxEnVuelo < 1) {
+            throw new IllegalArgumentException("Los hilos y el máximo en vuelo deben ser mayores que cero");
+        }
+        this.comando = comando;
+        this.plantilla = plantilla;
+        long porDocumento = MemoryEstimator.estimarBytes(plantilla);
+        this.limite = (int) Math.max(1, Math.min(maxEnVuelo, presupuestoBytes / porDocumento));
+        this.pool = Executors.newFixedThreadPool(hilos, crearFabricaHilos());
+    }
+
+    /**
+     * Consulta la caché de resultados antes de renderizar cada registro (null la desactiva)
+     */
+    public void usarCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Silencia los mensajes de cada renderizado (partes procesadas, tags reemplazados)
+     */
+    public void usarSalidaSilenciosa(boolean silenciosa) {
+        this.silenciosa = silenciosa;
+    }
+
+    /**
+     * Registros pendientes como máximo tras aplicar el presupuesto de memoria
+     */
+    public int getLimite() {
+        return limite;
+    }
+
+    /**
+     * Reemplazos acumulados de todos los documentos generados
+     */
+    public EstadisticasReemplazo getEstadisticas() {
+        return estadisticas;
+    }
+
+    // ---- Lado suscriptor: registros de entrada ----
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (origen != null || cancelado) {
+                subscription.cancel();
+                return;
+            }
+            origen = subscription;
+        }
+        drenar();
+    }
+
+    @Override
+    public void onNext(Map<String, String> reemplazos) {
+        long numero;
+        synchronized (this) {
+            if (cancelado) {
+                return;
+            }
+            pedidos = Math.max(0, pedidos - 1);
+            renderizando++;
+            numero = secuencia++;
+        }
+        Map<String, String> copia = Collections.unmodifiableMap(new LinkedHashMap<>(reemplazos));
+        pool.execute(() -> {
+            RenderedDocument documento = renderizar(numero, copia);
+            synchronized (this) {
+                renderizando--;
+                if (!cancelado) {
+                    listos.add(documento);
+                }
+            }
+            drenar();
+        });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            origenTerminado = true;
+            errorOrigen = throwable;
+        }
+        drenar();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            origenTerminado = true;
+        }
+        drenar();
+    }
+
+    // ---- Lado publicador: documentos generados ----
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super RenderedDocument> subscriber) {
+        boolean aceptado;
+        synchronized (this) {
+            aceptado = suscriptor == null;
+            if (aceptado) {
+                suscriptor = subscriber;
+            }
+        }
+        if (!aceptado) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("RenderProcessor admite un único suscriptor"));
+            return;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                solicitar(n);
+            }
+
+            @Override
+            public void cancel() {
+                cancelar();
+            }
+        });
+        drenar();
+    }
+
+    private void solicitar(long n) {
+        synchronized (this) {
+            if (terminado) {
+                return;
+            }
+            if (n <= 0) {
+                // Regla 3.9 de Reactive Streams
+                cancelado = true;
+                listos.clear();
+                errorDemanda = new IllegalArgumentException("La demanda debe ser positiva: " + n);
+            } else {
+                demanda = demanda + n < 0 ? Long.MAX_VALUE : demanda + n;
+            }
+        }
+        drenar();
+    }
+
+    private void cancelar() {
+        Flow.Subscription aCancelar;
+        synchronized (this) {
+            cancelado = true;
+            terminado = true;
+            listos.clear();
+            aCancelar = origen;
+        }
+        if (aCancelar != null) {
+            aCancelar.cancel();
+        }
+    }
+
+    /**
+     * Entrega documentos mientras haya demanda, pide más registros al origen y señala el
+     * final. Un único hilo drena a la vez; las llamadas concurrentes solo piden otra vuelta.
+     */
+    private void drenar() {
+        if (enDrenaje.getAndIncrement() != 0) {
+            return;
+        }
+        int vueltas = 1;
+        do {
+            Flow.Subscriber<? super RenderedDocument> destino;
+            synchronized (this) {
+                destino = suscriptor;
+            }
+            if (destino != null) {
+                entregar(destino);
+                pedirAlOrigen();
+            }
+            vueltas = enDrenaje.addAndGet(-vueltas);
+        } while (vueltas != 0);
+    }
+
+    private void entregar(Flow.Subscriber<? super RenderedDocument> destino) {
+        while (true) {
+            RenderedDocument documento;
+            synchronized (this) {
+                if (terminado || demanda == 0 || listos.isEmpty()) {
+                    break;
+                }
+                documento = listos.poll();
+                demanda--;
+            }
+            destino.onNext(documento);
+        }
+
+        Throwable error;
+        Flow.Subscription aCancelar = null;
+        synchronized (this) {
+            boolean vacio = listos.isEmpty() && renderizando == 0;
+            if (terminado || (errorDemanda == null && !(origenTerminado && vacio))) {
+                return;
+            }
+            terminado = true;
+            if (errorDemanda != null) {
+                error = errorDemanda;
+                aCancelar = origenTerminado ? null : origen;
+            } else {
+                error = errorOrigen;
+            }
+        }
+        if (aCancelar != null) {
+            aCancelar.cancel();
+        }
+        if (error != null) {
+            destino.onError(error);
+        } else {
+            destino.onComplete();
+        }
+    }
+
+    private void pedirAlOrigen() {
+        Flow.Subscription subscription;
+        long cantidad;
+        synchronized (this) {
+            if (origen == null || origenTerminado || cancelado) {
+                return;
+            }
+            long pendientes = (long) pedidos + renderizando + listos.size();
+            cantidad = Math.min(limite, demanda) - pendientes;
+            if (cantidad <= 0) {
+                return;
+            }
+            pedidos += (int) cantidad;
+            subscription = origen;
+        }
+        subscription.request(cantidad);
+    }
+
+    private RenderedDocument renderizar(long numero, Map<String, String> reemplazos) {
+        long inicio = System.nanoTime();
+        Metricas metricas = Metricas.global();
+        try {
+            ResultCache cacheActual = cache;
+            DocxCommand docx = cacheActual != null
+                    ? cacheActual.envolver(comando, Comandos.crear(comando))
+                    : Comandos.crear(comando);
+            ByteArrayOutputStream salida = new ByteArrayOutputStream(64 * 1024);
+            Consola.ejecutarCon(silenciosa, () -> {
+                docx.render(plantilla, salida, reemplazos);
+                return null;
+            });
+            estadisticas.fusionar(docx.getEstadisticas());
+            if (!docx.resultadoReutilizado()) {
+                metricas.registrarReemplazos(docx.getEstadisticas(), reemplazos.keySet());
+            }
+            metricas.registrarBytes(Files.size(Paths.get(plantilla)), salida.size());
+            metricas.registrarDocumento(comando, true, System.nanoTime() - inicio);
+            return new RenderedDocument(numero, reemplazos, salida.toByteArray(), null);
+        } catch (Exception e) {
+            metricas.registrarDocumento(comando, false, System.nanoTime() - inicio);
+            return new RenderedDocument(numero, reemplazos, null, e);
+        }
+    }
+
+    /**
+     * Espera a que terminen los renderizados en curso y libera los hilos. Si se interrumpe la
+     * espera, conserva la interrupción y vuelve sin esperar al resto.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory crearFabricaHilos() {
+        AtomicInteger contador = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "flujo-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,69 @@
+package com.logicsolutions.batch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Documento emitido por {@link RenderProcessor}: el .docx generado para un registro o
+ * el error que impidió generarlo. Un registro fallido no termina el flujo.
+ */
+public class RenderedDocument {
+
+    private final long secuencia;
+    private final Map<String, String> reemplazos;
+    private final byte[] docx;
+    private final Exception error;
+
+    RenderedDocument(long secuencia, Map<String, String> reemplazos, byte[] docx, Exception error) {
+        this.secuencia = secuencia;
+        this.reemplazos = reemplazos;
+        this.docx = docx;
+        this.error = error;
+    }
+
+    /**
+     * Posición del registro en el flujo de entrada, desde 0. Los documentos se emiten en
+     * orden de finalización, que puede no coincidir con el de entrada.
+     */
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    public Map<String, String> getReemplazos() {
+        return reemplazos;
+    }
+
+    public boolean isCorrecto() {
+        return error == null;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Contenido del .docx como flujo de bytes
+     */
+    public InputStream abrir() {
+        verificarCorrecto();
+        return new ByteArrayInputStream(docx);
+    }
+
+    public void escribirEn(OutputStream out) throws IOException {
+        verificarCorrecto();
+        out.write(docx);
+    }
+
+    public int getTamano() {
+        return docx != null ? docx.length : 0;
+    }
+
+    private void verificarCorrecto() {
+        if (error != null) {
+            throw new IllegalStateException("El registro " + secuencia + " no se pudo renderizar", error);
+        }
+    }
+}
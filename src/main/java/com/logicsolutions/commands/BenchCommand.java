@@ -0,0 +1,323 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.util.DocxDeMuestra;
+import com.logicsolutions.util.TagMapLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generador de carga: renderiza N documentos con un comando y mide lo que sostiene la máquina.
+ * - Concurrencia y calentamiento configurables
+ * - Latencia por documento (p50/p95/p99/máx), throughput, asignación de memoria y pausas de GC
+ * - Resultado en JSON para comparar versiones y dimensionar la flota
+ * <p>
+ * Los documentos se generan en memoria y se descartan, así que no mide E/S de disco.
+ */
+public class BenchCommand {
+
+    /** Marcador en los valores del mapa que se sustituye por el número de documento */
+    static final String MARCADOR_DOCUMENTO = "{n}";
+
+    private String comando = "todos";
+    private int documentos = 200;
+    private int concurrencia = Runtime.getRuntime().availableProcessors();
+    private int calentamiento = 50;
+    private int parrafos = 200;
+    private String tagsFile;
+    private String salidaJson;
+
+    public void execute(String[] args) {
+        String plantilla = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--comando":
+                        comando = args[++i];
+                        break;
+                    case "--documentos":
+                        documentos = Integer.parseInt(args[++i]);
+                        break;
+                    case "--concurrencia":
+                        concurrencia = Integer.parseInt(args[++i]);
+                        break;
+                    case "--calentamiento":
+                        calentamiento = Integer.parseInt(args[++i]);
+                        break;
+                    case "--parrafos":
+                        parrafos = Integer.parseInt(args[++i]);
+                        break;
+                    case "--tags-file":
+                        tagsFile = args[++i];
+                        break;
+                    case "--salida":
+                        salidaJson = args[++i];
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || plantilla != null) {
+                            System.err.println("Opción desconocida: " + args[i]);
+                            printUsage();
+                            return;
+                        }
+                        plantilla = args[i];
+                }
+            }
+            if (!Comandos.existe(comando) || documentos < 1 || concurrencia < 1 || calentamiento < 0) {
+                printUsage();
+                return;
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Opciones inválidas: " + e.getMessage());
+            printUsage();
+            return;
+        }
+
+        File muestra = null;
+        try {
+            if (plantilla == null) {
+                muestra = File.createTempFile("docx_bench", ".docx");
+                try (OutputStream out = new FileOutputStream(muestra)) {
+                    DocxDeMuestra.generar(out, parrafos);
+                }
+                plantilla = muestra.getPath();
+            }
+
+            String json = medir(plantilla, mapaBase());
+            System.out.println(json);
+            if (salidaJson != null) {
+                Files.write(Paths.get(salidaJson), json.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (muestra != null) {
+                muestra.delete();
+            }
+        }
+    }
+
+    private void printUsage() {
+        System.out.println("Uso: bench [<plantilla.docx>] [--comando todos] [--documentos N] [--concurrencia C]");
+        System.out.println("             [--calentamiento W] [--tags-file mapa] [--parrafos P] [--salida resultado.json]");
+        System.out.println("Ejemplo: bench carta.docx --comando loop --documentos 2000 --concurrencia 8");
+        System.out.println();
+        System.out.println("Sin plantilla se usa un documento de muestra de P párrafos (200 por defecto).");
+        System.out.println("Sin --tags-file se usan los tags del documento de muestra.");
+        System.out.println("En los valores del mapa, " + MARCADOR_DOCUMENTO + " se sustituye por el número de documento,");
+        System.out.println("para que cada documento tenga datos distintos.");
+    }
+
+    private Map<String, String> mapaBase() throws Exception {
+        if ("predeterminado".equalsIgnoreCase(comando)) {
+            return Map.of(PredeterminadoCommand.TAG_PREDETERMINADO, "[PENDIENTE " + MARCADOR_DOCUMENTO + "]");
+        }
+        if (tagsFile != null) {
+            return TagMapLoader.cargar(Paths.get(tagsFile));
+        }
+        Map<String, String> mapa = new LinkedHashMap<>();
+        DocxDeMuestra.reemplazosDeMuestra().forEach((tag, valor) -> mapa.put(tag, valor + " " + MARCADOR_DOCUMENTO));
+        return mapa;
+    }
+
+    static Map<String, String> mapaDelDocumento(Map<String, String> base, int numero) {
+        Map<String, String> mapa = new LinkedHashMap<>();
+        String n = String.valueOf(numero);
+        base.forEach((tag, valor) -> mapa.put(tag, valor.replace(MARCADOR_DOCUMENTO, n)));
+        return mapa;
+    }
+
+    private String medir(String plantilla, Map<String, String> base) throws Exception {
+        var threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean asignacion = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        List<GarbageCollectorMXBean> colectores = ManagementFactory.getGarbageCollectorMXBeans();
+
+        PrintStream salidaOriginal = System.out;
+        ExecutorService pool = Executors.newFixedThreadPool(concurrencia, r -> {
+            Thread t = new Thread(r, "bench");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            // Los mensajes de los comandos se serializarían en System.out y falsearían la medida
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+            ejecutar(pool, plantilla, base, 0, calentamiento, new long[calentamiento], new AtomicLong(),
+                    new AtomicInteger(), asignacion);
+
+            long[] gcAntes = estadoGc(colectores);
+            long[] latencias = new long[documentos];
+            AtomicLong bytesAsignados = new AtomicLong();
+            AtomicInteger errores = new AtomicInteger();
+
+            long inicio = System.nanoTime();
+            ejecutar(pool, plantilla, base, calentamiento, documentos, latencias, bytesAsignados, errores, asignacion);
+            long duracion = System.nanoTime() - inicio;
+            long[] gcDespues = estadoGc(colectores);
+
+            System.setOut(salidaOriginal);
+            return aJson(plantilla, latencias, duracion, asignacion != null ? bytesAsignados.get() : -1,
+                    errores.get(), colectores, gcAntes, gcDespues);
+        } finally {
+            System.setOut(salidaOriginal);
+            pool.shutdownNow();
+        }
+    }
+
+    private void ejecutar(ExecutorService pool, String plantilla, Map<String, String> base, int desplazamiento,
+                          int cantidad, long[] latencias, AtomicLong bytesAsignados, AtomicInteger errores,
+                          com.sun.management.ThreadMXBean asignacion) throws Exception {
+        List<Future<?>> futuros = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            int indice = i;
+            futuros.add(pool.submit(() -> {
+                Map<String, String> mapa = mapaDelDocumento(base, desplazamiento + indice + 1);
+                long hilo = Thread.currentThread().getId();
+                long asignadoAntes = asignacion != null ? asignacion.getThreadAllocatedBytes(hilo) : 0;
+                long t0 = System.nanoTime();
+                try {
+                    Comandos.crear(comando).render(plantilla, new ByteArrayOutputStream(64 * 1024), mapa);
+                } catch (Exception e) {
+                    errores.incrementAndGet();
+                }
+                latencias[indice] = System.nanoTime() - t0;
+                if (asignacion != null) {
+                    bytesAsignados.addAndGet(asignacion.getThreadAllocatedBytes(hilo) - asignadoAntes);
+                }
+            }));
+        }
+        for (Future<?> futuro : futuros) {
+            futuro.get();
+        }
+    }
+
+    /**
+     * Número de colecciones y tiempo acumulado (ms) de cada colector, intercalados
+     */
+    private static long[] estadoGc(List<GarbageCollectorMXBean> colectores) {
+        long[] estado = new long[colectores.size() * 2];
+        for (int i = 0; i < colectores.size(); i++) {
+            estado[2 * i] = Math.max(0, colectores.get(i).getCollectionCount());
+            estado[2 * i + 1] = Math.max(0, colectores.get(i).getCollectionTime());
+        }
+        return estado;
+    }
+
+    private String aJson(String plantilla, long[] latencias, long duracionNanos, long bytesAsignados, int errores,
+                         List<GarbageCollectorMXBean> colectores, long[] gcAntes, long[] gcDespues) {
+        long[] ordenadas = latencias.clone();
+        Arrays.sort(ordenadas);
+        double segundos = duracionNanos / 1e9;
+        long totalNanos = 0;
+        for (long latencia : ordenadas) {
+            totalNanos += latencia;
+        }
+
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\n");
+        campo(json, 1, "comando", texto(comando)).append(",\n");
+        campo(json, 1, "plantilla", texto(plantilla)).append(",\n");
+        campo(json, 1, "documentos", documentos).append(",\n");
+        campo(json, 1, "concurrencia", concurrencia).append(",\n");
+        campo(json, 1, "calentamiento", calentamiento).append(",\n");
+        campo(json, 1, "errores", errores).append(",\n");
+        campo(json, 1, "duracionMs", decimal(duracionNanos / 1e6)).append(",\n");
+        campo(json, 1, "documentosPorSegundo", decimal(documentos / segundos)).append(",\n");
+
+        json.append("  \"latenciaMs\": {\n");
+        campo(json, 2, "media", decimal(totalNanos / 1e6 / documentos)).append(",\n");
+        campo(json, 2, "p50", decimal(percentil(ordenadas, 50) / 1e6)).append(",\n");
+        campo(json, 2, "p95", decimal(percentil(ordenadas, 95) / 1e6)).append(",\n");
+        campo(json, 2, "p99", decimal(percentil(ordenadas, 99) / 1e6)).append(",\n");
+        campo(json, 2, "max", decimal(ordenadas[ordenadas.length - 1] / 1e6)).append("\n");
+        json.append("  },\n");
+
+        json.append("  \"asignacion\": {\n");
+        if (bytesAsignados >= 0) {
+            campo(json, 2, "bytesPorDocumento", bytesAsignados / documentos).append(",\n");
+            campo(json, 2, "mbPorSegundo", decimal(bytesAsignados / segundos / (1024 * 1024))).append("\n");
+        } else {
+            campo(json, 2, "disponible", "false").append("\n");
+        }
+        json.append("  },\n");
+
+        long colecciones = 0;
+        long pausaMs = 0;
+        StringBuilder porColector = new StringBuilder();
+        for (int i = 0; i < colectores.size(); i++) {
+            long n = gcDespues[2 * i] - gcAntes[2 * i];
+            long ms = gcDespues[2 * i + 1] - gcAntes[2 * i + 1];
+            colecciones += n;
+            pausaMs += ms;
+            porColector.append(i == 0 ? "" : ",\n").append("      ").append(texto(colectores.get(i).getName()))
+                    .append(": {\"colecciones\": ").append(n).append(", \"tiempoMs\": ").append(ms).append('}');
+        }
+        json.append("  \"gc\": {\n");
+        campo(json, 2, "colecciones", colecciones).append(",\n");
+        campo(json, 2, "tiempoMs", pausaMs).append(",\n");
+        json.append("    \"porColector\": {\n").append(porColector).append("\n    }\n");
+        json.append("  },\n");
+
+        json.append("  \"jvm\": {\n");
+        campo(json, 2, "version", texto(System.getProperty("java.version"))).append(",\n");
+        campo(json, 2, "procesadores", Runtime.getRuntime().availableProcessors()).append(",\n");
+        campo(json, 2, "heapMaxMb", Runtime.getRuntime().maxMemory() / (1024 * 1024)).append("\n");
+        json.append("  }\n");
+        json.append("}");
+        return json.toString();
+    }
+
+    /**
+     * Percentil por rango más cercano sobre latencias ya ordenadas
+     */
+    static long percentil(long[] ordenadas, double p) {
+        int rango = (int) Math.ceil(p / 100.0 * ordenadas.length);
+        return ordenadas[Math.max(0, Math.min(ordenadas.length - 1, rango - 1))];
+    }
+
+    private static StringBuilder campo(StringBuilder json, int nivel, String nombre, Object valor) {
+        for (int i = 0; i < nivel; i++) {
+            json.append("  ");
+        }
+        return json.append('"').append(nombre).append("\": ").append(valor);
+    }
+
+    private static String decimal(double valor) {
+        return String.format(Locale.ROOT, "%.3f", valor);
+    }
+
+    private static String texto(String valor) {
+        StringBuilder sb = new StringBuilder(valor.length() + 2).append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,39 @@
+package com.logicsolutions.commands;
+
+/**
+ * Registro de los comandos que pueden ejecutarse de forma programática (lote, etc.).
+ * Cada llamada devuelve una instancia nueva, ya que algunos comandos guardan estado.
+ */
+public final class Comandos {
+
+    private Comandos() {
+    }
+
+    public static DocxCommand crear(String nombre) {
+        switch (nombre.toLowerCase()) {
+            case "cuadros":
+                return new CuadrosTextoCommand();
+            case "encabezados":
+                return new EncabezadosCommand();
+            case "pies":
+                return new PiesCommand();
+            case "todos":
+                return new TodosCommand();
+            case "predeterminado":
+                return new PredeterminadoCommand();
+            case "loop":
+                return new LoopCommand();
+            default:
+                throw new IllegalArgumentException("Comando desconocido: " + nombre);
+        }
+    }
+
+    public static boolean existe(String nombre) {
+        try {
+            crear(nombre);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.util.Consola;
+import com.logicsolutions.util.DocxPackage;
+import com.logicsolutions.util.DocxUtils;
+import com.logicsolutions.util.EstadisticasReemplazo;
+import com.logicsolutions.util.MappedZip;
+import com.logicsolutions.util.StreamingXmlProcessor;
+import com.logicsolutions.util.Tsv;
+import com.logicsolutions.util.ValorReemplazo;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilder;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.*;
+
+/**
+ * Comando para combinar muchos registros en un solo documento (combinación de correspondencia).
+ * - El cuerpo de la plantilla se repite una vez por registro con los reemplazos del modo 'todos'
+ * - Cada copia termina con un salto de sección que reutiliza el w:sectPr de la plantilla
+ * - Encabezados, pies, estilos y multimedia se comparten (no se procesan por registro)
+ * - Los ids de dibujos y de marcadores se renumeran en cada copia (ver {@link Renumeracion});
+ *   las plantillas con notas al pie, notas finales o comentarios no se pueden repetir
+ * - El document.xml resultante se escribe directamente en el ZIP, registro a registro
+ */
+public class CombinarCommand {
+
+    /** Límite de memoria por párrafo al procesar el cuerpo de cada registro */
+    private static final long LIMITE_PARRAFO_BYTES = 256L * 1024 * 1024;
+    private static final int AVISO_CADA = 500;
+
+    private static final byte[] INICIO_BODY = ascii("<w:body");
+    private static final byte[] FIN_BODY = ascii("</w:body>");
+    private static final byte[] INICIO_SECTPR = ascii("<w:sectPr");
+    private static final byte[] INICIO_SALTO = ascii("<w:p><w:pPr>");
+    private static final byte[] FIN_SALTO = ascii("</w:pPr></w:p>");
+    private static final byte[] INICIO_MARCADOR = ascii("<w:bookmarkStart");
+    /** Referencias a partes compartidas que no se pueden duplicar por registro */
+    private static final String[] REFERENCIAS_NO_ADMITIDAS = {
+            "w:footnoteReference", "w:endnoteReference", "w:commentReference"};
+
+    private final EstadisticasReemplazo estadisticas = new EstadisticasReemplazo();
+
+    public void execute(String[] args) {
+        if (args.length != 3) {
+            printUsage();
+            return;
+        }
+
+        String plantilla = args[0];
+        String registros = args[1];
+        String destino = args[2];
+
+        System.out.println("========================================");
+        System.out.println("COMANDO: combinar");
+        System.out.println("Plantilla: " + plantilla);
+        System.out.println("Registros: " + registros);
+        System.out.println("Archivo destino: " + destino);
+        System.out.println("NOTA: Encabezados y pies se comparten entre registros y NO se modifican.");
+        System.out.println("========================================");
+
+        long inicio = System.currentTimeMillis();
+        try (BufferedReader lector = Files.newBufferedReader(Paths.get(registros), StandardCharsets.UTF_8)) {
+            AtomicInteger total = new AtomicInteger();
+            DocxUtils.escribirArchivo(destino, out -> total.set(combinar(plantilla, lector, out)));
+
+            System.out.println("\n========================================");
+            System.out.println("Registros combinados: " + total.get());
+            System.out.println("Tiempo total: " + (System.currentTimeMillis() - inicio) + " ms");
+            System.out.println("Documento guardado en: " + destino);
+            System.out.println("========================================");
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private void printUsage() {
+        System.out.println("Uso: combinar <plantilla.docx> <registros.tsv> <destino.docx>");
+        System.out.println("Ejemplo: combinar carta.docx clientes.tsv cartas.docx");
+        System.out.println();
+        System.out.println("La primera línea de registros.tsv contiene los tags y cada línea siguiente");
+        System.out.println("los valores de un registro (separados por tabulador):");
+        System.out.println("  <<NOMBRE>>  <<DIRECCION>>");
+        System.out.println("  Juan        Calle 1||BR||Ciudad");
+    }
+
+    /**
+     * Escribe en {@code output} un .docx con una copia del cuerpo de la plantilla por registro.
+     * El flujo de salida no se cierra.
+     *
+     * @return número de registros combinados
+     */
+    public int combinar(String plantilla, BufferedReader registros, OutputStream output) throws Exception {
+        String linea = registros.readLine();
+        if (linea == null) {
+            throw new IllegalArgumentException("El archivo de registros está vacío");
+        }
+        List<String> tags = Tsv.dividirCampos(linea);
+
+        try (MappedZip zipOrig = MappedZip.abrir(plantilla);
+             ZipOutputStream zipOut = new ZipOutputStream(DocxUtils.nonClosing(output))) {
+
+            DocumentBuilder builder = DocxUtils.createDocumentBuilder();
+            String principal = DocxPackage.leer(zipOrig, builder).getPrincipal();
+            int total = 0;
+            var entries = zipOrig.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().equals(principal)) {
+                    zipOut.putNextEntry(new ZipEntry(entry.getName()));
+                    total = escribirCuerpos(DocxUtils.readEntry(zipOrig, entry), tags, registros, zipOut, builder);
+                    zipOut.closeEntry();
+                } else {
+                    DocxUtils.copyEntry(zipOrig, entry, zipOut);
+                }
+            }
+            return total;
+        }
+    }
+
+    private int escribirCuerpos(byte[] documentXml, List<String> tags, BufferedReader registros,
+                                OutputStream out, DocumentBuilder builder) throws Exception {
+        // Prefijo hasta <w:body ...> incluido y sufijo desde el w:sectPr final del cuerpo
+        int finInicioBody = finDeEtiqueta(documentXml, indexOf(documentXml, INICIO_BODY, 0));
+        int finBodyPlantilla = lastIndexOf(documentXml, FIN_BODY, documentXml.length);
+        int inicioSufijo = sectPrFinal(documentXml, finInicioBody, finBodyPlantilla);
+        byte[] sectPr = inicioSufijo < finBodyPlantilla
+                ? Arrays.copyOfRange(documentXml, inicioSufijo, finBodyPlantilla)
+                : ascii("<w:sectPr/>");
+
+        String noAdmitida = referenciaNoAdmitida(documentXml);
+        int marcadoresPlantilla = contar(documentXml, INICIO_MARCADOR);
+
+        TodosCommand todos = new TodosCommand();
+        Renumeracion renumeracion = new Renumeracion();
+        StreamingXmlProcessor procesador = new StreamingXmlProcessor(LIMITE_PARRAFO_BYTES);
+        ByteArrayOutputStream cuerpo = new ByteArrayOutputStream(documentXml.length);
+
+        out.write(documentXml, 0, finInicioBody);
+
+        // Los mensajes por reemplazo de cada registro no aportan nada en miles de copias
+        PrintStream avisos = Consola.out();
+        int total = Consola.ejecutarCon(true, () -> {
+            int copias = 0;
+            String linea;
+            while ((linea = registros.readLine()) != null) {
+                if (linea.isBlank()) {
+                    continue;
+                }
+                if (copias == 1) {
+                    comprobarRepetible(noAdmitida, marcadoresPlantilla, renumeracion);
+                }
+                Map<String, ValorReemplazo> valores = ValorReemplazo.compilar(registro(tags, linea, copias + 1));
+
+                cuerpo.reset();
+                renumeracion.iniciarCopia(copias);
+                procesador.procesar(new ByteArrayInputStream(documentXml), cuerpo, builder, fragmento -> {
+                    todos.reemplazarEnFragmento(fragmento, valores, estadisticas);
+                    renumeracion.procesar(fragmento);
+                });
+                byte[] procesado = cuerpo.toByteArray();
+
+                if (copias > 0) {
+                    out.write(INICIO_SALTO);
+                    out.write(sectPr);
+                    out.write(FIN_SALTO);
+                }
+                int desde = finDeEtiqueta(procesado, indexOf(procesado, INICIO_BODY, 0));
+                int finBody = lastIndexOf(procesado, FIN_BODY, procesado.length);
+                out.write(procesado, desde, sectPrFinal(procesado, desde, finBody) - desde);
+
+                copias++;
+                if (copias % AVISO_CADA == 0) {
+                    avisos.println("  Registros combinados: " + copias);
+                }
+            }
+            return copias;
+        });
+
+        if (total == 0) {
+            throw new IllegalArgumentException("El archivo de registros no contiene ningún registro");
+        }
+        avisos.println("  Reemplazos realizados: " + estadisticas.getTotal());
+        estadisticas.imprimirFaltantes(avisos, tags);
+        out.write(documentXml, inicioSufijo, documentXml.length - inicioSufijo);
+        return total;
+    }
+
+    public EstadisticasReemplazo getEstadisticas() {
+        return estadisticas;
+    }
+
+    /**
+     * Una segunda copia del cuerpo solo es válida si no repite referencias a partes compartidas
+     * y si todos los marcadores están dentro de párrafos, donde se renumeran
+     */
+    private static void comprobarRepetible(String noAdmitida, int marcadoresPlantilla, Renumeracion renumeracion) {
+        if (noAdmitida != null) {
+            throw new IllegalArgumentException("La plantilla contiene " + noAdmitida
+                    + ": las notas y comentarios no se pueden repetir por registro");
+        }
+        if (renumeracion.marcadoresVistos < marcadoresPlantilla) {
+            throw new IllegalArgumentException("La plantilla tiene "
+                    + (marcadoresPlantilla - renumeracion.marcadoresVistos)
+                    + " marcadores fuera de párrafos (entre filas o celdas de tablas): no se pueden renumerar por registro");
+        }
+    }
+
+    private static String referenciaNoAdmitida(byte[] documentXml) {
+        for (String referencia : REFERENCIAS_NO_ADMITIDAS) {
+            if (indexOf(documentXml, ascii("<" + referencia), 0) >= 0) {
+                return referencia;
+            }
+        }
+        return null;
+    }
+
+    private static int contar(byte[] datos, byte[] patron) {
+        int total = 0;
+        for (int i = indexOf(datos, patron, 0); i >= 0; i = indexOf(datos, patron, i + patron.length)) {
+            total++;
+        }
+        return total;
+    }
+
+    /**
+     * Identificadores que deben ser únicos en el documento y que cada copia del cuerpo repetiría:
+     * wp:docPr/@id de los dibujos y w:id y w:name de los marcadores.
+     * <p>
+     * La primera copia los conserva y sirve para conocer los máximos de la plantilla; la copia n
+     * suma n * (máximo + 1) a cada id, así w:bookmarkStart y su w:bookmarkEnd siguen emparejados
+     * aunque estén en párrafos distintos. Los nombres de marcador reciben el sufijo "_n+1", también
+     * en los w:hyperlink/@w:anchor que apuntan a ellos; los campos REF no se reescriben y siguen
+     * apuntando al marcador de la primera copia.
+     */
+    private static final class Renumeracion {
+        private static final int LARGO_MAXIMO_NOMBRE = 40;
+
+        private int copia;
+        private long maxDocPr;
+        private long maxMarcador;
+        private final Set<String> nombres = new HashSet<>();
+        int marcadoresVistos;
+
+        void iniciarCopia(int copia) {
+            this.copia = copia;
+        }
+
+        void procesar(Document fragmento) {
+            if (copia == 0) {
+                registrar(fragmento);
+                return;
+            }
+            for (Element docPr : DocxUtils.elementos(fragmento, "wp:docPr")) {
+                desplazar(docPr, "id", maxDocPr);
+            }
+            for (Element marcador : DocxUtils.elementos(fragmento, "w:bookmarkStart")) {
+                desplazar(marcador, "w:id", maxMarcador);
+                marcador.setAttribute("w:name", renombrar(marcador.getAttribute("w:name")));
+            }
+            for (Element fin : DocxUtils.elementos(fragmento, "w:bookmarkEnd")) {
+                desplazar(fin, "w:id", maxMarcador);
+            }
+            for (Element enlace : DocxUtils.elementos(fragmento, "w:hyperlink")) {
+                if (nombres.contains(enlace.getAttribute("w:anchor"))) {
+                    enlace.setAttribute("w:anchor", renombrar(enlace.getAttribute("w:anchor")));
+                }
+            }
+        }
+
+        private void registrar(Document fragmento) {
+            for (Element docPr : DocxUtils.elementos(fragmento, "wp:docPr")) {
+                maxDocPr = Math.max(maxDocPr, numero(docPr.getAttribute("id")));
+            }
+            for (Element marcador : DocxUtils.elementos(fragmento, "w:bookmarkStart")) {
+                maxMarcador = Math.max(maxMarcador, numero(marcador.getAttribute("w:id")));
+                nombres.add(marcador.getAttribute("w:name"));
+                marcadoresVistos++;
+            }
+            for (Element fin : DocxUtils.elementos(fragmento, "w:bookmarkEnd")) {
+                maxMarcador = Math.max(maxMarcador, numero(fin.getAttribute("w:id")));
+            }
+        }
+
+        private void desplazar(Element elemento, String atributo, long maximo) {
+            long id = numero(elemento.getAttribute(atributo));
+            if (id >= 0) {
+                elemento.setAttribute(atributo, Long.toString(id + copia * (maximo + 1)));
+            }
+        }
+
+        private String renombrar(String nombre) {
+            String sufijo = "_" + (copia + 1);
+            // Word limita los nombres de marcador a 40 caracteres
+            int largo = Math.min(nombre.length(), LARGO_MAXIMO_NOMBRE - sufijo.length());
+            return nombre.substring(0, Math.max(largo, 0)) + sufijo;
+        }
+
+        private static long numero(String valor) {
+            try {
+                return Long.parseLong(valor.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    private static Map<String, String> registro(List<String> tags, String linea, int numero) {
+        List<String> valores = Tsv.dividirCampos(linea);
+        if (valores.size() != tags.size()) {
+            throw new IllegalArgumentException("El registro " + numero + " tiene " + valores.size()
+                    + " campos y se esperaban " + tags.size());
+        }
+        Map<String, String> reemplazos = new LinkedHashMap<>();
+        for (int i = 0; i < tags.size(); i++) {
+            reemplazos.put(tags.get(i), valores.get(i));
+        }
+        return reemplazos;
+    }
+
+    /**
+     * Posición del w:sectPr hijo directo del cuerpo, o {@code finBody} si no lo hay
+     */
+    private static int sectPrFinal(byte[] xml, int desde, int finBody) {
+        int inicio = lastIndexOf(xml, INICIO_SECTPR, finBody);
+        if (inicio < desde) {
+            return finBody;
+        }
+        // Un w:sectPr de párrafo va dentro de w:pPr y no puede ser lo último antes de </w:body>
+        String resto = new String(xml, inicio, finBody - inicio, StandardCharsets.UTF_8).stripTrailing();
+        boolean vacio = resto.endsWith("/>") && resto.indexOf('>') == resto.length() - 1;
+        return resto.endsWith("</w:sectPr>") || vacio ? inicio : finBody;
+    }
+
+    private static int finDeEtiqueta(byte[] xml, int inicio) {
+        if (inicio < 0) {
+            throw new IllegalArgumentException("La plantilla no contiene w:body");
+        }
+        for (int i = inicio; i < xml.length; i++) {
+            if (xml[i] == '>') {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("w:body sin cerrar en la plantilla");
+    }
+
+    private static int indexOf(byte[] datos, byte[] patron, int desde) {
+        for (int i = desde; i <= datos.length - patron.length; i++) {
+            if (coincide(datos, patron, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] datos, byte[] patron, int antesDe) {
+        for (int i = Math.min(antesDe, datos.length) - patron.length; i >= 0; i--) {
+            if (coincide(datos, patron, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean coincide(byte[] datos, byte[] patron, int posicion) {
+        for (int j = 0; j < patron.length; j++) {
+            if (datos[posicion + j] != patron[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String texto) {
+        return texto.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,148 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.batch.BatchManifest;
+import com.logicsolutions.batch.BatchShard;
+import com.logicsolutions.util.Tsv;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Combina los manifiestos de los shards de un lote ({@code lote --shard i/N}) en uno solo.
+ * - Verifica que todos sean del mismo N, que no falte ni se repita ningún shard y que
+ *   ningún id aparezca en dos shards
+ * - Avisa de los manifiestos sin {@code # fin} (proceso caído o aún en curso)
+ * - Escribe {@code shard id salida estado sha256 inicio milisegundos} por trabajo
+ * <p>
+ * Termina con código 1 si alguna verificación falla.
+ */
+public class CombinarManifiestosCommand {
+
+    public void execute(String[] args) {
+        if (args.length < 2) {
+            printUsage();
+            return;
+        }
+
+        Path salida = Paths.get(args[0]);
+        List<String> problemas = new ArrayList<>();
+        try {
+            Map<Integer, BatchManifest.Contenido> porShard = new TreeMap<>();
+            int total = -1;
+            for (int i = 1; i < args.length; i++) {
+                BatchManifest.Contenido contenido = BatchManifest.leer(Paths.get(args[i]));
+                BatchShard shard = contenido.getShard();
+                if (total >= 0 && shard.getTotal() != total) {
+                    throw new IllegalArgumentException(contenido.getArchivo() + " es del shard " + shard
+                            + ", pero los anteriores son de " + total + " shards");
+                }
+                total = shard.getTotal();
+                BatchManifest.Contenido previo = porShard.put(shard.getIndice(), contenido);
+                if (previo != null) {
+                    throw new IllegalArgumentException("El shard " + shard + " aparece en " + previo.getArchivo()
+                            + " y en " + contenido.getArchivo());
+                }
+            }
+
+            Map<String, Integer> shardDeId = new HashMap<>();
+            for (BatchManifest.Contenido contenido : porShard.values()) {
+                int indice = contenido.getShard().getIndice();
+                for (String id : contenido.getFilas().keySet()) {
+                    Integer otro = shardDeId.put(id, indice);
+                    if (otro != null) {
+                        throw new IllegalArgumentException("El trabajo " + id + " aparece en los shards "
+                                + otro + " y " + indice + " (¿archivos de trabajos distintos?)");
+                    }
+                }
+            }
+
+            for (int indice = 1; indice <= total; indice++) {
+                BatchManifest.Contenido contenido = porShard.get(indice);
+                if (contenido == null) {
+                    problemas.add("Falta el manifiesto del shard " + indice + "/" + total);
+                } else if (!contenido.isCompleto()) {
+                    problemas.add("El shard " + contenido.getShard() + " no terminó (" + contenido.getArchivo() + ")");
+                }
+            }
+
+            escribir(salida, porShard, total);
+            mostrarResumen(porShard);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+
+        System.out.println("Manifiesto combinado: " + salida);
+        if (!problemas.isEmpty()) {
+            problemas.forEach(p -> System.err.println("ADVERTENCIA: " + p));
+            System.exit(1);
+        }
+    }
+
+    private void printUsage() {
+        System.out.println("Uso: merge-manifests <combinado.tsv> <manifiesto1> [<manifiesto2> ...]");
+        System.out.println("Ejemplo: merge-manifests mes.tsv trabajos.tsv.shard-*-de-4.manifiesto");
+    }
+
+    private void escribir(Path salida, Map<Integer, BatchManifest.Contenido> porShard, int total) throws Exception {
+        try (BufferedWriter writer = Files.newBufferedWriter(salida, StandardCharsets.UTF_8)) {
+            writer.write("# shards\t" + total + "\n");
+            writer.write("# combinado\t" + Instant.now() + "\n");
+            for (BatchManifest.Contenido contenido : porShard.values()) {
+                String shard = contenido.getShard().toString();
+                for (String[] fila : contenido.getFilas().values()) {
+                    writer.write(shard);
+                    for (String campo : fila) {
+                        writer.write('\t');
+                        writer.write(Tsv.escapar(campo));
+                    }
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    private void mostrarResumen(Map<Integer, BatchManifest.Contenido> porShard) {
+        System.out.println("========================================");
+        System.out.println("RESUMEN DE SHARDS:");
+        int correctos = 0;
+        int fallidos = 0;
+        long primerInicio = Long.MAX_VALUE;
+        long ultimoFin = Long.MIN_VALUE;
+        for (BatchManifest.Contenido contenido : porShard.values()) {
+            int ok = 0;
+            int error = 0;
+            long milisegundos = 0;
+            for (String[] fila : contenido.getFilas().values()) {
+                if ("OK".equals(fila[2])) {
+                    ok++;
+                } else {
+                    error++;
+                }
+                long inicio = Instant.parse(fila[4]).toEpochMilli();
+                long duracion = Long.parseLong(fila[5]);
+                milisegundos += duracion;
+                primerInicio = Math.min(primerInicio, inicio);
+                ultimoFin = Math.max(ultimoFin, inicio + duracion);
+            }
+            correctos += ok;
+            fallidos += error;
+            System.out.println("  Shard " + contenido.getShard() + ": " + ok + " correctos, " + error
+                    + " con error, " + milisegundos + " ms de renderizado");
+        }
+        System.out.println("  Total: " + correctos + " correctos, " + fallidos + " con error");
+        if (primerInicio <= ultimoFin) {
+            System.out.println("  Del primer inicio al último fin: " + (ultimoFin - primerInicio) + " ms");
+        }
+        System.out.println("========================================");
+    }
+}
@@ -0,0 +1,40 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.util.TagMapLoader;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Convierte un mapa de tags (.json, .properties, .tsv) a la forma binaria .tagsbin,
+ * que se carga sin análisis de texto en ejecuciones de lote.
+ */
+public class CompilarTagsCommand {
+
+    public void execute(String[] args) {
+        if (args.length != 2 || !args[1].toLowerCase().endsWith(".tagsbin")) {
+            printUsage();
+            return;
+        }
+
+        Path origen = Paths.get(args[0]);
+        Path destino = Paths.get(args[1]);
+
+        try {
+            long inicio = System.currentTimeMillis();
+            Map<String, String> reemplazos = TagMapLoader.cargar(origen);
+            TagMapLoader.guardarBinario(reemplazos, destino);
+            System.out.println("Mapa compilado: " + reemplazos.size() + " tags -> " + destino
+                    + " (" + (System.currentTimeMillis() - inicio) + " ms)");
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void printUsage() {
+        System.out.println("Uso: compilar-tags <mapa.json|.properties|.tsv> <salida.tagsbin>");
+        System.out.println("Ejemplo: compilar-tags formulario.json formulario.tagsbin");
+    }
+}
@@ -1,6 +1,15 @@
 package com.logicsolutions.commands;
 
+import com.logicsolutions.util.ArgumentosComando;
+import com.logicsolutions.util.Consola;
+import com.logicsolutions.util.DocxPackage;
 import com.logicsolutions.util.DocxUtils;
+import com.logicsolutions.util.EstadisticasReemplazo;
+import com.logicsolutions.util.LimiteExcedidoException;
+import com.logicsolutions.util.MappedZip;
+import com.logicsolutions.util.PlazoRender;
+import com.logicsolutions.util.ResultCache;
+import com.logicsolutions.util.TextoParrafo;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -9,26 +18,32 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.transform.Transformer;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.zip.*;
 
-public class CuadrosTextoCommand {
+public class CuadrosTextoCommand implements DocxCommand {
 
-    private Map<String, Integer> reemplazosPorTag = new HashMap<>();
-    private Map<String, Integer> reemplazosPorArchivo = new HashMap<>();
+    /** Contenedores de cuadros de texto: DrawingML, VML y WordprocessingShape */
+    private static final Set<String> CONTENEDORES_CUADRO = Set.of("w:txbxContent", "v:textbox", "wps:txbx");
+
+    private final EstadisticasReemplazo estadisticas = new EstadisticasReemplazo();
 
     public void execute(String[] args) {
-        if (args.length < 4 || (args.length - 2) % 2 != 0) {
+        ArgumentosComando argumentos;
+        try {
+            argumentos = ArgumentosComando.parsear(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
             printUsage();
             return;
+        } catch (IOException e) {
+            System.err.println("Error al leer el archivo de tags: " + e.getMessage());
+            return;
         }
 
-        String inputFilePath = args[0];
-        String outputFilePath = args[1];
-
-        Map<String, String> reemplazos = new LinkedHashMap<>();
-        for (int i = 2; i < args.length; i += 2) {
-            reemplazos.put(args[i], args[i + 1]);
-        }
+        String inputFilePath = argumentos.getOrigen();
+        String outputFilePath = argumentos.getDestino();
+        Map<String, String> reemplazos = argumentos.getReemplazos();
 
         System.out.println("========================================");
         System.out.println("COMANDO: cuadros");
@@ -41,222 +56,244 @@ public class CuadrosTextoCommand {
         System.out.println("========================================");
 
         try {
-            File tempFile = File.createTempFile("docx_temp", ".zip");
-            tempFile.deleteOnExit();
-            copyFile(new File(inputFilePath), tempFile);
-            procesarArchivosXML(tempFile, outputFilePath, reemplazos);
+            DocxUtils.escribirArchivo(outputFilePath, out ->
+                    ResultCache.envolver("cuadros", this, argumentos.getOpcion(ArgumentosComando.OPCION_CACHE))
+                            .render(inputFilePath, out, reemplazos));
+            System.out.println("\nArchivo modificado guardado en: " + outputFilePath);
             mostrarResumen();
-            tempFile.delete();
         } catch (Exception e) {
             System.err.println("Error al procesar el archivo: " + e.getMessage());
             e.printStackTrace();
+            System.exit(1);
         }
     }
 
     private void printUsage() {
         System.out.println("Uso: cuadros <archivoOrigen> <archivoDestino> <tag1> <valor1> [<tag2> <valor2> ...]");
         System.out.println("Ejemplo: cuadros doc.docx doc_mod.docx \"<<NOMBRE>>\" \"Juan\" \"<<FECHA>>\" \"2024\"");
+        System.out.println();
+        System.out.println("Tags desde archivo (.json, .properties, .tsv o .tagsbin):");
+        System.out.println("  cuadros doc.docx doc_mod.docx --tags-file tags.json");
+        System.out.println();
+        System.out.println("Reutilizar resultados ya generados (misma plantilla y mismos tags):");
+        System.out.println("  cuadros doc.docx doc_mod.docx --tags-file tags.json --cache /var/cache/docx");
     }
 
-    private void copyFile(File source, File dest) throws IOException {
-        try (InputStream is = new FileInputStream(source);
-             OutputStream os = new FileOutputStream(dest)) {
-            byte[] buffer = new byte[4096];
-            int length;
-            while ((length = is.read(buffer)) > 0) {
-                os.write(buffer, 0, length);
-            }
+    @Override
+    public void render(String inputFilePath, OutputStream output, Map<String, String> reemplazos) throws Exception {
+        EstadisticasReemplazo delDocumento = new EstadisticasReemplazo();
+        try (MappedZip zip = MappedZip.abrir(inputFilePath)) {
+            Map<String, byte[]> modifiedFiles = procesarArchivosXML(zip, reemplazos, delDocumento);
+            crearArchivoModificado(zip, output, modifiedFiles);
         }
+        delDocumento.imprimirFaltantes(Consola.out(), reemplazos.keySet());
+        estadisticas.fusionar(delDocumento);
     }
 
-    private void procesarArchivosXML(File zipFile, String outputPath, Map<String, String> reemplazos) throws Exception {
+    private Map<String, byte[]> procesarArchivosXML(MappedZip zip, Map<String, String> reemplazos,
+                                                    EstadisticasReemplazo delDocumento) throws Exception {
         Map<String, byte[]> modifiedFiles = new HashMap<>();
-        List<String> archivosAProcesar = new ArrayList<>(Arrays.asList(
-                "word/document.xml",
-                "word/header1.xml", "word/header2.xml", "word/header3.xml",
-                "word/footer1.xml", "word/footer2.xml", "word/footer3.xml"
-        ));
-
-        // Buscar headers/footers adicionales
-        try (ZipFile zip = new ZipFile(zipFile)) {
-            Enumeration<? extends ZipEntry> entries = zip.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                String name = entry.getName();
-                if ((name.startsWith("word/header") || name.startsWith("word/footer")) 
-                        && name.endsWith(".xml") && !archivosAProcesar.contains(name)) {
-                    archivosAProcesar.add(name);
-                }
-            }
-        }
-
         DocumentBuilder builder = DocxUtils.createDocumentBuilder();
         Transformer transformer = DocxUtils.createTransformer();
 
-        try (ZipFile zip = new ZipFile(zipFile)) {
-            for (String archivoXML : archivosAProcesar) {
-                ZipEntry entry = zip.getEntry(archivoXML);
-                if (entry != null) {
-                    System.out.println("\nProcesando: " + archivoXML);
-                    try (InputStream is = zip.getInputStream(entry)) {
-                        Document document = builder.parse(is);
-                        int reemplazosEnArchivo = 0;
+        for (Map.Entry<String, DocxPackage.TipoParte> parte : DocxPackage.leer(zip, builder).getPartes().entrySet()) {
+            String archivoXML = parte.getKey();
+            ZipEntry entry = zip.getEntry(archivoXML);
+            if (entry == null || !parte.getValue().admiteReemplazos()) {
+                continue;
+            }
 
-                        // Procesar diferentes tipos de cuadros de texto
-                        reemplazosEnArchivo += procesarNodos(document, "w:txbxContent", reemplazos);
-                        reemplazosEnArchivo += procesarNodos(document, "v:textbox", reemplazos);
-                        reemplazosEnArchivo += procesarNodos(document, "wps:txbx", reemplazos);
+            Consola.out().println("\nProcesando: " + archivoXML);
+            try (InputStream is = zip.getInputStream(entry)) {
+                Document document = DocxUtils.parse(builder, is);
+                Recorrido recorrido = new Recorrido(reemplazos);
+                recorrer(document.getDocumentElement(), false, false, recorrido);
 
-                        if (reemplazosEnArchivo > 0) {
-                            modifiedFiles.put(archivoXML, DocxUtils.documentToBytes(document, transformer));
-                            reemplazosPorArchivo.merge(archivoXML, reemplazosEnArchivo, Integer::sum);
-                        }
-                    } catch (Exception e) {
-                        System.err.println("  Error al procesar " + archivoXML + ": " + e.getMessage());
-                    }
+                if (recorrido.cuadros > 0) {
+                    Consola.out().println("  Encontrados " + recorrido.cuadros + " cuadros de texto ("
+                            + recorrido.parrafos + " párrafos)");
+                }
+                if (recorrido.modificado) {
+                    modifiedFiles.put(archivoXML, DocxUtils.documentToBytes(document, transformer));
+                    delDocumento.fusionar(archivoXML, recorrido.estadisticas);
                 }
+            } catch (LimiteExcedidoException | CancellationException e) {
+                // Documento rechazado por sus límites o renderizado interrumpido: no se da por bueno
+                throw e;
+            } catch (Exception e) {
+                System.err.println("  Error al procesar " + archivoXML + ": " + e.getMessage());
+            } finally {
+                TextoParrafo.delHilo().limpiar();
             }
         }
-
-        crearArchivoModificado(zipFile, outputPath, modifiedFiles);
+        return modifiedFiles;
     }
 
-    private int procesarNodos(Document document, String tagName, Map<String, String> reemplazos) {
-        int totalReemplazos = 0;
-        NodeList nodes = document.getElementsByTagName(tagName);
-
-        if (nodes.getLength() > 0) {
-            System.out.println("  Encontrados " + nodes.getLength() + " elementos <" + tagName + ">");
+    /**
+     * Estado de un recorrido de cuadros de texto sobre una parte
+     */
+    private static class Recorrido {
+        final Map<String, String> tags;
+        int cuadros;
+        int parrafos;
+        boolean modificado;
+        final EstadisticasReemplazo estadisticas = new EstadisticasReemplazo();
+
+        Recorrido(Map<String, String> reemplazos) {
+            this.tags = reemplazos;
         }
+    }
 
-        for (int i = 0; i < nodes.getLength(); i++) {
-            Node node = nodes.item(i);
-            totalReemplazos += procesarTextoEnNodo(node, reemplazos);
+    /**
+     * Recorre la parte una sola vez. Cada párrafo de un cuadro de texto se visita exactamente
+     * una vez aunque los contenedores estén anidados (wps:txbx y v:textbox envuelven a
+     * w:txbxContent). Las copias de mc:Choice y mc:Fallback reciben los mismos reemplazos,
+     * pero solo se contabilizan las de mc:Choice para no duplicar el resumen.
+     */
+    private void recorrer(Node nodo, boolean enCuadro, boolean enFallback, Recorrido recorrido) {
+        String nombre = nodo.getNodeName();
+        if (enCuadro && nombre.equals("w:p")) {
+            procesarParrafo(nodo, enFallback, recorrido);
+            return;
+        }
+        if (nombre.equals("w:txbxContent") && !enFallback) {
+            recorrido.cuadros++;
         }
-        return totalReemplazos;
-    }
 
-    private int procesarTextoEnNodo(Node node, Map<String, String> reemplazos) {
-        int totalReemplazos = 0;
-        totalReemplazos += procesarTextoSimple(node, reemplazos);
-        totalReemplazos += procesarTextoFragmentado(node, reemplazos);
-        return totalReemplazos;
+        boolean cuadro = enCuadro || CONTENEDORES_CUADRO.contains(nombre);
+        boolean fallback = enFallback || nombre.equals("mc:Fallback");
+        for (Node hijo = nodo.getFirstChild(); hijo != null; hijo = hijo.getNextSibling()) {
+            if (hijo.getNodeType() == Node.ELEMENT_NODE) {
+                recorrer(hijo, cuadro, fallback, recorrido);
+            }
+        }
     }
 
-    private int procesarTextoSimple(Node node, Map<String, String> reemplazos) {
-        int totalReemplazos = 0;
-        List<Node> textNodes = DocxUtils.buscarNodosRecursivamente(node, "w:t");
-
+    /**
+     * Reemplaza primero en cada w:t por separado y después en el texto concatenado del
+     * párrafo (tags fragmentados entre varios w:r), editando solo los w:t que solapa cada
+     * coincidencia como en el resto de comandos. Los párrafos de cuadros anidados dentro
+     * de este se procesan aparte.
+     */
+    private void procesarParrafo(Node paragraph, boolean enFallback, Recorrido recorrido) {
+        PlazoRender.verificar();
+        List<Node> textNodes = new ArrayList<>();
+        List<Node> anidados = new ArrayList<>();
+        List<Boolean> anidadosEnFallback = new ArrayList<>();
+        recolectar(paragraph, enFallback, textNodes, anidados, anidadosEnFallback, recorrido);
+        recorrido.parrafos += enFallback ? 0 : 1;
+
+        // Reemplazo simple
         for (Node textNode : textNodes) {
             String textoActual = textNode.getTextContent();
-            String textoNuevo = textoActual;
-            boolean modificado = false;
-
-            for (Map.Entry<String, String> entry : reemplazos.entrySet()) {
-                if (textoNuevo.contains(entry.getKey())) {
-                    textoNuevo = textoNuevo.replace(entry.getKey(), entry.getValue());
-                    modificado = true;
-                    reemplazosPorTag.merge(entry.getKey(), 1, Integer::sum);
-                }
-            }
-
-            if (modificado) {
+            String textoNuevo = reemplazar(textoActual, enFallback, recorrido);
+            if (textoNuevo != null) {
                 textNode.setTextContent(textoNuevo);
-                totalReemplazos++;
-                System.out.println("    Reemplazo simple: \"" + textoActual + "\" -> \"" + textoNuevo + "\"");
+                recorrido.modificado = true;
+                Consola.out().println("    Reemplazo simple: \"" + textoActual + "\" -> \"" + textoNuevo + "\"");
             }
         }
-        return totalReemplazos;
-    }
-
-    private int procesarTextoFragmentado(Node node, Map<String, String> reemplazos) {
-        int totalReemplazos = 0;
-        List<Node> paragraphs = DocxUtils.buscarNodosRecursivamente(node, "w:p");
-
-        for (Node paragraph : paragraphs) {
-            List<Node> runs = DocxUtils.buscarNodosRecursivamente(paragraph, "w:r");
-            List<Node> textNodes = new ArrayList<>();
-            StringBuilder textoCompleto = new StringBuilder();
 
-            for (Node run : runs) {
-                List<Node> texts = DocxUtils.buscarNodosRecursivamente(run, "w:t");
-                for (Node textNode : texts) {
-                    textNodes.add(textNode);
-                    textoCompleto.append(textNode.getTextContent());
+        // Reemplazo fragmentado
+        TextoParrafo texto = TextoParrafo.delHilo().cargar(textNodes);
+        if (!texto.estaVacio() && texto.contieneAlguno(recorrido.tags.keySet())) {
+            for (Map.Entry<String, String> entry : recorrido.tags.entrySet()) {
+                PlazoRender.verificar();
+                String tag = entry.getKey();
+                int posicion = texto.indexOf(tag, 0);
+                if (posicion < 0) {
+                    continue;
                 }
+                String valor = entry.getValue();
+                while (posicion >= 0) {
+                    texto.reemplazar(posicion, posicion + tag.length(), valor);
+                    posicion = texto.indexOf(tag, posicion + valor.length());
+                }
+                if (!enFallback) {
+                    recorrido.estadisticas.registrar(tag);
+                }
+                Consola.out().println("    Reemplazo fragmentado: " + tag + " -> " + valor);
+            }
+            if (texto.aplicarCambios() > 0) {
+                recorrido.modificado = true;
             }
+        }
 
-            String textoOriginal = textoCompleto.toString();
-            String textoNuevo = textoOriginal;
-            boolean modificado = false;
+        for (int i = 0; i < anidados.size(); i++) {
+            procesarParrafo(anidados.get(i), anidadosEnFallback.get(i), recorrido);
+        }
+    }
 
-            for (Map.Entry<String, String> entry : reemplazos.entrySet()) {
-                if (textoNuevo.contains(entry.getKey())) {
-                    textoNuevo = textoNuevo.replace(entry.getKey(), entry.getValue());
-                    modificado = true;
-                    reemplazosPorTag.merge(entry.getKey(), 1, Integer::sum);
+    /**
+     * Junta los w:t propios del párrafo en orden de documento, sin entrar en párrafos anidados
+     */
+    private void recolectar(Node nodo, boolean enFallback, List<Node> textNodes, List<Node> anidados,
+                            List<Boolean> anidadosEnFallback, Recorrido recorrido) {
+        for (Node hijo = nodo.getFirstChild(); hijo != null; hijo = hijo.getNextSibling()) {
+            if (hijo.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            String nombre = hijo.getNodeName();
+            if (nombre.equals("w:t")) {
+                textNodes.add(hijo);
+            } else if (nombre.equals("w:p")) {
+                anidados.add(hijo);
+                anidadosEnFallback.add(enFallback);
+            } else {
+                if (nombre.equals("w:txbxContent") && !enFallback) {
+                    recorrido.cuadros++;
                 }
+                recolectar(hijo, enFallback || nombre.equals("mc:Fallback"),
+                        textNodes, anidados, anidadosEnFallback, recorrido);
             }
+        }
+    }
 
-            if (modificado && !textNodes.isEmpty()) {
-                textNodes.get(0).setTextContent(textoNuevo);
-                for (int n = 1; n < textNodes.size(); n++) {
-                    textNodes.get(n).setTextContent("");
+    /**
+     * @return el texto con los reemplazos aplicados, o null si no contiene ningún tag
+     */
+    private String reemplazar(String texto, boolean enFallback, Recorrido recorrido) {
+        String textoNuevo = texto;
+        boolean modificado = false;
+        for (Map.Entry<String, String> entry : recorrido.tags.entrySet()) {
+            if (textoNuevo.contains(entry.getKey())) {
+                textoNuevo = textoNuevo.replace(entry.getKey(), entry.getValue());
+                modificado = true;
+                if (!enFallback) {
+                    recorrido.estadisticas.registrar(entry.getKey());
                 }
-                totalReemplazos++;
-                System.out.println("    Reemplazo fragmentado: \"" + textoOriginal + "\" -> \"" + textoNuevo + "\"");
             }
         }
-        return totalReemplazos;
+        return modificado ? textoNuevo : null;
+    }
+
+    @Override
+    public EstadisticasReemplazo getEstadisticas() {
+        return estadisticas;
     }
 
     private void mostrarResumen() {
         System.out.println("\n========================================");
         System.out.println("RESUMEN DE REEMPLAZOS:");
-        int totalGeneral = 0;
-
-        System.out.println("\nPor tag:");
-        for (Map.Entry<String, Integer> entry : reemplazosPorTag.entrySet()) {
-            System.out.println("  - \"" + entry.getKey() + "\": " + entry.getValue() + " reemplazos");
-            totalGeneral += entry.getValue();
-        }
-
-        System.out.println("\nPor archivo:");
-        for (Map.Entry<String, Integer> entry : reemplazosPorArchivo.entrySet()) {
-            if (entry.getValue() > 0) {
-                System.out.println("  - " + entry.getKey() + ": " + entry.getValue() + " reemplazos");
-            }
-        }
-
-        System.out.println("\nTotal general: " + totalGeneral + " reemplazos");
+        estadisticas.imprimirResumen(System.out);
         System.out.println("========================================");
     }
 
-    private void crearArchivoModificado(File archivoOriginal, String outputPath, Map<String, byte[]> modifiedFiles) throws IOException {
-        try (ZipFile zipOriginal = new ZipFile(archivoOriginal);
-             FileOutputStream fos = new FileOutputStream(outputPath);
-             ZipOutputStream zipOut = new ZipOutputStream(fos)) {
-
+    private void crearArchivoModificado(MappedZip zipOriginal, OutputStream output, Map<String, byte[]> modifiedFiles) throws Exception {
+        try (ZipOutputStream zipOut = new ZipOutputStream(DocxUtils.nonClosing(output))) {
             Enumeration<? extends ZipEntry> entries = zipOriginal.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
                 String entryName = entry.getName();
 
-                zipOut.putNextEntry(new ZipEntry(entryName));
                 if (modifiedFiles.containsKey(entryName)) {
+                    zipOut.putNextEntry(new ZipEntry(entryName));
                     zipOut.write(modifiedFiles.get(entryName));
+                    zipOut.closeEntry();
                 } else {
-                    try (InputStream is = zipOriginal.getInputStream(entry)) {
-                        byte[] buffer = new byte[4096];
-                        int length;
-                        while ((length = is.read(buffer)) > 0) {
-                            zipOut.write(buffer, 0, length);
-                        }
-                    }
+                    DocxUtils.copyEntry(zipOriginal, entry, zipOut);
                 }
-                zipOut.closeEntry();
             }
         }
-        System.out.println("\nArchivo modificado guardado en: " + outputPath);
     }
 }
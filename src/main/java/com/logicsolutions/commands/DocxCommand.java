@@ -0,0 +1,30 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.util.EstadisticasReemplazo;
+
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Contrato común de los comandos que generan un .docx a partir de una plantilla
+ * y un mapa de reemplazos. Permite invocarlos desde el modo lote sin pasar por argv.
+ */
+public interface DocxCommand {
+
+    /**
+     * Renderiza la plantilla sobre el flujo de salida. El flujo NO se cierra.
+     */
+    void render(String inputDocx, OutputStream output, Map<String, String> reemplazos) throws Exception;
+
+    /**
+     * Reemplazos acumulados por las llamadas a {@link #render} de esta instancia
+     */
+    EstadisticasReemplazo getEstadisticas();
+
+    /**
+     * true si la última llamada a {@link #render} copió un resultado ya generado en lugar de renderizar
+     */
+    default boolean resultadoReutilizado() {
+        return false;
+    }
+}
@@ -1,9 +1,17 @@
 package com.logicsolutions.commands;
 
+import com.logicsolutions.util.ArgumentosComando;
+import com.logicsolutions.util.Consola;
+import com.logicsolutions.util.DocxPackage;
 import com.logicsolutions.util.DocxUtils;
+import com.logicsolutions.util.EstadisticasReemplazo;
+import com.logicsolutions.util.Hashing;
+import com.logicsolutions.util.MappedZip;
+import com.logicsolutions.util.PartCache;
+import com.logicsolutions.util.PlazoRender;
+import com.logicsolutions.util.ResultCache;
 import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.Element;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.transform.Transformer;
@@ -11,22 +19,26 @@ import java.io.*;
 import java.util.*;
 import java.util.zip.*;
 
-public class EncabezadosCommand {
+public class EncabezadosCommand implements DocxCommand {
+
+    private final EstadisticasReemplazo estadisticas = new EstadisticasReemplazo();
 
     public void execute(String[] args) {
-        if (args.length < 4 || (args.length - 2) % 2 != 0) {
+        ArgumentosComando argumentos;
+        try {
+            argumentos = ArgumentosComando.parsear(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
             printUsage();
             return;
+        } catch (IOException e) {
+            System.err.println("Error al leer el archivo de tags: " + e.getMessage());
+            return;
         }
 
-        String inputFilePath = args[0];
-        String outputFilePath = args[1];
-
-        // Construir mapa de reemplazos (múltiples pares tag/valor)
-        Map<String, String> reemplazos = new LinkedHashMap<>();
-        for (int i = 2; i < args.length; i += 2) {
-            reemplazos.put(args[i], args[i + 1]);
-        }
+        String inputFilePath = argumentos.getOrigen();
+        String outputFilePath = argumentos.getDestino();
+        Map<String, String> reemplazos = argumentos.getReemplazos();
 
         System.out.println("========================================");
         System.out.println("COMANDO: encabezados");
@@ -39,10 +51,15 @@ public class EncabezadosCommand {
         System.out.println("========================================");
 
         try {
-            processHeaders(inputFilePath, outputFilePath, reemplazos);
+            DocxUtils.escribirArchivo(outputFilePath, out ->
+                    ResultCache.envolver("encabezados", this, argumentos.getOpcion(ArgumentosComando.OPCION_CACHE))
+                            .render(inputFilePath, out, reemplazos));
+            System.out.println("Archivo guardado en: " + outputFilePath);
+            System.out.println("========================================");
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
             e.printStackTrace();
+            System.exit(1);
         }
     }
 
@@ -50,52 +67,75 @@ public class EncabezadosCommand {
         System.out.println("Uso: encabezados <archivoOrigen> <archivoDestino> <tag1> <valor1> [<tag2> <valor2> ...]");
         System.out.println("Ejemplo: encabezados doc.docx doc_mod.docx \"<<TITULO>>\" \"Mi Documento\"");
         System.out.println("Ejemplo: encabezados doc.docx doc_mod.docx \"<<TITULO>>\" \"Mi Doc\" \"<<FECHA>>\" \"2024\"");
+        System.out.println();
+        System.out.println("Tags desde archivo (.json, .properties, .tsv o .tagsbin):");
+        System.out.println("  encabezados doc.docx doc_mod.docx --tags-file tags.json");
+        System.out.println();
+        System.out.println("Reutilizar resultados ya generados (misma plantilla y mismos tags):");
+        System.out.println("  encabezados doc.docx doc_mod.docx --tags-file tags.json --cache /var/cache/docx");
+    }
+
+    @Override
+    public void render(String inputPath, OutputStream output, Map<String, String> reemplazos) throws Exception {
+        processHeaders(inputPath, output, reemplazos);
     }
 
-    private void processHeaders(String inputPath, String outputPath, Map<String, String> reemplazos) throws Exception {
+    private void processHeaders(String inputPath, OutputStream output, Map<String, String> reemplazos) throws Exception {
         DocumentBuilder builder = DocxUtils.createDocumentBuilder();
         Transformer transformer = DocxUtils.createTransformer();
         int totalReemplazos = 0;
+        PartCache cache = PartCache.compartida();
+        String hashReemplazos = Hashing.hashReemplazos(reemplazos);
+        EstadisticasReemplazo delDocumento = new EstadisticasReemplazo();
 
-        try (ZipFile zipFile = new ZipFile(inputPath);
-             FileOutputStream fos = new FileOutputStream(outputPath);
-             ZipOutputStream zipOut = new ZipOutputStream(fos)) {
+        try (MappedZip zipFile = MappedZip.abrir(inputPath);
+             ZipOutputStream zipOut = new ZipOutputStream(DocxUtils.nonClosing(output))) {
 
+            DocxPackage paquete = DocxPackage.leer(zipFile, builder);
             var entries = zipFile.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
                 String name = entry.getName();
 
-                if (DocxUtils.isHeaderXml(name)) {
-                    System.out.println("\nProcesando encabezado: " + name);
-
-                    try (InputStream is = zipFile.getInputStream(entry)) {
-                        Document document = builder.parse(is);
-                        int reemplazosEnArchivo = replaceTagsInDocument(document, reemplazos);
-                        totalReemplazos += reemplazosEnArchivo;
-
-                        zipOut.putNextEntry(new ZipEntry(name));
-                        zipOut.write(DocxUtils.documentToBytes(document, transformer));
-                        zipOut.closeEntry();
-                    }
+                if (paquete.tipo(name) == DocxPackage.TipoParte.ENCABEZADO) {
+                    Consola.out().println("\nProcesando encabezado: " + name);
+
+                    byte[] original = DocxUtils.readEntry(zipFile, entry);
+                    PartCache.ParteProcesada parte = cache.procesar("encabezados", original, hashReemplazos, bytes -> {
+                        Document document = DocxUtils.parse(builder, new ByteArrayInputStream(bytes));
+                        EstadisticasReemplazo deParte = new EstadisticasReemplazo();
+                        int reemplazosEnArchivo = replaceTagsInDocument(document, reemplazos, deParte);
+                        return new PartCache.ParteProcesada(DocxUtils.documentToBytes(document, transformer),
+                                reemplazosEnArchivo, deParte);
+                    });
+                    totalReemplazos += parte.getReemplazos();
+                    delDocumento.fusionar(name, parte.getEstadisticas());
+
+                    zipOut.putNextEntry(new ZipEntry(name));
+                    zipOut.write(parte.getBytes());
+                    zipOut.closeEntry();
                 } else {
                     DocxUtils.copyEntry(zipFile, entry, zipOut);
                 }
             }
         }
 
-        System.out.println("\n========================================");
-        System.out.println("Total de reemplazos en encabezados: " + totalReemplazos);
-        System.out.println("Archivo guardado en: " + outputPath);
-        System.out.println("========================================");
+        Consola.out().println("\n========================================");
+        Consola.out().println("Total de reemplazos en encabezados: " + totalReemplazos);
+        delDocumento.imprimirFaltantes(Consola.out(), reemplazos.keySet());
+        estadisticas.fusionar(delDocumento);
     }
 
-    private int replaceTagsInDocument(Document document, Map<String, String> reemplazos) {
-        int count = 0;
-        NodeList textNodes = document.getElementsByTagName("w:t");
+    @Override
+    public EstadisticasReemplazo getEstadisticas() {
+        return estadisticas;
+    }
 
-        for (int i = 0; i < textNodes.getLength(); i++) {
-            Node textNode = textNodes.item(i);
+    private int replaceTagsInDocument(Document document, Map<String, String> reemplazos,
+                                      EstadisticasReemplazo deParte) {
+        int count = 0;
+        for (Element textNode : DocxUtils.elementos(document, "w:t")) {
+            PlazoRender.verificar();
             String textoActual = textNode.getTextContent();
             String textoNuevo = textoActual;
             boolean modificado = false;
@@ -104,11 +144,12 @@ public class EncabezadosCommand {
                 if (textoNuevo.contains(entry.getKey())) {
                     textoNuevo = textoNuevo.replace(entry.getKey(), entry.getValue());
                     modificado = true;
+                    deParte.registrar(entry.getKey());
                 }
             }
 
             if (modificado) {
-                System.out.println("  Reemplazando: \"" + textoActual + "\" -> \"" + textoNuevo + "\"");
+                Consola.out().println("  Reemplazando: \"" + textoActual + "\" -> \"" + textoNuevo + "\"");
                 textNode.setTextContent(textoNuevo);
                 count++;
             }
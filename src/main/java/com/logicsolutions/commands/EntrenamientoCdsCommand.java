@@ -0,0 +1,55 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.util.DocxDeMuestra;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * Carga de entrenamiento para el archivo de Class Data Sharing (AppCDS).
+ * <p>
+ * Renderiza un documento de muestra con todos los comandos para que la JVM registre
+ * las clases de la aplicación y de JAXP/XSLT que usa un renderizado real. El build
+ * lo ejecuta con {@code -XX:ArchiveClassesAtExit} (perfil "cds" del pom).
+ */
+public class EntrenamientoCdsCommand {
+
+    private static final String[] COMANDOS = {"todos", "loop", "cuadros", "encabezados", "pies", "predeterminado"};
+    private static final int ITERACIONES = 3;
+
+    public void execute(String[] args) {
+        PrintStream salidaOriginal = System.out;
+        File plantilla = null;
+        try {
+            plantilla = File.createTempFile("docx_cds", ".docx");
+            try (OutputStream out = new FileOutputStream(plantilla)) {
+                DocxDeMuestra.generar(out, 40);
+            }
+
+            Map<String, String> reemplazos = DocxDeMuestra.reemplazosDeMuestra();
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            for (int i = 0; i < ITERACIONES; i++) {
+                for (String nombre : COMANDOS) {
+                    Map<String, String> mapa = "predeterminado".equals(nombre)
+                            ? Map.of(PredeterminadoCommand.TAG_PREDETERMINADO, "[PENDIENTE]")
+                            : reemplazos;
+                    Comandos.crear(nombre).render(plantilla.getPath(), new ByteArrayOutputStream(), mapa);
+                }
+            }
+            System.setOut(salidaOriginal);
+            System.out.println("Entrenamiento CDS completado (" + COMANDOS.length + " comandos x " + ITERACIONES + ")");
+        } catch (Exception e) {
+            System.setOut(salidaOriginal);
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (plantilla != null) {
+                plantilla.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.batch.BatchArchiveReader;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Recupera documentos de un archivo generado con {@code lote --salida-zip}.
+ */
+public class ExtraerCommand {
+
+    public void execute(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            printUsage();
+            return;
+        }
+
+        Path archivo = Paths.get(args[0]);
+        String id = args[1];
+
+        try (BatchArchiveReader lector = new BatchArchiveReader(archivo)) {
+            if ("--listar".equals(id)) {
+                lector.listarIds().forEach(System.out::println);
+                return;
+            }
+
+            Path destino = Paths.get(args.length == 3 ? args[2] : id + ".docx");
+            boolean encontrado;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(destino))) {
+                encontrado = lector.extraer(id, out);
+            }
+            if (!encontrado) {
+                Files.deleteIfExists(destino);
+                System.err.println("El archivo no contiene el id: " + id);
+                return;
+            }
+            System.out.println("Documento guardado en: " + destino);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void printUsage() {
+        System.out.println("Uso: extraer <lote.zip> <id> [destino.docx]");
+        System.out.println("     extraer <lote.zip> --listar");
+        System.out.println("Ejemplo: extraer cartas.zip 000123 carta_000123.docx");
+    }
+}
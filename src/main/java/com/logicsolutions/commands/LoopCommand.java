@@ -1,11 +1,21 @@
 package com.logicsolutions.commands;
 
+import com.logicsolutions.util.ArgumentosComando;
+import com.logicsolutions.util.Consola;
+import com.logicsolutions.util.DocxPackage;
+import com.logicsolutions.util.DocxPackage.TipoParte;
 import com.logicsolutions.util.DocxUtils;
-import com.logicsolutions.util.DocxUtils.RunInfo;
+import com.logicsolutions.util.EstadisticasReemplazo;
+import com.logicsolutions.util.Hashing;
+import com.logicsolutions.util.MappedZip;
+import com.logicsolutions.util.PartCache;
+import com.logicsolutions.util.PlazoRender;
+import com.logicsolutions.util.ResultCache;
+import com.logicsolutions.util.TextoParrafo;
+import com.logicsolutions.util.ValorReemplazo;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.transform.Transformer;
@@ -22,21 +32,26 @@ import java.util.zip.*;
  * - Maneja tags fragmentados (divididos entre múltiples w:r)
  * - PRESERVA saltos de línea existentes
  */
-public class LoopCommand {
+public class LoopCommand implements DocxCommand {
+
+    private final EstadisticasReemplazo estadisticas = new EstadisticasReemplazo();
 
     public void execute(String[] args) {
-        if (args.length < 4 || (args.length - 2) % 2 != 0) {
+        ArgumentosComando argumentos;
+        try {
+            argumentos = ArgumentosComando.parsear(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
             printUsage();
             return;
+        } catch (IOException e) {
+            System.err.println("Error al leer el archivo de tags: " + e.getMessage());
+            return;
         }
 
-        String inputDocx = args[0];
-        String outputDocx = args[1];
-
-        Map<String, String> reemplazos = new LinkedHashMap<>();
-        for (int i = 2; i < args.length; i += 2) {
-            reemplazos.put(args[i], args[i + 1]);
-        }
+        String inputDocx = argumentos.getOrigen();
+        String outputDocx = argumentos.getDestino();
+        Map<String, String> reemplazos = argumentos.getReemplazos();
 
         System.out.println("========================================");
         System.out.println("COMANDO: loop");
@@ -51,10 +66,17 @@ public class LoopCommand {
         System.out.println("========================================");
 
         try {
-            processDocument(inputDocx, outputDocx, reemplazos);
+            DocxUtils.escribirArchivo(outputDocx, out ->
+                    ResultCache.envolver("loop", this, argumentos.getOpcion(ArgumentosComando.OPCION_CACHE))
+                            .render(inputDocx, out, reemplazos));
+
+            System.out.println("\n========================================");
+            System.out.println("Documento guardado en: " + outputDocx);
+            System.out.println("========================================");
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
             e.printStackTrace();
+            System.exit(1);
         }
     }
 
@@ -67,66 +89,105 @@ public class LoopCommand {
         System.out.println();
         System.out.println("Este comando está diseñado para procesamiento iterativo de secciones.");
         System.out.println("Reemplaza la PRIMERA ocurrencia de cada tag en cada párrafo.");
+        System.out.println();
+        System.out.println("Tags desde archivo (.json, .properties, .tsv o .tagsbin):");
+        System.out.println("  loop doc.docx doc_mod.docx --tags-file tags.json");
+        System.out.println();
+        System.out.println("Reutilizar resultados ya generados (misma plantilla y mismos tags):");
+        System.out.println("  loop doc.docx doc_mod.docx --tags-file tags.json --cache /var/cache/docx");
     }
 
-    private void processDocument(String inputDocx, String outputDocx, Map<String, String> reemplazos) throws Exception {
+    @Override
+    public void render(String inputDocx, OutputStream output, Map<String, String> reemplazos) throws Exception {
         DocumentBuilder builder = DocxUtils.createDocumentBuilder();
         Transformer transformer = DocxUtils.createTransformer();
+        PartCache cache = PartCache.compartida();
+        String hashReemplazos = Hashing.hashReemplazos(reemplazos);
+        Map<String, ValorReemplazo> valores = ValorReemplazo.compilar(reemplazos);
+        EstadisticasReemplazo delDocumento = new EstadisticasReemplazo();
 
-        try (ZipFile zipOrig = new ZipFile(inputDocx);
-             FileOutputStream fos = new FileOutputStream(outputDocx);
-             ZipOutputStream zipOut = new ZipOutputStream(fos)) {
+        try (MappedZip zipOrig = MappedZip.abrir(inputDocx);
+             ZipOutputStream zipOut = new ZipOutputStream(DocxUtils.nonClosing(output))) {
 
+            DocxPackage paquete = DocxPackage.leer(zipOrig, builder);
             var entries = zipOrig.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
                 String name = entry.getName();
+                TipoParte tipo = paquete.tipo(name);
 
-                boolean esDocument = DocxUtils.isDocumentXml(name);
-                boolean esHeader = DocxUtils.isHeaderXml(name);
-                boolean esFooter = DocxUtils.isFooterXml(name);
-
-                if (esDocument || esHeader || esFooter) {
-                    System.out.println("\nProcesando: " + name);
-
-                    try (InputStream is = zipOrig.getInputStream(entry)) {
-                        Document doc = builder.parse(is);
-                        doc.getDocumentElement().normalize();
+                if (tipo != null && tipo.admiteReemplazos()) {
+                    Consola.out().println("\nProcesando: " + name);
 
-                        marcarElementosEnTextBox(doc);
-                        int totalReemplazos = reemplazarEnParagrafos(doc, reemplazos);
-                        DocxUtils.limpiarMarcas(doc);
+                    PartCache.ParteProcesada parte;
+                    if (tipo != TipoParte.ENCABEZADO && tipo != TipoParte.PIE) {
+                        try (InputStream is = zipOrig.getInputStream(entry)) {
+                            parte = procesarParte(DocxUtils.parse(builder, is), valores, transformer);
+                        }
+                    } else {
+                        // Encabezados y pies suelen repetirse idénticos: se procesan una sola vez
+                        byte[] original = DocxUtils.readEntry(zipOrig, entry);
+                        parte = cache.procesar("loop", original, hashReemplazos, bytes ->
+                                procesarParte(DocxUtils.parse(builder, new ByteArrayInputStream(bytes)), valores, transformer));
+                    }
 
-                        System.out.println("  Total reemplazos: " + totalReemplazos);
+                    Consola.out().println("  Total reemplazos: " + parte.getReemplazos());
+                    delDocumento.fusionar(name, parte.getEstadisticas());
 
-                        zipOut.putNextEntry(new ZipEntry(name));
-                        zipOut.write(DocxUtils.documentToBytes(doc, transformer));
-                        zipOut.closeEntry();
-                    }
+                    zipOut.putNextEntry(new ZipEntry(name));
+                    zipOut.write(parte.getBytes());
+                    zipOut.closeEntry();
                 } else {
                     DocxUtils.copyEntry(zipOrig, entry, zipOut);
                 }
             }
         }
 
-        System.out.println("\n========================================");
-        System.out.println("Documento guardado en: " + outputDocx);
-        System.out.println("========================================");
+        delDocumento.imprimirFaltantes(Consola.out(), reemplazos.keySet());
+        estadisticas.fusionar(delDocumento);
+    }
+
+    private PartCache.ParteProcesada procesarParte(Document doc, Map<String, ValorReemplazo> valores,
+                                                    Transformer transformer) throws Exception {
+        doc.getDocumentElement().normalize();
+
+        marcarElementosEnTextBox(doc);
+        EstadisticasReemplazo deParte = new EstadisticasReemplazo();
+        int totalReemplazos = reemplazarEnParagrafos(doc, valores, deParte);
+        DocxUtils.limpiarMarcas(doc);
+
+        return new PartCache.ParteProcesada(DocxUtils.documentToBytes(doc, transformer), totalReemplazos, deParte);
+    }
+
+    @Override
+    public EstadisticasReemplazo getEstadisticas() {
+        return estadisticas;
     }
 
     private void marcarElementosEnTextBox(Document doc) {
-        NodeList textBoxes = doc.getElementsByTagName("w:txbxContent");
-        for (int i = 0; i < textBoxes.getLength(); i++) {
-            DocxUtils.marcarDescendientes(textBoxes.item(i));
+        for (Element textBox : DocxUtils.elementos(doc, "w:txbxContent")) {
+            DocxUtils.marcarDescendientes(textBox);
+        }
+    }
+
+    private int reemplazarEnParagrafos(Document document, Map<String, ValorReemplazo> valores,
+                                       EstadisticasReemplazo deParte) {
+        TextoParrafo texto = TextoParrafo.delHilo();
+        try {
+            return reemplazarEnParagrafos(document, valores, deParte, texto);
+        } finally {
+            texto.limpiar();
         }
     }
 
-    private int reemplazarEnParagrafos(Document document, Map<String, String> reemplazos) {
+    private int reemplazarEnParagrafos(Document document, Map<String, ValorReemplazo> valores,
+                                       EstadisticasReemplazo deParte, TextoParrafo texto) {
         int totalReemplazos = 0;
-        NodeList paragraphs = document.getElementsByTagName("w:p");
+        List<Element> paragraphs = DocxUtils.elementos(document, "w:p");
 
-        for (int i = 0; i < paragraphs.getLength(); i++) {
-            Element paragraph = (Element) paragraphs.item(i);
+        for (int i = 0; i < paragraphs.size(); i++) {
+            Element paragraph = paragraphs.get(i);
+            PlazoRender.verificar();
 
             // Verificar si está en un cuadro de texto
             Node parent = paragraph.getParentNode();
@@ -141,43 +202,34 @@ public class LoopCommand {
 
             if (enTextBox) continue;
 
-            // Recolectar runs y textos del párrafo
-            NodeList runs = paragraph.getElementsByTagName("w:r");
-            List<RunInfo> runInfos = new ArrayList<>();
-
-            for (int j = 0; j < runs.getLength(); j++) {
-                Element run = (Element) runs.item(j);
-                NodeList texts = run.getElementsByTagName("w:t");
-                for (int k = 0; k < texts.getLength(); k++) {
-                    Element textElement = (Element) texts.item(k);
-                    if (!textElement.hasAttribute("ignorar")) {
-                        runInfos.add(new RunInfo(textElement, textElement.getTextContent()));
-                    }
-                }
-            }
-
-            if (runInfos.isEmpty()) continue;
+            // Recolectar y concatenar los textos del párrafo en el búfer del hilo.
+            // Si el texto completo no contiene ningún tag, tampoco lo contiene ningún w:t
+            texto.cargar(paragraph);
+            if (texto.estaVacio() || !texto.contieneAlguno(valores.keySet())) continue;
 
             // PRIMERO: Intentar reemplazar en elementos individuales (sin concatenar)
             // Esto preserva los saltos de línea existentes
             boolean reemplazoIndividual = false;
-            for (Map.Entry<String, String> entrada : reemplazos.entrySet()) {
+            for (Map.Entry<String, ValorReemplazo> entrada : valores.entrySet()) {
                 String tag = entrada.getKey();
-                String valor = entrada.getValue();
+                ValorReemplazo valor = entrada.getValue();
 
-                for (RunInfo info : runInfos) {
-                    if (info.text.contains(tag)) {
-                        String nuevoTexto = info.text.replace(tag, valor);
-                        System.out.println("  Reemplazado en párrafo " + i + ": " + tag);
+                for (int n = 0; n < texto.getNumeroNodos(); n++) {
+                    String textoNodo = texto.getTextoNodo(n);
+                    if (textoNodo.contains(tag)) {
+                        String nuevoTexto = textoNodo.replace(tag, valor.getTexto());
+                        Consola.out().println("  Reemplazado en párrafo " + i + ": " + tag);
 
-                        if (nuevoTexto.contains("||BR||")) {
-                            DocxUtils.insertarTextoConSaltos(document, info.element, nuevoTexto);
+                        if (valor.tieneSaltos() || textoNodo.contains(ValorReemplazo.SALTO)) {
+                            DocxUtils.insertarTextoConSaltos(document, texto.getNodo(n),
+                                    ValorReemplazo.paraTexto(nuevoTexto, valor));
                         } else {
-                            info.element.setTextContent(nuevoTexto);
+                            texto.getNodo(n).setTextContent(nuevoTexto);
                         }
 
                         reemplazoIndividual = true;
                         totalReemplazos++;
+                        deParte.registrar(tag);
                         break; // Solo primera ocurrencia por párrafo
                     }
                 }
@@ -187,47 +239,25 @@ public class LoopCommand {
 
             // Si no se encontró en elementos individuales, buscar tags fragmentados
             if (!reemplazoIndividual) {
-                // Concatenar texto completo del párrafo
-                StringBuilder fullText = new StringBuilder();
-                for (RunInfo info : runInfos) {
-                    fullText.append(info.text);
-                }
-
-                String originalFullText = fullText.toString();
-                String modifiedFullText = originalFullText;
-                boolean huboReemplazos = false;
-
                 // Reemplazar tags fragmentados
-                for (Map.Entry<String, String> entrada : reemplazos.entrySet()) {
+                for (Map.Entry<String, ValorReemplazo> entrada : valores.entrySet()) {
                     String tag = entrada.getKey();
-                    String valor = entrada.getValue();
+                    ValorReemplazo valor = entrada.getValue();
 
-                    int idx = modifiedFullText.indexOf(tag);
+                    int idx = texto.indexOf(tag, 0);
                     if (idx >= 0) {
-                        modifiedFullText = modifiedFullText.substring(0, idx) + valor +
-                                modifiedFullText.substring(idx + tag.length());
-                        System.out.println("  Reemplazado (fragmentado) en párrafo " + i + ": " + tag);
-                        huboReemplazos = true;
+                        // Solo se editan los runs que solapa el tag
+                        texto.reemplazar(idx, idx + tag.length(), valor.getTexto());
+                        texto.aplicarCambios(document, valor);
+                        Consola.out().println("  Reemplazado (fragmentado) en párrafo " + i + ": " + tag);
                         totalReemplazos++;
+                        deParte.registrar(tag);
                         break; // Solo primera ocurrencia
                     }
                 }
-
-                if (huboReemplazos && !modifiedFullText.equals(originalFullText)) {
-                    if (modifiedFullText.contains("||BR||")) {
-                        DocxUtils.insertarTextoConSaltos(document, runInfos.get(0).element, modifiedFullText);
-                    } else {
-                        runInfos.get(0).element.setTextContent(modifiedFullText);
-                    }
-
-                    // Limpiar los demás elementos del párrafo
-                    for (int idx = 1; idx < runInfos.size(); idx++) {
-                        runInfos.get(idx).element.setTextContent("");
-                    }
-                }
             }
         }
 
         return totalReemplazos;
     }
-}
\ No newline at end of file
+}
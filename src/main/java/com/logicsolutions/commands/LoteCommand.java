@@ -0,0 +1,237 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.batch.BatchArchiveWriter;
+import com.logicsolutions.batch.BatchExecutor;
+import com.logicsolutions.batch.BatchJobReader;
+import com.logicsolutions.batch.BatchJournal;
+import com.logicsolutions.batch.BatchManifest;
+import com.logicsolutions.batch.BatchResult;
+import com.logicsolutions.batch.BatchShard;
+import com.logicsolutions.batch.MetricsServer;
+import com.logicsolutions.util.ResultCache;
+
+import java.nio.file.Paths;
+
+/**
+ * Comando para renderizar muchos documentos en paralelo dentro de una sola JVM.
+ * - Lee un archivo de trabajos TSV (ver {@link BatchJobReader})
+ * - Usa un pool de hilos del tamaño indicado (por defecto, uno por núcleo)
+ * - Admite trabajos según un presupuesto de memoria estimado por documento
+ */
+public class LoteCommand {
+
+    public void execute(String[] args) {
+        if (args.length < 1) {
+            printUsage();
+            return;
+        }
+
+        String archivoTrabajos = args[0];
+        int hilos = Runtime.getRuntime().availableProcessors();
+        long memoriaBytes = Runtime.getRuntime().maxMemory() / 4 * 3;
+        String carpetaCache = null;
+        String salidaZip = null;
+        String archivoDiario = null;
+        String archivoManifiesto = null;
+        BatchShard shard = null;
+        boolean reanudar = false;
+        boolean silencioso = false;
+        boolean etapas = false;
+        int colaLectura = 0;
+        int colaEscritura = 0;
+        int hilosEscritura = 2;
+        String direccionMetricas = null;
+
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--hilos":
+                        hilos = Integer.parseInt(args[++i]);
+                        break;
+                    case "--memoria-mb":
+                        memoriaBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+                        break;
+                    case "--cache":
+                        carpetaCache = args[++i];
+                        break;
+                    case "--salida-zip":
+                        salidaZip = args[++i];
+                        break;
+                    case "--diario":
+                        archivoDiario = args[++i];
+                        break;
+                    case "--shard":
+                        shard = BatchShard.parsear(args[++i]);
+                        break;
+                    case "--manifiesto":
+                        archivoManifiesto = args[++i];
+                        break;
+                    case "--reanudar":
+                    case "--resume":
+                        reanudar = true;
+                        break;
+                    case "--silencioso":
+                        silencioso = true;
+                        break;
+                    case "--etapas":
+                    case "--pipeline":
+                        etapas = true;
+                        break;
+                    case "--cola-lectura":
+                        colaLectura = Integer.parseInt(args[++i]);
+                        etapas = true;
+                        break;
+                    case "--cola-escritura":
+                        colaEscritura = Integer.parseInt(args[++i]);
+                        etapas = true;
+                        break;
+                    case "--hilos-escritura":
+                        hilosEscritura = Integer.parseInt(args[++i]);
+                        etapas = true;
+                        break;
+                    case "--metricas":
+                    case "--metrics":
+                        direccionMetricas = args[++i];
+                        break;
+                    default:
+                        System.err.println("Opción desconocida: " + args[i]);
+                        printUsage();
+                        return;
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Opciones inválidas: " + e.getMessage());
+            printUsage();
+            return;
+        }
+
+        if (colaLectura == 0) {
+            colaLectura = hilos;
+        }
+        if (colaEscritura == 0) {
+            colaEscritura = hilos;
+        }
+
+        // Con shards cada proceso necesita su propio diario en el directorio compartido
+        String base = shard != null ? archivoTrabajos + "." + shard.sufijo() : archivoTrabajos;
+        if (archivoDiario == null) {
+            archivoDiario = base + ".progreso";
+        }
+        if (archivoManifiesto == null && shard != null) {
+            archivoManifiesto = base + ".manifiesto";
+        }
+        if (reanudar && salidaZip != null) {
+            // El .zip solo aparece al terminar el lote: tras una caída no hay nada que conservar
+            System.err.println("--reanudar no se puede combinar con --salida-zip");
+            printUsage();
+            return;
+        }
+
+        System.out.println("========================================");
+        System.out.println("COMANDO: lote");
+        System.out.println("Archivo de trabajos: " + archivoTrabajos);
+        System.out.println("Hilos: " + hilos);
+        System.out.println("Presupuesto de memoria: " + (memoriaBytes / (1024 * 1024)) + " MB");
+        if (etapas) {
+            System.out.println("Etapas: lectura anticipada de " + colaLectura + " documentos, cola de escritura de "
+                    + colaEscritura + " con " + hilosEscritura + " hilos");
+        }
+        if (carpetaCache != null) {
+            System.out.println("Caché de resultados: " + carpetaCache);
+        }
+        if (shard != null) {
+            System.out.println("Shard: " + shard + " (solo los trabajos cuyo id pertenece a este shard)");
+        }
+        System.out.println("Diario de progreso: " + archivoDiario + (reanudar ? " (reanudando)" : ""));
+        if (archivoManifiesto != null) {
+            System.out.println("Manifiesto: " + archivoManifiesto);
+        }
+        if (salidaZip != null) {
+            System.out.println("Archivo de salida: " + salidaZip + " (se ignora la columna destino)");
+        }
+        System.out.println("========================================");
+
+        try (BatchJobReader lector = new BatchJobReader(Paths.get(archivoTrabajos));
+             BatchJournal diario = new BatchJournal(Paths.get(archivoDiario), reanudar);
+             BatchArchiveWriter archivo = salidaZip != null ? new BatchArchiveWriter(Paths.get(salidaZip)) : null;
+             BatchManifest manifiesto = archivoManifiesto != null
+                     ? new BatchManifest(Paths.get(archivoManifiesto), shard, reanudar) : null;
+             BatchExecutor executor = new BatchExecutor(hilos, memoriaBytes);
+             MetricsServer metricas = direccionMetricas != null
+                     ? MetricsServer.iniciar(direccionMetricas, executor) : null) {
+            if (metricas != null) {
+                System.out.println("Métricas: http://" + metricas.getDireccion().getHostString() + ":"
+                        + metricas.getDireccion().getPort() + "/metrics (salud en /health/live y /health/ready)");
+            }
+            if (carpetaCache != null) {
+                executor.usarCache(ResultCache.abrir(Paths.get(carpetaCache)));
+            }
+            executor.usarArchivoSalida(archivo);
+            executor.usarDiario(diario);
+            executor.usarManifiesto(manifiesto);
+            executor.usarShard(shard);
+            if (etapas) {
+                executor.usarEtapas(colaLectura, colaEscritura, hilosEscritura);
+            }
+            executor.usarSalidaSilenciosa(silencioso);
+            BatchResult resultado = executor.ejecutar(lector);
+            mostrarResumen(resultado);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void printUsage() {
+        System.out.println("Uso: lote <archivoTrabajos> [--hilos N] [--memoria-mb MB] [--cache carpeta] [--salida-zip lote.zip]");
+        System.out.println("            [--diario archivo] [--reanudar] [--silencioso] [--shard i/N] [--manifiesto archivo]");
+        System.out.println("            [--etapas] [--cola-lectura N] [--cola-escritura N] [--hilos-escritura N]");
+        System.out.println("            [--metricas [host:]puerto]");
+        System.out.println("Ejemplo: lote trabajos.tsv --hilos 8 --memoria-mb 2048");
+        System.out.println();
+        System.out.println("Cada línea del archivo de trabajos (separada por tabuladores):");
+        System.out.println("  id  comando  origen  destino  [tag1  valor1  tag2  valor2 ...]");
+        System.out.println("Para 'predeterminado' use el tag " + PredeterminadoCommand.TAG_PREDETERMINADO
+                + " con el texto de reemplazo.");
+        System.out.println();
+        System.out.println("Con --salida-zip todos los documentos se guardan en un único .zip como <id>.docx;");
+        System.out.println("use 'extraer' para recuperar uno por id.");
+        System.out.println();
+        System.out.println("El progreso se registra en <archivoTrabajos>.progreso (o en --diario). Tras una caída,");
+        System.out.println("--reanudar omite los trabajos cuyo documento ya existe con el checksum registrado.");
+        System.out.println();
+        System.out.println("Varias máquinas: lance el mismo archivo con --shard 1/N ... --shard N/N. Cada proceso");
+        System.out.println("renderiza solo los ids de su shard (partición estable por id) y escribe");
+        System.out.println("<archivoTrabajos>.shard-i-de-N.manifiesto; use --salida-zip distintos por shard.");
+        System.out.println("Al terminar: merge-manifests <combinado.tsv> <manifiestos...>");
+        System.out.println();
+        System.out.println("Con --etapas la lectura de los orígenes siguientes y la escritura de los documentos ya");
+        System.out.println("generados se solapan con el renderizado. Cada etapa tiene su propia cola (por defecto,");
+        System.out.println("tantos documentos como hilos) y la escritura usa --hilos-escritura hilos (2).");
+        System.out.println();
+        System.out.println("Con --metricas 9100 se exponen en http://127.0.0.1:9100/metrics (formato Prometheus),");
+        System.out.println("/health/live y /health/ready (503 mientras la cola de trabajos está llena).");
+    }
+
+    private void mostrarResumen(BatchResult resultado) {
+        System.out.println("\n========================================");
+        System.out.println("RESUMEN DEL LOTE:");
+        System.out.println("  Documentos generados: " + resultado.getExitos());
+        if (resultado.getDeOtrosShards() > 0) {
+            System.out.println("  Trabajos de otros shards: " + resultado.getDeOtrosShards());
+        }
+        if (resultado.getOmitidos() > 0) {
+            System.out.println("  Documentos ya completados (omitidos): " + resultado.getOmitidos());
+        }
+        System.out.println("  Documentos con error: " + resultado.getFallos());
+        for (String error : resultado.getErrores()) {
+            System.out.println("    - " + error);
+        }
+        System.out.println("  Reemplazos realizados: " + resultado.getEstadisticas().getTotal());
+        if (!resultado.getTagsFaltantes().isEmpty()) {
+            System.out.println("  Tags sin coincidencias en todo el lote: " + resultado.getTagsFaltantes());
+        }
+        System.out.println("  Tiempo total: " + resultado.getMilisegundos() + " ms");
+        System.out.println("========================================");
+    }
+}
@@ -0,0 +1,39 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.util.DocxDeMuestra;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Genera un documento .docx sintético (carta de una página por defecto) para
+ * benchmarks y entrenamiento del archivo CDS.
+ */
+public class MuestraCommand {
+
+    private static final int PARRAFOS_CARTA = 12;
+
+    public void execute(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            printUsage();
+            return;
+        }
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[0]))) {
+            int parrafos = args.length == 2 ? Integer.parseInt(args[1]) : PARRAFOS_CARTA;
+            DocxDeMuestra.generar(out, parrafos);
+            System.out.println("Documento de muestra con " + parrafos + " párrafos guardado en: " + args[0]);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void printUsage() {
+        System.out.println("Uso: muestra <destino.docx> [parrafos]");
+        System.out.println("Ejemplo: muestra carta.docx 12");
+        System.out.println();
+        System.out.println("Tags del documento: <<NOMBRE>>, <<DIRECCION>>, <<FECHA>>, <<TITULO>>, <<PIE>>");
+    }
+}
@@ -1,7 +1,17 @@
 package com.logicsolutions.commands;
 
+import com.logicsolutions.util.ArgumentosComando;
+import com.logicsolutions.util.Consola;
+import com.logicsolutions.util.DocxPackage;
+import com.logicsolutions.util.DocxPackage.TipoParte;
 import com.logicsolutions.util.DocxUtils;
-import com.logicsolutions.util.DocxUtils.RunInfo;
+import com.logicsolutions.util.EstadisticasReemplazo;
+import com.logicsolutions.util.Hashing;
+import com.logicsolutions.util.MappedZip;
+import com.logicsolutions.util.PartCache;
+import com.logicsolutions.util.PlazoRender;
+import com.logicsolutions.util.ResultCache;
+import com.logicsolutions.util.TextoParrafo;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -11,16 +21,20 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.transform.Transformer;
 import java.io.*;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.*;
 
-public class PredeterminadoCommand {
+public class PredeterminadoCommand implements DocxCommand {
 
-    private static final Pattern TAG_PATTERN = Pattern.compile("<<[^>]+>>");
+    /** Clave del mapa de reemplazos que contiene el texto único en modo lote */
+    public static final String TAG_PREDETERMINADO = "<<*>>";
+
+    private final EstadisticasReemplazo estadisticas = new EstadisticasReemplazo();
 
     public void execute(String[] args) {
-        if (args.length != 3) {
+        String carpetaCache = null;
+        if (args.length == 5 && ArgumentosComando.OPCION_CACHE.equals(args[3])) {
+            carpetaCache = args[4];
+        } else if (args.length != 3) {
             printUsage();
             return;
         }
@@ -39,10 +53,17 @@ public class PredeterminadoCommand {
         System.out.println("========================================");
 
         try {
-            processDocument(inputDocx, outputDocx, textoReemplazo);
+            DocxCommand comando = ResultCache.envolver("predeterminado", this, carpetaCache);
+            DocxUtils.escribirArchivo(outputDocx, out ->
+                    comando.render(inputDocx, out, Collections.singletonMap(TAG_PREDETERMINADO, textoReemplazo)));
+
+            System.out.println("\n========================================");
+            System.out.println("Documento guardado en: " + outputDocx);
+            System.out.println("========================================");
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
             e.printStackTrace();
+            System.exit(1);
         }
     }
 
@@ -51,75 +72,107 @@ public class PredeterminadoCommand {
         System.out.println("Ejemplo: predeterminado doc.docx doc_mod.docx \"[PENDIENTE]\"");
         System.out.println();
         System.out.println("Este comando reemplaza TODAS las etiquetas <<...>> con el texto especificado.");
+        System.out.println();
+        System.out.println("Reutilizar resultados ya generados (misma plantilla y mismo texto):");
+        System.out.println("  predeterminado doc.docx doc_mod.docx \"[PENDIENTE]\" --cache /var/cache/docx");
     }
 
-    private void processDocument(String inputDocx, String outputDocx, String textoReemplazo) throws Exception {
+    /**
+     * En modo lote el texto de reemplazo se toma del valor asociado a {@link #TAG_PREDETERMINADO}.
+     */
+    @Override
+    public void render(String inputDocx, OutputStream output, Map<String, String> reemplazos) throws Exception {
+        String textoReemplazo = reemplazos.get(TAG_PREDETERMINADO);
+        if (textoReemplazo == null) {
+            throw new IllegalArgumentException("Falta el valor de " + TAG_PREDETERMINADO + " para el comando predeterminado");
+        }
+        processDocument(inputDocx, output, textoReemplazo);
+    }
+
+    private void processDocument(String inputDocx, OutputStream output, String textoReemplazo) throws Exception {
         DocumentBuilder builder = DocxUtils.createDocumentBuilder();
         Transformer transformer = DocxUtils.createTransformer();
+        PartCache cache = PartCache.compartida();
+        String hashReemplazo = Hashing.hashReemplazos(Collections.singletonMap(TAG_PREDETERMINADO, textoReemplazo));
+        EstadisticasReemplazo delDocumento = new EstadisticasReemplazo();
 
-        try (ZipFile zipOrig = new ZipFile(inputDocx);
-             FileOutputStream fos = new FileOutputStream(outputDocx);
-             ZipOutputStream zipOut = new ZipOutputStream(fos)) {
+        try (MappedZip zipOrig = MappedZip.abrir(inputDocx);
+             ZipOutputStream zipOut = new ZipOutputStream(DocxUtils.nonClosing(output))) {
 
+            DocxPackage paquete = DocxPackage.leer(zipOrig, builder);
             var entries = zipOrig.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
                 String name = entry.getName();
+                TipoParte tipo = paquete.tipo(name);
 
-                boolean esDocument = DocxUtils.isDocumentXml(name);
-                boolean esHeader = DocxUtils.isHeaderXml(name);
-                boolean esFooter = DocxUtils.isFooterXml(name);
-
-                if (esDocument || esHeader || esFooter) {
-                    System.out.println("\nProcesando: " + name);
+                if (tipo != null && tipo.admiteReemplazos()) {
+                    Consola.out().println("\nProcesando: " + name);
 
-                    try (InputStream is = zipOrig.getInputStream(entry)) {
-                        Document doc = builder.parse(is);
-                        doc.getDocumentElement().normalize();
+                    PartCache.ParteProcesada parte;
+                    if (tipo != TipoParte.ENCABEZADO && tipo != TipoParte.PIE) {
+                        try (InputStream is = zipOrig.getInputStream(entry)) {
+                            parte = procesarParte(DocxUtils.parse(builder, is), textoReemplazo, transformer);
+                        }
+                    } else {
+                        // Encabezados y pies suelen repetirse idénticos: se procesan una sola vez
+                        byte[] original = DocxUtils.readEntry(zipOrig, entry);
+                        parte = cache.procesar("predeterminado", original, hashReemplazo, bytes ->
+                                procesarParte(DocxUtils.parse(builder, new ByteArrayInputStream(bytes)), textoReemplazo, transformer));
+                    }
 
-                        marcarElementosProtegidos(doc);
-                        int totalReemplazos = reemplazarEnDocumento(doc, textoReemplazo);
-                        System.out.println("  Total de etiquetas reemplazadas: " + totalReemplazos);
-                        DocxUtils.limpiarMarcas(doc);
+                    Consola.out().println("  Total de etiquetas reemplazadas: " + parte.getReemplazos());
+                    delDocumento.fusionar(name, parte.getEstadisticas());
 
-                        zipOut.putNextEntry(new ZipEntry(name));
-                        zipOut.write(DocxUtils.documentToBytes(doc, transformer));
-                        zipOut.closeEntry();
-                    }
+                    zipOut.putNextEntry(new ZipEntry(name));
+                    zipOut.write(parte.getBytes());
+                    zipOut.closeEntry();
                 } else {
                     DocxUtils.copyEntry(zipOrig, entry, zipOut);
                 }
             }
         }
+        estadisticas.fusionar(delDocumento);
+    }
 
-        System.out.println("\n========================================");
-        System.out.println("Documento guardado en: " + outputDocx);
-        System.out.println("========================================");
+    private PartCache.ParteProcesada procesarParte(Document doc, String textoReemplazo,
+                                                    Transformer transformer) throws Exception {
+        doc.getDocumentElement().normalize();
+
+        marcarElementosProtegidos(doc);
+        EstadisticasReemplazo deParte = new EstadisticasReemplazo();
+        int totalReemplazos = reemplazarEnDocumento(doc, textoReemplazo, deParte);
+        DocxUtils.limpiarMarcas(doc);
+
+        return new PartCache.ParteProcesada(DocxUtils.documentToBytes(doc, transformer), totalReemplazos, deParte);
+    }
+
+    /**
+     * Las estadísticas se registran por cada etiqueta {@code <<...>>} encontrada
+     */
+    @Override
+    public EstadisticasReemplazo getEstadisticas() {
+        return estadisticas;
     }
 
     private void marcarElementosProtegidos(Document doc) {
         // Marcar contenido de controles de contenido (sdtContent)
-        NodeList sdtContents = doc.getElementsByTagName("w:sdtContent");
-        for (int i = 0; i < sdtContents.getLength(); i++) {
-            DocxUtils.marcarDescendientes(sdtContents.item(i));
+        for (Element sdtContent : DocxUtils.elementos(doc, "w:sdtContent")) {
+            DocxUtils.marcarDescendientes(sdtContent);
         }
 
         // Marcar cuadros de texto
-        NodeList textBoxes = doc.getElementsByTagName("w:txbxContent");
-        for (int i = 0; i < textBoxes.getLength(); i++) {
-            DocxUtils.marcarDescendientes(textBoxes.item(i));
+        for (Element textBox : DocxUtils.elementos(doc, "w:txbxContent")) {
+            DocxUtils.marcarDescendientes(textBox);
         }
 
         // Marcar campos simples
-        NodeList fieldSimples = doc.getElementsByTagName("w:fldSimple");
-        for (int i = 0; i < fieldSimples.getLength(); i++) {
-            DocxUtils.marcarDescendientes(fieldSimples.item(i));
+        for (Element fieldSimple : DocxUtils.elementos(doc, "w:fldSimple")) {
+            DocxUtils.marcarDescendientes(fieldSimple);
         }
 
         // Marcar campos complejos (fldChar begin...end)
-        NodeList fieldChars = doc.getElementsByTagName("w:fldChar");
-        for (int i = 0; i < fieldChars.getLength(); i++) {
-            Element fld = (Element) fieldChars.item(i);
+        for (Element fld : DocxUtils.elementos(doc, "w:fldChar")) {
             if ("begin".equals(fld.getAttribute("w:fldCharType"))) {
                 Node sibling = fld.getParentNode();
                 boolean inField = true;
@@ -141,27 +194,26 @@ public class PredeterminadoCommand {
         }
 
         // Marcar instrucciones de campo
-        NodeList instrTexts = doc.getElementsByTagName("w:instrText");
-        for (int i = 0; i < instrTexts.getLength(); i++) {
-            ((Element) instrTexts.item(i)).setAttribute("ignorar", "true");
+        for (Element instrText : DocxUtils.elementos(doc, "w:instrText")) {
+            instrText.setAttribute("ignorar", "true");
         }
     }
 
-    private int reemplazarEnDocumento(Document document, String textoReemplazo) {
+    private int reemplazarEnDocumento(Document document, String textoReemplazo, EstadisticasReemplazo deParte) {
         int total = 0;
-        total += reemplazarEnElementosIndividuales(document, textoReemplazo);
-        total += reemplazarEnParagrafos(document, textoReemplazo);
+        total += reemplazarEnElementosIndividuales(document, textoReemplazo, deParte);
+        total += reemplazarEnParagrafos(document, textoReemplazo, deParte);
         return total;
     }
 
-    private int reemplazarEnElementosIndividuales(Document document, String textoReemplazo) {
+    private int reemplazarEnElementosIndividuales(Document document, String textoReemplazo,
+                                                  EstadisticasReemplazo deParte) {
         int count = 0;
-        NodeList nodosTexto = document.getElementsByTagName("w:t");
         int elementosProcesados = 0;
         int elementosIgnorados = 0;
 
-        for (int i = 0; i < nodosTexto.getLength(); i++) {
-            Element elemento = (Element) nodosTexto.item(i);
+        for (Element elemento : DocxUtils.elementos(document, "w:t")) {
+            PlazoRender.verificar();
 
             if (elemento.hasAttribute("ignorar") || DocxUtils.estaEnEstiloTOC(elemento)) {
                 elementosIgnorados++;
@@ -170,37 +222,38 @@ public class PredeterminadoCommand {
 
             elementosProcesados++;
             String textoOriginal = elemento.getTextContent();
-            Matcher matcher = TAG_PATTERN.matcher(textoOriginal);
-            StringBuffer sb = new StringBuffer();
-            boolean encontrado = false;
-
-            while (matcher.find()) {
-                System.out.println("    Encontrado: " + matcher.group() + " -> " + textoReemplazo);
-                matcher.appendReplacement(sb, Matcher.quoteReplacement(textoReemplazo));
-                count++;
-                encontrado = true;
+            int primera = buscarEtiqueta(textoOriginal, 0);
+            if (primera < 0) {
+                continue;
             }
-            matcher.appendTail(sb);
 
-            if (encontrado) {
-                elemento.setTextContent(sb.toString());
-                if (elemento.hasAttribute("xml:space")) {
-                    elemento.setAttribute("xml:space", "preserve");
-                }
+            StringBuilder sb = new StringBuilder(textoOriginal.length() + textoReemplazo.length());
+            count += reemplazarEtiquetas(textoOriginal, primera, textoReemplazo, sb, deParte);
+            elemento.setTextContent(sb.toString());
+            if (elemento.hasAttribute("xml:space")) {
+                elemento.setAttribute("xml:space", "preserve");
             }
         }
 
-        System.out.println("  Elementos procesados: " + elementosProcesados);
-        System.out.println("  Elementos protegidos ignorados: " + elementosIgnorados);
+        Consola.out().println("  Elementos procesados: " + elementosProcesados);
+        Consola.out().println("  Elementos protegidos ignorados: " + elementosIgnorados);
         return count;
     }
 
-    private int reemplazarEnParagrafos(Document document, String textoReemplazo) {
-        int count = 0;
-        NodeList paragraphs = document.getElementsByTagName("w:p");
+    private int reemplazarEnParagrafos(Document document, String textoReemplazo, EstadisticasReemplazo deParte) {
+        TextoParrafo texto = TextoParrafo.delHilo();
+        try {
+            return reemplazarEnParagrafos(document, textoReemplazo, deParte, texto);
+        } finally {
+            texto.limpiar();
+        }
+    }
 
-        for (int i = 0; i < paragraphs.getLength(); i++) {
-            Element paragraph = (Element) paragraphs.item(i);
+    private int reemplazarEnParagrafos(Document document, String textoReemplazo, EstadisticasReemplazo deParte,
+                                       TextoParrafo texto) {
+        int count = 0;
+        for (Element paragraph : DocxUtils.elementos(document, "w:p")) {
+            PlazoRender.verificar();
 
             // Verificar si está en elemento protegido
             Node parent = paragraph.getParentNode();
@@ -216,66 +269,79 @@ public class PredeterminadoCommand {
             if (enElementoProtegido) continue;
 
             // Verificar estilo TOC
-            NodeList pPrList = paragraph.getElementsByTagName("w:pPr");
-            if (pPrList.getLength() > 0) {
-                Element pPr = (Element) pPrList.item(0);
-                NodeList pStyleList = pPr.getElementsByTagName("w:pStyle");
-                if (pStyleList.getLength() > 0) {
-                    Element pStyle = (Element) pStyleList.item(0);
-                    String styleId = pStyle.getAttribute("w:val");
-                    if (styleId != null && (styleId.startsWith("TOC") ||
-                            styleId.startsWith("Toc") ||
-                            styleId.contains("TableofContents") ||
-                            styleId.contains("ndice"))) {
-                        continue;
-                    }
-                }
-            }
-
-            // Recolectar runs
-            NodeList runs = paragraph.getElementsByTagName("w:r");
-            List<RunInfo> runInfos = new ArrayList<>();
-
-            for (int j = 0; j < runs.getLength(); j++) {
-                Element run = (Element) runs.item(j);
-                NodeList texts = run.getElementsByTagName("w:t");
-                for (int k = 0; k < texts.getLength(); k++) {
-                    Element textEl = (Element) texts.item(k);
-                    if (!textEl.hasAttribute("ignorar")) {
-                        runInfos.add(new RunInfo(textEl, textEl.getTextContent()));
-                    }
-                }
-            }
-
-            if (runInfos.isEmpty()) continue;
-
-            // Concatenar texto
-            StringBuilder fullText = new StringBuilder();
-            for (RunInfo ri : runInfos) {
-                fullText.append(ri.text);
+            if (DocxUtils.esParrafoTOC(paragraph)) continue;
+
+            // Recolectar y concatenar los textos en el búfer del hilo; sin etiquetas no se copia nada
+            texto.cargar(paragraph);
+            if (texto.estaVacio()) continue;
+
+            // Cada etiqueta edita solo los runs que solapa; el resto conserva texto y formato
+            int inicio = buscarEtiqueta(texto, 0);
+            if (inicio < 0) continue;
+            while (inicio >= 0) {
+                int fin = finEtiqueta(texto, inicio);
+                String etiqueta = texto.subSequence(inicio, fin).toString();
+                Consola.out().println("    Encontrado (fragmentado): " + etiqueta + " -> " + textoReemplazo);
+                deParte.registrar(etiqueta);
+                texto.reemplazar(inicio, fin, textoReemplazo);
+                count++;
+                inicio = buscarEtiqueta(texto, inicio + textoReemplazo.length());
             }
+            texto.aplicarCambios();
+        }
 
-            Matcher matcher = TAG_PATTERN.matcher(fullText.toString());
-            StringBuffer sb = new StringBuffer();
-            boolean encontrado = false;
+        return count;
+    }
 
-            while (matcher.find()) {
-                System.out.println("    Encontrado (fragmentado): " + matcher.group() + " -> " + textoReemplazo);
-                matcher.appendReplacement(sb, Matcher.quoteReplacement(textoReemplazo));
-                count++;
-                encontrado = true;
-            }
-            matcher.appendTail(sb);
+    /**
+     * Escribe en {@code sb} el texto con cada etiqueta {@code <<...>>} reemplazada, a partir
+     * de la primera ya localizada
+     *
+     * @return etiquetas reemplazadas
+     */
+    private static int reemplazarEtiquetas(String texto, int primera, String textoReemplazo, StringBuilder sb,
+                                           EstadisticasReemplazo deParte) {
+        int count = 0;
+        int copiado = 0;
+        for (int inicio = primera; inicio >= 0; inicio = buscarEtiqueta(texto, copiado)) {
+            int fin = finEtiqueta(texto, inicio);
+            String etiqueta = texto.substring(inicio, fin);
+            Consola.out().println("    Encontrado: " + etiqueta + " -> " + textoReemplazo);
+            deParte.registrar(etiqueta);
+            sb.append(texto, copiado, inicio).append(textoReemplazo);
+            copiado = fin;
+            count++;
+        }
+        sb.append(texto, copiado, texto.length());
+        return count;
+    }
 
-            if (encontrado) {
-                String modified = sb.toString();
-                runInfos.get(0).element.setTextContent(modified);
-                for (int idx = 1; idx < runInfos.size(); idx++) {
-                    runInfos.get(idx).element.setTextContent("");
-                }
+    /**
+     * Posición de la siguiente etiqueta {@code <<...>>} (al menos un carácter distinto de '>'
+     * entre los delimitadores) desde {@code desde}, o -1. Equivale a buscar la expresión
+     * {@code <<[^>]+>>} pero sin crear Matcher ni copias del texto.
+     */
+    static int buscarEtiqueta(CharSequence texto, int desde) {
+        for (int i = desde; i < texto.length() - 1; i++) {
+            if (texto.charAt(i) == '<' && finEtiqueta(texto, i) >= 0) {
+                return i;
             }
         }
+        return -1;
+    }
 
-        return count;
+    private static int finEtiqueta(CharSequence texto, int inicio) {
+        int longitud = texto.length();
+        if (inicio + 1 >= longitud || texto.charAt(inicio) != '<' || texto.charAt(inicio + 1) != '<') {
+            return -1;
+        }
+        int cierre = inicio + 2;
+        while (cierre < longitud && texto.charAt(cierre) != '>') {
+            cierre++;
+        }
+        if (cierre == inicio + 2 || cierre + 1 >= longitud || texto.charAt(cierre + 1) != '>') {
+            return -1;
+        }
+        return cierre + 2;
     }
 }
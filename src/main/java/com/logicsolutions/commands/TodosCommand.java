@@ -1,32 +1,92 @@
 package com.logicsolutions.commands;
 
+import com.logicsolutions.util.ArgumentosComando;
+import com.logicsolutions.util.Consola;
+import com.logicsolutions.util.DocxPackage;
+import com.logicsolutions.util.DocxPackage.TipoParte;
 import com.logicsolutions.util.DocxUtils;
-import com.logicsolutions.util.DocxUtils.RunInfo;
+import com.logicsolutions.util.EstadisticasReemplazo;
+import com.logicsolutions.util.Hashing;
+import com.logicsolutions.util.MappedZip;
+import com.logicsolutions.util.ParallelBodyProcessor;
+import com.logicsolutions.util.PartCache;
+import com.logicsolutions.util.PlazoRender;
+import com.logicsolutions.util.ResultCache;
+import com.logicsolutions.util.StreamingXmlProcessor;
+import com.logicsolutions.util.TextoParrafo;
+import com.logicsolutions.util.ValorReemplazo;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.transform.Transformer;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.*;
 
-public class TodosCommand {
+public class TodosCommand implements DocxCommand {
+
+    private final EstadisticasReemplazo estadisticas = new EstadisticasReemplazo();
+
+    /** Límite de memoria del modo de memoria acotada en bytes; 0 = modo normal (DOM completo) */
+    private long limiteBajaMemoria;
+
+    /** Hilos para procesar el cuerpo de la parte principal por tramos; 1 = un solo hilo */
+    private int hilosPorDocumento = 1;
+
+    /** Pool donde se procesan los tramos del cuerpo; null si hilosPorDocumento es 1 */
+    private ExecutorService poolCuerpo;
+
+    public void setLimiteBajaMemoria(long limiteBytes) {
+        this.limiteBajaMemoria = limiteBytes;
+    }
+
+    /**
+     * Procesa el cuerpo de la parte principal por tramos en el pool indicado, que puede
+     * compartirse entre varios comandos; lo cierra quien lo creó
+     *
+     * @param hilos hilos del pool
+     */
+    public void setPoolCuerpo(ExecutorService pool, int hilos) {
+        this.poolCuerpo = pool;
+        this.hilosPorDocumento = pool != null ? hilos : 1;
+    }
 
     public void execute(String[] args) {
-        if (args.length < 4 || (args.length - 2) % 2 != 0) {
+        ArgumentosComando argumentos;
+        try {
+            argumentos = ArgumentosComando.parsear(args, "--baja-memoria", "--paralelo");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
             printUsage();
             return;
+        } catch (IOException e) {
+            System.err.println("Error al leer el archivo de tags: " + e.getMessage());
+            return;
         }
 
-        String inputDocx = args[0];
-        String outputDocx = args[1];
+        String inputDocx = argumentos.getOrigen();
+        String outputDocx = argumentos.getDestino();
+        Map<String, String> reemplazos = argumentos.getReemplazos();
 
-        Map<String, String> reemplazos = new LinkedHashMap<>();
-        for (int i = 2; i < args.length; i += 2) {
-            reemplazos.put(args[i], args[i + 1]);
+        String bajaMemoria = argumentos.getOpcion("--baja-memoria");
+        if (bajaMemoria != null) {
+            if (!bajaMemoria.matches("\\d+")) {
+                printUsage();
+                return;
+            }
+            limiteBajaMemoria = Long.parseLong(bajaMemoria) * 1024 * 1024;
+        }
+        String paralelo = argumentos.getOpcion("--paralelo");
+        if (paralelo != null) {
+            if (!paralelo.matches("[1-9]\\d*")) {
+                printUsage();
+                return;
+            }
+            hilosPorDocumento = Integer.parseInt(paralelo);
         }
 
         System.out.println("========================================");
@@ -38,13 +98,32 @@ public class TodosCommand {
         System.out.println();
         System.out.println("NOTA: Los cuadros de texto NO serán modificados.");
         System.out.println("NOTA: El delimitador ||BR|| será convertido a salto de línea.");
+        if (limiteBajaMemoria > 0) {
+            System.out.println("NOTA: Modo de memoria acotada, límite " + (limiteBajaMemoria / (1024 * 1024)) + " MB.");
+        } else if (hilosPorDocumento > 1) {
+            System.out.println("NOTA: El cuerpo del documento se procesa en paralelo con " + hilosPorDocumento + " hilos.");
+        }
         System.out.println("========================================");
 
+        if (hilosPorDocumento > 1 && limiteBajaMemoria == 0) {
+            poolCuerpo = ParallelBodyProcessor.crearPool(hilosPorDocumento);
+        }
         try {
-            processDocument(inputDocx, outputDocx, reemplazos);
+            DocxUtils.escribirArchivo(outputDocx, out ->
+                    ResultCache.envolver("todos", this, argumentos.getOpcion(ArgumentosComando.OPCION_CACHE))
+                            .render(inputDocx, out, reemplazos));
+
+            System.out.println("\n========================================");
+            System.out.println("Documento guardado en: " + outputDocx);
+            System.out.println("========================================");
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
             e.printStackTrace();
+            System.exit(1);
+        } finally {
+            if (poolCuerpo != null) {
+                poolCuerpo.shutdown();
+            }
         }
     }
 
@@ -54,66 +133,193 @@ public class TodosCommand {
         System.out.println();
         System.out.println("Para insertar saltos de línea, use ||BR|| en el valor de reemplazo:");
         System.out.println("  todos doc.docx doc_mod.docx \"<<DIRECCION>>\" \"Calle 1||BR||Ciudad||BR||País\"");
+        System.out.println();
+        System.out.println("Para documentos muy grandes, procese por párrafos con memoria acotada (en MB):");
+        System.out.println("  todos --baja-memoria 256 doc.docx doc_mod.docx \"<<NOMBRE>>\" \"Juan\"");
+        System.out.println();
+        System.out.println("Para reducir la latencia de un documento enorme, reparta su cuerpo entre varios hilos:");
+        System.out.println("  todos --paralelo 8 doc.docx doc_mod.docx \"<<NOMBRE>>\" \"Juan\"");
+        System.out.println();
+        System.out.println("Tags desde archivo (.json, .properties, .tsv o .tagsbin):");
+        System.out.println("  todos doc.docx doc_mod.docx --tags-file tags.json");
+        System.out.println();
+        System.out.println("Reutilizar resultados ya generados (misma plantilla y mismos tags):");
+        System.out.println("  todos doc.docx doc_mod.docx --tags-file tags.json --cache /var/cache/docx");
     }
 
-    private void processDocument(String inputDocx, String outputDocx, Map<String, String> reemplazos) throws Exception {
+    @Override
+    public void render(String inputDocx, OutputStream output, Map<String, String> reemplazos) throws Exception {
         DocumentBuilder builder = DocxUtils.createDocumentBuilder();
         Transformer transformer = DocxUtils.createTransformer();
+        PartCache cache = PartCache.compartida();
+        String hashReemplazos = Hashing.hashReemplazos(reemplazos);
+        Map<String, ValorReemplazo> valores = ValorReemplazo.compilar(reemplazos);
+        EstadisticasReemplazo delDocumento = new EstadisticasReemplazo();
 
-        try (ZipFile zipOrig = new ZipFile(inputDocx);
-             FileOutputStream fos = new FileOutputStream(outputDocx);
-             ZipOutputStream zipOut = new ZipOutputStream(fos)) {
+        try (MappedZip zipOrig = MappedZip.abrir(inputDocx);
+             ZipOutputStream zipOut = new ZipOutputStream(DocxUtils.nonClosing(output))) {
 
+            DocxPackage paquete = DocxPackage.leer(zipOrig, builder);
             var entries = zipOrig.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
                 String name = entry.getName();
+                TipoParte tipo = paquete.tipo(name);
 
-                boolean esDocument = DocxUtils.isDocumentXml(name);
-                boolean esHeader = DocxUtils.isHeaderXml(name);
-                boolean esFooter = DocxUtils.isFooterXml(name);
-
-                if (esDocument || esHeader || esFooter) {
-                    System.out.println("\nProcesando: " + name);
+                if (tipo != null && tipo.admiteReemplazos()) {
+                    Consola.out().println("\nProcesando: " + name);
 
-                    try (InputStream is = zipOrig.getInputStream(entry)) {
-                        Document doc = builder.parse(is);
-                        doc.getDocumentElement().normalize();
-
-                        marcarElementosEnTextBox(doc);
-                        reemplazarEnDocumento(doc, reemplazos);
-                        DocxUtils.limpiarMarcas(doc);
+                    if (tipo == TipoParte.PRINCIPAL && limiteBajaMemoria > 0) {
+                        delDocumento.fusionar(name, procesarConMemoriaAcotada(zipOrig, entry, zipOut, builder, valores));
+                        continue;
+                    }
 
-                        zipOut.putNextEntry(new ZipEntry(name));
-                        zipOut.write(DocxUtils.documentToBytes(doc, transformer));
-                        zipOut.closeEntry();
+                    PartCache.ParteProcesada parte;
+                    if (tipo == TipoParte.PRINCIPAL && poolCuerpo != null && hilosPorDocumento > 1) {
+                        try (InputStream is = zipOrig.getInputStream(entry)) {
+                            parte = procesarEnParalelo(DocxUtils.parse(builder, is), builder, valores, transformer);
+                        }
+                    } else if (tipo != TipoParte.ENCABEZADO && tipo != TipoParte.PIE) {
+                        try (InputStream is = zipOrig.getInputStream(entry)) {
+                            parte = procesarParte(DocxUtils.parse(builder, is), valores, transformer);
+                        }
+                    } else {
+                        // Encabezados y pies suelen repetirse idénticos: se procesan una sola vez
+                        byte[] original = DocxUtils.readEntry(zipOrig, entry);
+                        parte = cache.procesar("todos", original, hashReemplazos, bytes ->
+                                procesarParte(DocxUtils.parse(builder, new ByteArrayInputStream(bytes)), valores, transformer));
                     }
+                    delDocumento.fusionar(name, parte.getEstadisticas());
+
+                    zipOut.putNextEntry(new ZipEntry(name));
+                    zipOut.write(parte.getBytes());
+                    zipOut.closeEntry();
                 } else {
                     DocxUtils.copyEntry(zipOrig, entry, zipOut);
                 }
             }
         }
 
-        System.out.println("\n========================================");
-        System.out.println("Documento guardado en: " + outputDocx);
-        System.out.println("========================================");
+        delDocumento.imprimirFaltantes(Consola.out(), reemplazos.keySet());
+        estadisticas.fusionar(delDocumento);
+    }
+
+    private PartCache.ParteProcesada procesarParte(Document doc, Map<String, ValorReemplazo> valores,
+                                                    Transformer transformer) throws Exception {
+        doc.getDocumentElement().normalize();
+
+        marcarElementosEnTextBox(doc);
+        EstadisticasReemplazo deParte = new EstadisticasReemplazo();
+        reemplazarEnDocumento(doc, valores, deParte);
+        DocxUtils.limpiarMarcas(doc);
+
+        return new PartCache.ParteProcesada(DocxUtils.documentToBytes(doc, transformer),
+                (int) deParte.getTotal(), deParte);
+    }
+
+    /**
+     * Reparte el cuerpo en tramos procesados en paralelo. Los cuadros de texto se marcan antes
+     * sobre el documento completo; si el cuerpo tiene pocos bloques se procesa en este hilo.
+     */
+    private PartCache.ParteProcesada procesarEnParalelo(Document doc, DocumentBuilder builder,
+                                                        Map<String, ValorReemplazo> valores,
+                                                        Transformer transformer) throws Exception {
+        doc.getDocumentElement().normalize();
+        marcarElementosEnTextBox(doc);
+
+        EstadisticasReemplazo deParte = new EstadisticasReemplazo();
+        AtomicInteger procesados = new AtomicInteger();
+        AtomicInteger ignorados = new AtomicInteger();
+        byte[] bytes = new ParallelBodyProcessor(poolCuerpo, hilosPorDocumento).procesar(doc, builder, transformer, tramo -> {
+            int[] parcial = reemplazarEnElementos(tramo, valores, deParte);
+            procesados.addAndGet(parcial[0]);
+            ignorados.addAndGet(parcial[1]);
+            reemplazarEnParagrafos(tramo, valores, deParte);
+            DocxUtils.limpiarMarcas(tramo);
+        });
+        if (bytes == null) {
+            return procesarParte(doc, valores, transformer);
+        }
+
+        Consola.out().println("  Elementos procesados: " + procesados.get());
+        Consola.out().println("  Elementos en cuadros de texto ignorados: " + ignorados.get());
+        return new PartCache.ParteProcesada(bytes, (int) deParte.getTotal(), deParte);
+    }
+
+    /**
+     * Procesa la parte párrafo a párrafo sin construir el DOM completo
+     *
+     * @return reemplazos hechos en la parte
+     */
+    private EstadisticasReemplazo procesarConMemoriaAcotada(MappedZip zipOrig, ZipEntry entry, ZipOutputStream zipOut,
+                                                            DocumentBuilder builder, Map<String, ValorReemplazo> valores) throws Exception {
+        int[] contadores = new int[2];
+        EstadisticasReemplazo deParte = new EstadisticasReemplazo();
+        StreamingXmlProcessor procesador = new StreamingXmlProcessor(limiteBajaMemoria);
+
+        zipOut.putNextEntry(new ZipEntry(entry.getName()));
+        try (InputStream is = zipOrig.getInputStream(entry)) {
+            int parrafos = procesador.procesar(is, zipOut, builder, fragmento -> {
+                marcarElementosEnTextBox(fragmento);
+                int[] parcial = reemplazarEnElementos(fragmento, valores, deParte);
+                contadores[0] += parcial[0];
+                contadores[1] += parcial[1];
+                reemplazarEnParagrafos(fragmento, valores, deParte);
+                DocxUtils.limpiarMarcas(fragmento);
+            });
+            Consola.out().println("  Párrafos procesados en modo de memoria acotada: " + parrafos);
+        }
+        zipOut.closeEntry();
+
+        Consola.out().println("  Elementos procesados: " + contadores[0]);
+        Consola.out().println("  Elementos en cuadros de texto ignorados: " + contadores[1]);
+        return deParte;
+    }
+
+    /**
+     * Aplica los reemplazos a un párrafo aislado por {@link StreamingXmlProcessor}
+     */
+    void reemplazarEnFragmento(Document fragmento, Map<String, ValorReemplazo> valores,
+                               EstadisticasReemplazo deParte) {
+        marcarElementosEnTextBox(fragmento);
+        reemplazarEnElementos(fragmento, valores, deParte);
+        reemplazarEnParagrafos(fragmento, valores, deParte);
+        DocxUtils.limpiarMarcas(fragmento);
     }
 
     private void marcarElementosEnTextBox(Document doc) {
-        NodeList textBoxes = doc.getElementsByTagName("w:txbxContent");
-        for (int i = 0; i < textBoxes.getLength(); i++) {
-            DocxUtils.marcarDescendientes(textBoxes.item(i));
+        for (Element textBox : DocxUtils.elementos(doc, "w:txbxContent")) {
+            DocxUtils.marcarDescendientes(textBox);
         }
     }
 
-    private void reemplazarEnDocumento(Document document, Map<String, String> reemplazos) {
-        NodeList nodosTexto = document.getElementsByTagName("w:t");
+    @Override
+    public EstadisticasReemplazo getEstadisticas() {
+        return estadisticas;
+    }
+
+    private void reemplazarEnDocumento(Document document, Map<String, ValorReemplazo> valores,
+                                       EstadisticasReemplazo deParte) {
+        int[] contadores = reemplazarEnElementos(document, valores, deParte);
+
+        Consola.out().println("  Elementos procesados: " + contadores[0]);
+        Consola.out().println("  Elementos en cuadros de texto ignorados: " + contadores[1]);
+
+        reemplazarEnParagrafos(document, valores, deParte);
+    }
+
+    /**
+     * Reemplaza en cada w:t por separado
+     *
+     * @return elementos procesados y elementos ignorados por estar en cuadros de texto
+     */
+    private int[] reemplazarEnElementos(Document document, Map<String, ValorReemplazo> valores,
+                                        EstadisticasReemplazo deParte) {
         int elementosProcesados = 0;
         int elementosIgnorados = 0;
 
         List<Element> elementosAProcesar = new ArrayList<>();
-        for (int i = 0; i < nodosTexto.getLength(); i++) {
-            Element elemento = (Element) nodosTexto.item(i);
+        for (Element elemento : DocxUtils.elementos(document, "w:t")) {
             if (elemento.hasAttribute("ignorar")) {
                 elementosIgnorados++;
             } else {
@@ -123,38 +329,51 @@ public class TodosCommand {
         }
 
         for (Element elemento : elementosAProcesar) {
+            PlazoRender.verificar();
             String textoOriginal = elemento.getTextContent();
             String textoModificado = textoOriginal;
             boolean huboReemplazo = false;
+            boolean conSaltos = false;
+            ValorReemplazo ultimoValor = null;
 
-            for (Map.Entry<String, String> entrada : reemplazos.entrySet()) {
+            for (Map.Entry<String, ValorReemplazo> entrada : valores.entrySet()) {
                 if (textoModificado.contains(entrada.getKey())) {
-                    textoModificado = textoModificado.replace(entrada.getKey(), entrada.getValue());
-                    System.out.println("  Reemplazado: " + entrada.getKey() + " -> " + entrada.getValue());
+                    ultimoValor = entrada.getValue();
+                    textoModificado = textoModificado.replace(entrada.getKey(), ultimoValor.getTexto());
+                    Consola.out().println("  Reemplazado: " + entrada.getKey() + " -> " + ultimoValor);
+                    deParte.registrar(entrada.getKey());
                     huboReemplazo = true;
+                    conSaltos |= ultimoValor.tieneSaltos();
                 }
             }
 
             if (huboReemplazo && !textoModificado.equals(textoOriginal)) {
-                if (textoModificado.contains("||BR||")) {
-                    DocxUtils.insertarTextoConSaltos(document, elemento, textoModificado);
+                if (conSaltos || textoOriginal.contains(ValorReemplazo.SALTO)) {
+                    DocxUtils.insertarTextoConSaltos(document, elemento,
+                            ValorReemplazo.paraTexto(textoModificado, ultimoValor));
                 } else {
                     elemento.setTextContent(textoModificado);
                 }
             }
         }
 
-        System.out.println("  Elementos procesados: " + elementosProcesados);
-        System.out.println("  Elementos en cuadros de texto ignorados: " + elementosIgnorados);
-
-        reemplazarEnParagrafos(document, reemplazos);
+        return new int[]{elementosProcesados, elementosIgnorados};
     }
 
-    private void reemplazarEnParagrafos(Document document, Map<String, String> reemplazos) {
-        NodeList paragraphs = document.getElementsByTagName("w:p");
+    private void reemplazarEnParagrafos(Document document, Map<String, ValorReemplazo> valores,
+                                        EstadisticasReemplazo deParte) {
+        TextoParrafo texto = TextoParrafo.delHilo();
+        try {
+            reemplazarEnParagrafos(document, valores, deParte, texto);
+        } finally {
+            texto.limpiar();
+        }
+    }
 
-        for (int i = 0; i < paragraphs.getLength(); i++) {
-            Element paragraph = (Element) paragraphs.item(i);
+    private void reemplazarEnParagrafos(Document document, Map<String, ValorReemplazo> valores,
+                                        EstadisticasReemplazo deParte, TextoParrafo texto) {
+        for (Element paragraph : DocxUtils.elementos(document, "w:p")) {
+            PlazoRender.verificar();
 
             // Verificar si está en un cuadro de texto
             Node parent = paragraph.getParentNode();
@@ -169,54 +388,32 @@ public class TodosCommand {
 
             if (enTextBox) continue;
 
-            // Recolectar runs y textos
-            NodeList runs = paragraph.getElementsByTagName("w:r");
-            List<RunInfo> runInfos = new ArrayList<>();
-
-            for (int j = 0; j < runs.getLength(); j++) {
-                Element run = (Element) runs.item(j);
-                NodeList texts = run.getElementsByTagName("w:t");
-                for (int k = 0; k < texts.getLength(); k++) {
-                    Element textElement = (Element) texts.item(k);
-                    if (!textElement.hasAttribute("ignorar")) {
-                        runInfos.add(new RunInfo(textElement, textElement.getTextContent()));
-                    }
+            // Recolectar y concatenar los textos en el búfer del hilo
+            texto.cargar(paragraph);
+            if (texto.estaVacio() || !texto.contieneAlguno(valores.keySet())) continue;
+
+            // Cada coincidencia edita solo los runs que solapa; el resto conserva texto y formato
+            ValorReemplazo ultimoValor = null;
+            for (Map.Entry<String, ValorReemplazo> entrada : valores.entrySet()) {
+                // Cada tag recorre el párrafo: con miles de tags un solo párrafo puede tardar
+                PlazoRender.verificar();
+                String tag = entrada.getKey();
+                int posicion = texto.indexOf(tag, 0);
+                if (posicion < 0) {
+                    continue;
                 }
-            }
-
-            if (runInfos.isEmpty()) continue;
-
-            // Concatenar texto completo
-            StringBuilder fullText = new StringBuilder();
-            for (RunInfo info : runInfos) {
-                fullText.append(info.text);
-            }
-
-            String originalFullText = fullText.toString();
-            String modifiedFullText = originalFullText;
-            boolean huboReemplazos = false;
-
-            for (Map.Entry<String, String> entrada : reemplazos.entrySet()) {
-                if (modifiedFullText.contains(entrada.getKey())) {
-                    modifiedFullText = modifiedFullText.replace(entrada.getKey(), entrada.getValue());
-                    System.out.println("  Reemplazado (fragmentado): " + entrada.getKey() + " -> " + entrada.getValue());
-                    huboReemplazos = true;
+                ultimoValor = entrada.getValue();
+                String valor = ultimoValor.getTexto();
+                // Mismo recorrido que String.replace: el valor insertado no se vuelve a buscar
+                while (posicion >= 0) {
+                    texto.reemplazar(posicion, posicion + tag.length(), valor);
+                    posicion = texto.indexOf(tag, posicion + valor.length());
                 }
+                Consola.out().println("  Reemplazado (fragmentado): " + tag + " -> " + ultimoValor);
+                deParte.registrar(tag);
             }
 
-            if (huboReemplazos && !modifiedFullText.equals(originalFullText)) {
-                if (modifiedFullText.contains("||BR||")) {
-                    DocxUtils.insertarTextoConSaltos(document, runInfos.get(0).element, modifiedFullText);
-                    for (int idx = 1; idx < runInfos.size(); idx++) {
-                        runInfos.get(idx).element.setTextContent("");
-                    }
-                } else {
-                    runInfos.get(0).element.setTextContent(modifiedFullText);
-                    for (int idx = 1; idx < runInfos.size(); idx++) {
-                        runInfos.get(idx).element.setTextContent("");
-                    }
-                }
-            }
+            texto.aplicarCambios(document, ultimoValor);
         }
     }
 }
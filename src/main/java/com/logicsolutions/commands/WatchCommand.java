@@ -0,0 +1,115 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.batch.BatchExecutor;
+import com.logicsolutions.batch.HotFolderWatcher;
+import com.logicsolutions.batch.MetricsServer;
+import com.logicsolutions.util.ResultCache;
+
+import java.nio.file.Paths;
+
+/**
+ * Comando para renderizar documentos desde una carpeta vigilada.
+ * - Procesa cada archivo .job en cuanto aparece (sin esperar a un cron)
+ * - Renderiza en paralelo con la misma semántica que los comandos individuales
+ * - Escribe cada .docx de forma atómica y mueve el trabajo a hecho/ o fallido/
+ */
+public class WatchCommand {
+
+    public void execute(String[] args) {
+        if (args.length < 1) {
+            printUsage();
+            return;
+        }
+
+        String carpeta = args[0];
+        int hilos = Runtime.getRuntime().availableProcessors();
+        long memoriaBytes = Runtime.getRuntime().maxMemory() / 4 * 3;
+        String carpetaCache = null;
+        String direccionMetricas = null;
+        boolean silencioso = false;
+
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--hilos":
+                        hilos = Integer.parseInt(args[++i]);
+                        break;
+                    case "--memoria-mb":
+                        memoriaBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+                        break;
+                    case "--cache":
+                        carpetaCache = args[++i];
+                        break;
+                    case "--metricas":
+                    case "--metrics":
+                        direccionMetricas = args[++i];
+                        break;
+                    case "--silencioso":
+                        silencioso = true;
+                        break;
+                    default:
+                        System.err.println("Opción desconocida: " + args[i]);
+                        printUsage();
+                        return;
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Opciones inválidas: " + e.getMessage());
+            printUsage();
+            return;
+        }
+
+        System.out.println("========================================");
+        System.out.println("COMANDO: watch");
+        System.out.println("Carpeta vigilada: " + carpeta);
+        System.out.println("Hilos: " + hilos);
+        System.out.println("Presupuesto de memoria: " + (memoriaBytes / (1024 * 1024)) + " MB");
+        if (carpetaCache != null) {
+            System.out.println("Caché de resultados: " + carpetaCache);
+        }
+        System.out.println("Ctrl+C para detener.");
+        System.out.println("========================================");
+
+        try (BatchExecutor executor = new BatchExecutor(hilos, memoriaBytes);
+             MetricsServer metricas = direccionMetricas != null
+                     ? MetricsServer.iniciar(direccionMetricas, executor) : null) {
+            if (metricas != null) {
+                System.out.println("Métricas: http://" + metricas.getDireccion().getHostString() + ":"
+                        + metricas.getDireccion().getPort() + "/metrics (salud en /health/live y /health/ready)");
+            }
+            if (carpetaCache != null) {
+                executor.usarCache(ResultCache.abrir(Paths.get(carpetaCache)));
+            }
+            executor.usarSalidaSilenciosa(silencioso);
+            HotFolderWatcher watcher = new HotFolderWatcher(Paths.get(carpeta), executor);
+            Thread principal = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    watcher.detener();
+                    principal.join();
+                } catch (Exception e) {
+                    // La JVM ya se está cerrando
+                }
+            }));
+            watcher.vigilar();
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void printUsage() {
+        System.out.println("Uso: watch <carpeta> [--hilos N] [--memoria-mb MB] [--cache carpeta] [--metricas [host:]puerto]");
+        System.out.println("             [--silencioso]");
+        System.out.println("Ejemplo: watch /srv/docx/entrada --hilos 8");
+        System.out.println();
+        System.out.println("Cada archivo *.job contiene una o más líneas con el formato del comando 'lote':");
+        System.out.println("  id  comando  origen  destino  [tag1  valor1 ...]   (separados por tabulador)");
+        System.out.println("Escriba el archivo con otra extensión y renómbrelo a .job cuando esté completo.");
+        System.out.println();
+        System.out.println("Con --metricas 9100 se exponen en http://127.0.0.1:9100/metrics (formato Prometheus),");
+        System.out.println("/health/live y /health/ready (503 mientras la cola de trabajos está llena).");
+        System.out.println();
+        System.out.println("Con --silencioso solo se informan los trabajos recibidos y completados, no cada reemplazo.");
+    }
+}
@@ -0,0 +1,95 @@
+package com.logicsolutions.util;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Argumentos comunes de los comandos de reemplazo:
+ * {@code <origen> <destino> [--tags-file <ruta>] [--cache <carpeta>] [<tag1> <valor1> ...]}.
+ * <p>
+ * Las opciones pueden ir en cualquier posición. Los tags del archivo se cargan primero
+ * y los pares de la línea de comandos los sobrescriben.
+ */
+public class ArgumentosComando {
+
+    public static final String OPCION_TAGS_FILE = "--tags-file";
+    public static final String OPCION_CACHE = "--cache";
+
+    private final String origen;
+    private final String destino;
+    private final Map<String, String> reemplazos;
+    private final Map<String, String> opciones;
+
+    private ArgumentosComando(String origen, String destino, Map<String, String> reemplazos,
+                              Map<String, String> opciones) {
+        this.origen = origen;
+        this.destino = destino;
+        this.reemplazos = reemplazos;
+        this.opciones = opciones;
+    }
+
+    /**
+     * @param opcionesExtra opciones con valor propias del comando (p. ej. "--baja-memoria")
+     * @throws IllegalArgumentException si los argumentos no tienen la forma esperada
+     */
+    public static ArgumentosComando parsear(String[] args, String... opcionesExtra) throws IOException {
+        Set<String> permitidas = new HashSet<>(Arrays.asList(opcionesExtra));
+        permitidas.add(OPCION_TAGS_FILE);
+        permitidas.add(OPCION_CACHE);
+
+        Map<String, String> opciones = new HashMap<>();
+        List<String> posicionales = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (permitidas.contains(args[i])) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Falta el valor de la opción " + args[i]);
+                }
+                opciones.put(args[i], args[++i]);
+            } else {
+                posicionales.add(args[i]);
+            }
+        }
+
+        if (posicionales.size() < 2 || (posicionales.size() - 2) % 2 != 0) {
+            throw new IllegalArgumentException("Se esperaba <origen> <destino> y pares <tag> <valor>");
+        }
+
+        Map<String, String> reemplazos = new LinkedHashMap<>();
+        String tagsFile = opciones.get(OPCION_TAGS_FILE);
+        if (tagsFile != null) {
+            reemplazos.putAll(TagMapLoader.cargar(Paths.get(tagsFile)));
+        }
+        for (int i = 2; i < posicionales.size(); i += 2) {
+            reemplazos.put(posicionales.get(i), posicionales.get(i + 1));
+        }
+        if (reemplazos.isEmpty()) {
+            throw new IllegalArgumentException("No se indicó ningún reemplazo");
+        }
+
+        return new ArgumentosComando(posicionales.get(0), posicionales.get(1), reemplazos, opciones);
+    }
+
+    public String getOrigen() {
+        return origen;
+    }
+
+    public String getDestino() {
+        return destino;
+    }
+
+    public Map<String, String> getReemplazos() {
+        return reemplazos;
+    }
+
+    public String getOpcion(String nombre) {
+        return opciones.get(nombre);
+    }
+}
@@ -0,0 +1,47 @@
+package com.logicsolutions.util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+
+/**
+ * Salida informativa de un renderizado: partes procesadas, tags reemplazados, aciertos de caché.
+ * <p>
+ * Los comandos de un solo documento la muestran en System.out. El lote, el modo watch y el
+ * renderizado reactivo pueden silenciarla por renderizado con {@link #ejecutarCon}: el silencio
+ * es del hilo que renderiza, así que no oculta la salida del resto del proceso ni la de otros
+ * renderizados. Los hilos auxiliares de un renderizado lo heredan con el mismo método.
+ */
+public final class Consola {
+
+    private static final PrintStream NULA = new PrintStream(OutputStream.nullOutputStream());
+
+    private static final ThreadLocal<Boolean> SILENCIADA = ThreadLocal.withInitial(() -> false);
+
+    private Consola() {
+    }
+
+    /**
+     * Flujo para los mensajes del renderizado en curso en el hilo
+     */
+    public static PrintStream out() {
+        return SILENCIADA.get() ? NULA : System.out;
+    }
+
+    public static boolean isSilenciada() {
+        return SILENCIADA.get();
+    }
+
+    /**
+     * Ejecuta la tarea con la salida silenciada o no, y restaura la del hilo al terminar
+     */
+    public static <T> T ejecutarCon(boolean silenciada, Callable<T> tarea) throws Exception {
+        boolean anterior = SILENCIADA.get();
+        SILENCIADA.set(silenciada);
+        try {
+            return tarea.call();
+        } finally {
+            SILENCIADA.set(anterior);
+        }
+    }
+}
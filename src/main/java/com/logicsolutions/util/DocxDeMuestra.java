@@ -0,0 +1,123 @@
+package com.logicsolutions.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Genera documentos .docx sintéticos para entrenamiento de CDS, benchmarks y pruebas.
+ * Cada párrafo incluye tags simples, tags fragmentados entre runs y saltos; el documento
+ * trae además un cuadro de texto (Choice/Fallback), encabezado y pie con tags.
+ * La salida es determinista (fechas de entrada fijas).
+ */
+public final class DocxDeMuestra {
+
+    private static final long FECHA_FIJA = 315532800000L; // 1980-01-01, mínimo del formato ZIP
+
+    private static final String NS = "xmlns:w=\"" + DocxUtils.WORD_NS + "\""
+            + " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\""
+            + " xmlns:mc=\"http://schemas.openxmlformats.org/markup-compatibility/2006\""
+            + " xmlns:wps=\"http://schemas.microsoft.com/office/word/2010/wordprocessingShape\""
+            + " xmlns:v=\"urn:schemas-microsoft-com:vml\"";
+
+    private static final String DECLARACION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+
+    private DocxDeMuestra() {
+    }
+
+    /**
+     * Reemplazos que cubren todos los tags del documento de muestra
+     */
+    public static Map<String, String> reemplazosDeMuestra() {
+        Map<String, String> reemplazos = new LinkedHashMap<>();
+        reemplazos.put("<<NOMBRE>>", "Juan Pérez");
+        reemplazos.put("<<DIRECCION>>", "Calle 1 #2-3||BR||Bogotá");
+        reemplazos.put("<<FECHA>>", "1 de enero de 2024");
+        reemplazos.put("<<TITULO>>", "Carta de prueba");
+        reemplazos.put("<<PIE>>", "Confidencial");
+        return reemplazos;
+    }
+
+    /**
+     * Escribe un documento con el número de párrafos indicado. El flujo no se cierra.
+     */
+    public static void generar(OutputStream output, int parrafos) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(DocxUtils.nonClosing(output))) {
+            escribir(zip, "[Content_Types].xml", contentTypes());
+            escribir(zip, "_rels/.rels", DECLARACION
+                    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"word/document.xml\"/>"
+                    + "</Relationships>");
+            escribir(zip, "word/_rels/document.xml.rels", DECLARACION
+                    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/header\" Target=\"header1.xml\"/>"
+                    + "<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/footer\" Target=\"footer1.xml\"/>"
+                    + "</Relationships>");
+            escribir(zip, "word/document.xml", documento(parrafos));
+            escribir(zip, "word/header1.xml", DECLARACION + "<w:hdr " + NS + ">"
+                    + parrafo("<w:r><w:t>&lt;&lt;TITULO&gt;&gt;</w:t></w:r>") + "</w:hdr>");
+            escribir(zip, "word/footer1.xml", DECLARACION + "<w:ftr " + NS + ">"
+                    + parrafo("<w:r><w:t>&lt;&lt;PIE&gt;&gt;</w:t></w:r>") + "</w:ftr>");
+        }
+    }
+
+    private static String documento(int parrafos) {
+        StringBuilder sb = new StringBuilder(DECLARACION);
+        sb.append("<w:document ").append(NS).append("><w:body>");
+        for (int i = 0; i < parrafos; i++) {
+            switch (i % 4) {
+                case 0:
+                    sb.append(parrafo("<w:r><w:t xml:space=\"preserve\">Estimado &lt;&lt;NOMBRE&gt;&gt;, </w:t></w:r>"
+                            + "<w:r><w:t>párrafo " + i + ".</w:t></w:r>"));
+                    break;
+                case 1:
+                    // Tag fragmentado entre runs con formato distinto
+                    sb.append(parrafo("<w:r><w:rPr><w:b/></w:rPr><w:t xml:space=\"preserve\">Dirección: &lt;&lt;DIREC</w:t></w:r>"
+                            + "<w:r><w:t>CION&gt;&gt;</w:t></w:r><w:r><w:rPr><w:i/></w:rPr><w:t xml:space=\"preserve\"> fin</w:t></w:r>"));
+                    break;
+                case 2:
+                    sb.append(parrafo("<w:r><w:t>Fecha: &lt;&lt;FECHA&gt;&gt;</w:t></w:r>"));
+                    break;
+                default:
+                    sb.append(parrafo("<w:r><w:t>Texto sin etiquetas para el párrafo " + i + ".</w:t></w:r>"));
+            }
+        }
+        sb.append(parrafo("<w:r><mc:AlternateContent><mc:Choice Requires=\"wps\"><w:drawing><wps:txbx><w:txbxContent>"
+                + parrafo("<w:r><w:t>Caja &lt;&lt;NOMBRE&gt;&gt;</w:t></w:r>")
+                + "</w:txbxContent></wps:txbx></w:drawing></mc:Choice><mc:Fallback><w:pict><v:textbox><w:txbxContent>"
+                + parrafo("<w:r><w:t>Caja &lt;&lt;NOMBRE&gt;&gt;</w:t></w:r>")
+                + "</w:txbxContent></v:textbox></w:pict></mc:Fallback></mc:AlternateContent></w:r>"));
+        sb.append("<w:sectPr><w:headerReference w:type=\"default\" r:id=\"rId1\"/>"
+                + "<w:footerReference w:type=\"default\" r:id=\"rId2\"/></w:sectPr>");
+        sb.append("</w:body></w:document>");
+        return sb.toString();
+    }
+
+    private static String parrafo(String runs) {
+        return "<w:p>" + runs + "</w:p>";
+    }
+
+    private static String contentTypes() {
+        String prefijo = "application/vnd.openxmlformats-officedocument.wordprocessingml.";
+        return DECLARACION
+                + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Override PartName=\"/word/document.xml\" ContentType=\"" + prefijo + "document.main+xml\"/>"
+                + "<Override PartName=\"/word/header1.xml\" ContentType=\"" + prefijo + "header+xml\"/>"
+                + "<Override PartName=\"/word/footer1.xml\" ContentType=\"" + prefijo + "footer+xml\"/>"
+                + "</Types>";
+    }
+
+    private static void escribir(ZipOutputStream zip, String nombre, String contenido) throws IOException {
+        ZipEntry entry = new ZipEntry(nombre);
+        entry.setTime(FECHA_FIJA);
+        zip.putNextEntry(entry);
+        zip.write(contenido.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+}
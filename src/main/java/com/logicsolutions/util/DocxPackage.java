@@ -0,0 +1,253 @@
+package com.logicsolutions.util;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * Modelo de las partes de un .docx, construido a partir de sus relaciones.
+ * <p>
+ * Lee una sola vez {@code [Content_Types].xml}, {@code _rels/.rels} y las relaciones del
+ * documento principal, y clasifica cada parte referenciada (encabezados, pies, notas,
+ * comentarios, glosario). Así los comandos no dependen de nombres fijos como
+ * {@code word/header1.xml} y van directamente a las partes que necesitan. Si el paquete
+ * no tiene relaciones legibles se clasifica por nombre, como antes.
+ */
+public class DocxPackage {
+
+    public enum TipoParte {
+        PRINCIPAL, ENCABEZADO, PIE, NOTAS_AL_PIE, NOTAS_FINALES, COMENTARIOS, GLOSARIO;
+
+        /**
+         * Partes cuyo texto forma parte del documento impreso y admiten reemplazo de tags
+         */
+        public boolean admiteReemplazos() {
+            return this != COMENTARIOS && this != GLOSARIO;
+        }
+    }
+
+    private static final String CONTENT_TYPES = "[Content_Types].xml";
+    private static final String RELS_RAIZ = "_rels/.rels";
+    private static final String PRINCIPAL_POR_DEFECTO = "word/document.xml";
+    private static final String SUFIJO_PRINCIPAL = ".main+xml";
+
+    private static final Map<String, TipoParte> TIPOS_RELACION = new HashMap<>();
+
+    static {
+        TIPOS_RELACION.put("header", TipoParte.ENCABEZADO);
+        TIPOS_RELACION.put("footer", TipoParte.PIE);
+        TIPOS_RELACION.put("footnotes", TipoParte.NOTAS_AL_PIE);
+        TIPOS_RELACION.put("endnotes", TipoParte.NOTAS_FINALES);
+        TIPOS_RELACION.put("comments", TipoParte.COMENTARIOS);
+        TIPOS_RELACION.put("glossaryDocument", TipoParte.GLOSARIO);
+    }
+
+    private final String principal;
+    private final Map<String, TipoParte> partes;
+    private final Map<String, String> tiposContenido;
+
+    private DocxPackage(String principal, Map<String, TipoParte> partes, Map<String, String> tiposContenido) {
+        this.principal = principal;
+        this.partes = Collections.unmodifiableMap(partes);
+        this.tiposContenido = tiposContenido;
+    }
+
+    /**
+     * @param builder el del renderizado que lee el paquete; no se crea otro por documento
+     */
+    public static DocxPackage leer(MappedZip zip, DocumentBuilder builder) throws Exception {
+        Map<String, String> tiposContenido = new HashMap<>();
+        Document contentTypes = parsear(zip, CONTENT_TYPES, builder);
+        if (contentTypes != null) {
+            NodeList overrides = contentTypes.getElementsByTagNameNS("*", "Override");
+            for (int i = 0; i < overrides.getLength(); i++) {
+                Element override = (Element) overrides.item(i);
+                tiposContenido.put(sinBarraInicial(override.getAttribute("PartName")), override.getAttribute("ContentType"));
+            }
+        }
+
+        String principal = null;
+        for (Element rel : relaciones(zip, RELS_RAIZ, builder)) {
+            if (tipoRelacion(rel).equals("officeDocument")) {
+                principal = resolver("", rel.getAttribute("Target"));
+                break;
+            }
+        }
+        if (principal == null || zip.getEntry(principal) == null) {
+            principal = tiposContenido.entrySet().stream()
+                    .filter(e -> e.getValue().endsWith(SUFIJO_PRINCIPAL))
+                    .map(Map.Entry::getKey)
+                    .findFirst().orElse(PRINCIPAL_POR_DEFECTO);
+        }
+
+        Map<String, TipoParte> partes = new LinkedHashMap<>();
+        partes.put(principal, TipoParte.PRINCIPAL);
+
+        List<Element> relacionesPrincipal = relaciones(zip, rutaRelaciones(principal), builder);
+        if (relacionesPrincipal.isEmpty()) {
+            clasificarPorNombre(zip, partes);
+        }
+        String carpeta = principal.substring(0, principal.lastIndexOf('/') + 1);
+        for (Element rel : relacionesPrincipal) {
+            TipoParte tipo = TIPOS_RELACION.get(tipoRelacion(rel));
+            if (tipo != null && !"External".equals(rel.getAttribute("TargetMode"))) {
+                String parte = resolver(carpeta, rel.getAttribute("Target"));
+                if (zip.getEntry(parte) != null) {
+                    partes.putIfAbsent(parte, tipo);
+                }
+            }
+        }
+
+        return new DocxPackage(principal, partes, tiposContenido);
+    }
+
+    public String getPrincipal() {
+        return principal;
+    }
+
+    /**
+     * @return tipo de la parte, o null si no es una parte de texto conocida
+     */
+    public TipoParte tipo(String nombre) {
+        return partes.get(nombre);
+    }
+
+    public List<String> partes(TipoParte tipo) {
+        List<String> resultado = new ArrayList<>();
+        partes.forEach((nombre, t) -> {
+            if (t == tipo) {
+                resultado.add(nombre);
+            }
+        });
+        return resultado;
+    }
+
+    /**
+     * Todas las partes clasificadas, empezando por la principal
+     */
+    public Map<String, TipoParte> getPartes() {
+        return partes;
+    }
+
+    public String getTipoContenido(String nombre) {
+        return tiposContenido.get(nombre);
+    }
+
+    private static void clasificarPorNombre(MappedZip zip, Map<String, TipoParte> partes) {
+        var entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            String nombre = entries.nextElement().getName();
+            if (DocxUtils.isHeaderXml(nombre)) {
+                partes.put(nombre, TipoParte.ENCABEZADO);
+            } else if (DocxUtils.isFooterXml(nombre)) {
+                partes.put(nombre, TipoParte.PIE);
+            }
+        }
+    }
+
+    private static List<Element> relaciones(MappedZip zip, String ruta, DocumentBuilder builder) throws Exception {
+        List<Element> resultado = new ArrayList<>();
+        Document rels = parsear(zip, ruta, builder);
+        if (rels != null) {
+            NodeList nodos = rels.getElementsByTagNameNS("*", "Relationship");
+            for (int i = 0; i < nodos.getLength(); i++) {
+                resultado.add((Element) nodos.item(i));
+            }
+        }
+        return resultado;
+    }
+
+    private static Document parsear(MappedZip zip, String ruta, DocumentBuilder builder) throws Exception {
+        ZipEntry entry = zip.getEntry(ruta);
+        if (entry == null) {
+            return null;
+        }
+        return DocxUtils.parse(builder, new ByteArrayInputStream(zip.leer(entry)));
+    }
+
+    /**
+     * Último segmento del tipo de relación, p. ej. "header" en .../relationships/header
+     */
+    private static String tipoRelacion(Element rel) {
+        String tipo = rel.getAttribute("Type");
+        return tipo.substring(tipo.lastIndexOf('/') + 1);
+    }
+
+    private static String rutaRelaciones(String parte) {
+        int barra = parte.lastIndexOf('/');
+        return parte.substring(0, barra + 1) + "_rels/" + parte.substring(barra + 1) + ".rels";
+    }
+
+    /**
+     * Resuelve un Target relativo a la carpeta de la parte de origen (o absoluto desde la raíz).
+     * <p>
+     * Se resuelve uniendo segmentos y no con {@link java.net.URI}, que rechaza los Target con
+     * espacios, corchetes o un % suelto que otros generadores de .docx sí escriben.
+     */
+    static String resolver(String carpeta, String target) {
+        String ruta = target.startsWith("/") ? target : carpeta + target;
+        int fin = ruta.length();
+        for (char c : new char[]{'#', '?'}) {
+            int posicion = ruta.indexOf(c);
+            if (posicion >= 0 && posicion < fin) {
+                fin = posicion;
+            }
+        }
+        Deque<String> segmentos = new ArrayDeque<>();
+        for (String segmento : ruta.substring(0, fin).split("/")) {
+            if (segmento.equals("..")) {
+                segmentos.pollLast();
+            } else if (!segmento.isEmpty() && !segmento.equals(".")) {
+                segmentos.addLast(segmento);
+            }
+        }
+        return decodificar(String.join("/", segmentos));
+    }
+
+    /**
+     * Decodifica las secuencias %XX como UTF-8; un % que no va seguido de dos dígitos
+     * hexadecimales se deja tal cual
+     */
+    private static String decodificar(String ruta) {
+        if (ruta.indexOf('%') < 0) {
+            return ruta;
+        }
+        StringBuilder resultado = new StringBuilder(ruta.length());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < ruta.length()) {
+            int alto = i + 2 < ruta.length() && ruta.charAt(i) == '%' ? Character.digit(ruta.charAt(i + 1), 16) : -1;
+            int bajo = alto >= 0 ? Character.digit(ruta.charAt(i + 2), 16) : -1;
+            if (bajo >= 0) {
+                bytes.write(alto * 16 + bajo);
+                i += 3;
+                continue;
+            }
+            if (bytes.size() > 0) {
+                resultado.append(bytes.toString(StandardCharsets.UTF_8));
+                bytes.reset();
+            }
+            resultado.append(ruta.charAt(i++));
+        }
+        resultado.append(bytes.toString(StandardCharsets.UTF_8));
+        return resultado.toString();
+    }
+
+    private static String sinBarraInicial(String ruta) {
+        return ruta.startsWith("/") ? ruta.substring(1) : ruta;
+    }
+}
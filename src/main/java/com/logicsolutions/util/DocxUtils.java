@@ -4,6 +4,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXParseException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -11,14 +12,20 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 public class DocxUtils {
@@ -28,6 +35,12 @@ public class DocxUtils {
     public static DocumentBuilder createDocumentBuilder() throws Exception {
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         factory.setNamespaceAware(true);
+        // Las partes de Word nunca traen DOCTYPE: rechazarlo evita expansiones de entidades
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        int profundidad = LimitesEntrada.porDefecto().getProfundidadXml();
+        if (profundidad > 0) {
+            factory.setAttribute(LimitesEntrada.PROPIEDAD_PROFUNDIDAD, String.valueOf(profundidad));
+        }
         return factory.newDocumentBuilder();
     }
 
@@ -41,24 +54,92 @@ public class DocxUtils {
         return transformer;
     }
 
+    /**
+     * Parsea una parte XML y registra el tiempo en {@link Metricas}
+     *
+     * @throws LimiteExcedidoException si la parte supera un límite de procesamiento del parser
+     */
+    public static Document parse(DocumentBuilder builder, InputStream in) throws Exception {
+        long inicio = System.nanoTime();
+        Document doc;
+        try {
+            doc = builder.parse(in);
+        } catch (SAXParseException e) {
+            LimiteExcedidoException limite = LimiteExcedidoException.deParser(e);
+            throw limite != null ? limite : e;
+        }
+        Metricas.global().registrarParseo(System.nanoTime() - inicio);
+        return doc;
+    }
+
     public static byte[] documentToBytes(Document doc, Transformer transformer) throws Exception {
+        long inicio = System.nanoTime();
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        transformer.transform(new DOMSource(doc), new StreamResult(baos));
+        transformer.transform(new DOMSource(doc), new StreamResult(PlazoRender.vigilar(baos)));
         byte[] result = baos.toByteArray();
         baos.close();
+        Metricas.global().registrarSerializacion(System.nanoTime() - inicio);
         return result;
     }
 
-    public static void copyEntry(ZipFile zipFile, ZipEntry entry, ZipOutputStream zipOut) throws Exception {
+    public static void copyEntry(MappedZip zipFile, ZipEntry entry, ZipOutputStream zipOut) throws Exception {
         zipOut.putNextEntry(new ZipEntry(entry.getName()));
-        try (InputStream is = zipFile.getInputStream(entry)) {
-            byte[] buffer = new byte[4096];
-            int len;
-            while ((len = is.read(buffer)) > 0) {
-                zipOut.write(buffer, 0, len);
+        zipFile.copiar(entry, zipOut);
+        zipOut.closeEntry();
+    }
+
+    public static byte[] readEntry(MappedZip zipFile, ZipEntry entry) throws Exception {
+        return zipFile.leer(entry);
+    }
+
+    /**
+     * Envuelve un flujo para que cerrar el ZipOutputStream no cierre el flujo del llamador.
+     * Cada escritura comprueba el {@link PlazoRender} del hilo.
+     */
+    public static OutputStream nonClosing(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                PlazoRender.verificar();
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
             }
+        };
+    }
+
+    /**
+     * Generación de un documento sobre un flujo de salida, para {@link #escribirArchivo}
+     */
+    public interface Escritura {
+        void escribir(OutputStream out) throws Exception;
+    }
+
+    /**
+     * Escribe un documento en su destino a través de un temporal de la misma carpeta que se
+     * renombra al terminar, como hace el lote. Si la generación falla (por ejemplo, por un
+     * {@link LimiteExcedidoException}) se borran el temporal y el destino: no queda un .docx
+     * truncado que pase por el resultado de esta ejecución.
+     */
+    public static void escribirArchivo(String destino, Escritura escritura) throws Exception {
+        Path ruta = Paths.get(destino).toAbsolutePath();
+        // No se usa createTempFile: crearía el archivo con permisos 600 en lugar de los de la umask
+        Path temporal = ruta.resolveSibling("." + ruta.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(temporal, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 64 * 1024)) {
+                escritura.escribir(out);
+            }
+            Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            Files.deleteIfExists(ruta);
+            throw e;
+        } finally {
+            Files.deleteIfExists(temporal);
         }
-        zipOut.closeEntry();
     }
 
     public static boolean isDocumentXml(String name) {
@@ -90,15 +171,27 @@ public class DocxUtils {
      * Limpia el atributo "ignorar" de todos los elementos w:t
      */
     public static void limpiarMarcas(Document doc) {
-        NodeList nodosTexto = doc.getElementsByTagName("w:t");
-        for (int i = 0; i < nodosTexto.getLength(); i++) {
-            Element element = (Element) nodosTexto.item(i);
+        for (Element element : elementos(doc, "w:t")) {
             if (element.hasAttribute("ignorar")) {
                 element.removeAttribute("ignorar");
             }
         }
     }
 
+    /**
+     * Copia de getElementsByTagName para recorrer mientras se modifica el documento.
+     * La NodeList de Xerces es "viva": cada cambio invalida su caché y item(i) vuelve
+     * a recorrer el árbol desde el principio, lo que hace cuadrático el bucle.
+     */
+    public static List<Element> elementos(Document doc, String tagName) {
+        NodeList nodos = doc.getElementsByTagName(tagName);
+        List<Element> elementos = new ArrayList<>(nodos.getLength());
+        for (int i = 0; i < nodos.getLength(); i++) {
+            elementos.add((Element) nodos.item(i));
+        }
+        return elementos;
+    }
+
     /**
      * Busca nodos recursivamente por nombre de tag
      */
@@ -126,30 +219,60 @@ public class DocxUtils {
         while (parent != null && !parent.getNodeName().equals("w:p")) {
             parent = parent.getParentNode();
         }
-        if (parent != null && parent.getNodeType() == Node.ELEMENT_NODE) {
-            NodeList pPrList = ((Element) parent).getElementsByTagName("w:pPr");
-            if (pPrList.getLength() > 0) {
-                Element pPr = (Element) pPrList.item(0);
-                NodeList pStyleList = pPr.getElementsByTagName("w:pStyle");
-                if (pStyleList.getLength() > 0) {
-                    Element pStyle = (Element) pStyleList.item(0);
-                    String styleId = pStyle.getAttribute("w:val");
-                    if (styleId != null && (styleId.startsWith("TOC") ||
-                            styleId.startsWith("Toc") ||
-                            styleId.contains("TableofContents") ||
-                            styleId.contains("ndice"))) {
-                        return true;
-                    }
-                }
+        return parent != null && parent.getNodeType() == Node.ELEMENT_NODE && esParrafoTOC((Element) parent);
+    }
+
+    /**
+     * Verifica si el primer w:pPr del párrafo tiene un estilo de tabla de contenidos
+     */
+    public static boolean esParrafoTOC(Element parrafo) {
+        Element pPr = primerDescendiente(parrafo, "w:pPr");
+        if (pPr != null) {
+            Element pStyle = primerDescendiente(pPr, "w:pStyle");
+            if (pStyle != null) {
+                String styleId = pStyle.getAttribute("w:val");
+                return styleId != null && (styleId.startsWith("TOC") ||
+                        styleId.startsWith("Toc") ||
+                        styleId.contains("TableofContents") ||
+                        styleId.contains("ndice"));
             }
         }
         return false;
     }
 
+    /**
+     * Primer descendiente con el nombre indicado en orden de documento; equivale a
+     * getElementsByTagName(tagName).item(0) sin crear la NodeList ni recorrer el resto
+     */
+    public static Element primerDescendiente(Node raiz, String tagName) {
+        for (Node hijo = raiz.getFirstChild(); hijo != null; hijo = hijo.getNextSibling()) {
+            if (hijo.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            if (tagName.equals(hijo.getNodeName())) {
+                return (Element) hijo;
+            }
+            Element encontrado = primerDescendiente(hijo, tagName);
+            if (encontrado != null) {
+                return encontrado;
+            }
+        }
+        return null;
+    }
+
     /**
      * Inserta texto con saltos de línea (||BR|| -> w:br)
      */
     public static void insertarTextoConSaltos(Document document, Element elementoTexto, String texto) {
+        insertarTextoConSaltos(document, elementoTexto, new ValorReemplazo(texto));
+    }
+
+    /**
+     * Inserta un valor ya compilado: cada línea adicional va en un run nuevo con el salto
+     * y el texto. El formato (w:rPr) del run original se busca una vez y cada run nuevo
+     * recibe su propia copia.
+     */
+    public static void insertarTextoConSaltos(Document document, Element elementoTexto, ValorReemplazo valor) {
         // Buscar el w:r padre (puede no ser el padre directo)
         Node runNode = elementoTexto.getParentNode();
         while (runNode != null && !runNode.getNodeName().equals("w:r")) {
@@ -158,8 +281,8 @@ public class DocxUtils {
 
         if (runNode == null) {
             // No se encontró w:r, intentar crear estructura básica
-            System.out.println("  ADVERTENCIA: No se encontró w:r padre, insertando texto sin formato de salto");
-            elementoTexto.setTextContent(texto.replace("||BR||", "\n"));
+            Consola.out().println("  ADVERTENCIA: No se encontró w:r padre, insertando texto sin formato de salto");
+            elementoTexto.setTextContent(valor.getTexto().replace(ValorReemplazo.SALTO, "\n"));
             return;
         }
 
@@ -167,77 +290,42 @@ public class DocxUtils {
         Node parentOfRun = run.getParentNode();
 
         if (parentOfRun == null) {
-            elementoTexto.setTextContent(texto.replace("||BR||", "\n"));
+            elementoTexto.setTextContent(valor.getTexto().replace(ValorReemplazo.SALTO, "\n"));
             return;
         }
 
-        String[] lineas = texto.split("\\|\\|BR\\|\\|", -1);
-
-        if (lineas.length <= 1) {
-            elementoTexto.setTextContent(texto);
+        if (!valor.tieneSaltos()) {
+            elementoTexto.setTextContent(valor.getTexto());
             return;
         }
 
-        System.out.println("  Insertando " + (lineas.length - 1) + " saltos de línea");
+        int lineas = valor.getNumeroLineas();
+        Consola.out().println("  Insertando " + (lineas - 1) + " saltos de línea");
 
         // Obtener formato original
-        Element rPrOriginal = null;
-        NodeList rPrList = run.getElementsByTagName("w:rPr");
-        if (rPrList.getLength() > 0) {
-            rPrOriginal = (Element) rPrList.item(0);
-        }
+        Element rPrOriginal = primerDescendiente(run, "w:rPr");
 
         // Primera línea en el elemento original
-        elementoTexto.setTextContent(lineas[0]);
+        elementoTexto.setTextContent(valor.getLinea(0));
 
-        Node insertAfter = run;
-        for (int i = 1; i < lineas.length; i++) {
-            // Crear run con salto de línea
-            Element nuevoRunBr = document.createElementNS(WORD_NS, "w:r");
+        Node siguiente = run.getNextSibling();
+        for (int i = 1; i < lineas; i++) {
+            // Run con el salto y el texto (incluso si está vacío, para mantener estructura)
+            Element nuevoRun = document.createElementNS(WORD_NS, "w:r");
             if (rPrOriginal != null) {
-                nuevoRunBr.appendChild(rPrOriginal.cloneNode(true));
+                nuevoRun.appendChild(rPrOriginal.cloneNode(true));
             }
-            Element br = document.createElementNS(WORD_NS, "w:br");
-            nuevoRunBr.appendChild(br);
+            nuevoRun.appendChild(document.createElementNS(WORD_NS, "w:br"));
 
-            if (insertAfter.getNextSibling() != null) {
-                parentOfRun.insertBefore(nuevoRunBr, insertAfter.getNextSibling());
-            } else {
-                parentOfRun.appendChild(nuevoRunBr);
-            }
-            insertAfter = nuevoRunBr;
-
-            // Crear run con texto (incluso si está vacío, para mantener estructura)
-            Element nuevoRunTexto = document.createElementNS(WORD_NS, "w:r");
-            if (rPrOriginal != null) {
-                nuevoRunTexto.appendChild(rPrOriginal.cloneNode(true));
-            }
             Element nuevoT = document.createElementNS(WORD_NS, "w:t");
-            if (lineas[i].startsWith(" ") || lineas[i].endsWith(" ") || lineas[i].isEmpty()) {
+            if (valor.preservarEspacios(i)) {
                 nuevoT.setAttribute("xml:space", "preserve");
             }
-            nuevoT.setTextContent(lineas[i]);
-            nuevoRunTexto.appendChild(nuevoT);
-
-            if (insertAfter.getNextSibling() != null) {
-                parentOfRun.insertBefore(nuevoRunTexto, insertAfter.getNextSibling());
-            } else {
-                parentOfRun.appendChild(nuevoRunTexto);
-            }
-            insertAfter = nuevoRunTexto;
-        }
-    }
-
-    /**
-     * Clase auxiliar para almacenar info de runs
-     */
-    public static class RunInfo {
-        public Element element;
-        public String text;
+            nuevoT.setTextContent(valor.getLinea(i));
+            nuevoRun.appendChild(nuevoT);
 
-        public RunInfo(Element element, String text) {
-            this.element = element;
-            this.text = text;
+            // insertBefore con null equivale a appendChild
+            parentOfRun.insertBefore(nuevoRun, siguiente);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package com.logicsolutions.util;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores de reemplazos por tag y por parte, seguros para varios hilos.
+ * <p>
+ * Cada contador es un {@link LongAdder}: los workers incrementan sin bloquearse entre sí
+ * y una instantánea se puede tomar en cualquier momento sin detenerlos. Las estadísticas
+ * de una parte, de un documento o de un lote se combinan con {@link #fusionar}.
+ */
+public class EstadisticasReemplazo {
+
+    private final ConcurrentHashMap<String, LongAdder> porTag = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> porParte = new ConcurrentHashMap<>();
+    private final LongAdder total = new LongAdder();
+
+    /**
+     * Registra un reemplazo del tag, sin asociarlo a ninguna parte
+     */
+    public void registrar(String tag) {
+        porTag.computeIfAbsent(tag, k -> new LongAdder()).increment();
+        total.increment();
+    }
+
+    public void registrar(String parte, String tag) {
+        registrar(tag);
+        porParte.computeIfAbsent(parte, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Suma los reemplazos de {@code deParte} atribuyéndolos a la parte indicada
+     */
+    public void fusionar(String parte, EstadisticasReemplazo deParte) {
+        long suma = 0;
+        for (Map.Entry<String, LongAdder> entry : deParte.porTag.entrySet()) {
+            long n = entry.getValue().sum();
+            porTag.computeIfAbsent(entry.getKey(), k -> new LongAdder()).add(n);
+            suma += n;
+        }
+        if (suma > 0) {
+            porParte.computeIfAbsent(parte, k -> new LongAdder()).add(suma);
+            total.add(suma);
+        }
+    }
+
+    /**
+     * Suma todos los contadores de otra instancia (p. ej. la de un documento al total del lote)
+     */
+    public void fusionar(EstadisticasReemplazo otra) {
+        otra.porTag.forEach((tag, n) -> porTag.computeIfAbsent(tag, k -> new LongAdder()).add(n.sum()));
+        otra.porParte.forEach((parte, n) -> porParte.computeIfAbsent(parte, k -> new LongAdder()).add(n.sum()));
+        total.add(otra.total.sum());
+    }
+
+    public Map<String, Long> getPorTag() {
+        return instantanea(porTag);
+    }
+
+    public Map<String, Long> getPorParte() {
+        return instantanea(porParte);
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getReemplazos(String tag) {
+        LongAdder n = porTag.get(tag);
+        return n != null ? n.sum() : 0;
+    }
+
+    /**
+     * Tags solicitados que no se encontraron en ninguna parte
+     */
+    public List<String> faltantes(Collection<String> tagsSolicitados) {
+        List<String> resultado = new ArrayList<>();
+        for (String tag : tagsSolicitados) {
+            if (getReemplazos(tag) == 0) {
+                resultado.add(tag);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Resumen para consola: reemplazos por tag y por parte
+     */
+    public void imprimirResumen(PrintStream out) {
+        out.println("\nPor tag:");
+        getPorTag().forEach((tag, n) -> out.println("  - \"" + tag + "\": " + n + " reemplazos"));
+
+        out.println("\nPor archivo:");
+        getPorParte().forEach((parte, n) -> out.println("  - " + parte + ": " + n + " reemplazos"));
+
+        out.println("\nTotal general: " + getTotal() + " reemplazos");
+    }
+
+    public void imprimirFaltantes(PrintStream out, Collection<String> tagsSolicitados) {
+        List<String> faltantes = faltantes(tagsSolicitados);
+        if (!faltantes.isEmpty()) {
+            out.println("\nTags sin coincidencias (" + faltantes.size() + "):");
+            faltantes.forEach(tag -> out.println("  - \"" + tag + "\""));
+        }
+    }
+
+    private static Map<String, Long> instantanea(Map<String, LongAdder> contadores) {
+        Map<String, Long> resultado = new TreeMap<>();
+        contadores.forEach((clave, n) -> resultado.put(clave, n.sum()));
+        return resultado;
+    }
+}
@@ -0,0 +1,80 @@
+package com.logicsolutions.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * Hashes de contenido usados como claves de caché (partes, plantillas, mapas de reemplazo)
+ */
+public final class Hashing {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Hashing() {
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    public static String sha256Hex(byte[] datos) {
+        return toHex(sha256().digest(datos));
+    }
+
+    /**
+     * Hash del contenido de un archivo, leído por bloques
+     */
+    public static String sha256Hex(Path archivo) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(archivo)) {
+            byte[] buffer = new byte[64 * 1024];
+            int leidos;
+            while ((leidos = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, leidos);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hash canónico de un mapa de reemplazos. Respeta el orden de iteración, ya que
+     * los reemplazos se aplican secuencialmente y el orden puede cambiar el resultado.
+     */
+    public static String hashReemplazos(Map<String, String> reemplazos) {
+        MessageDigest digest = sha256();
+        for (Map.Entry<String, String> entry : reemplazos.entrySet()) {
+            actualizar(digest, entry.getKey());
+            actualizar(digest, entry.getValue());
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Añade una cadena precedida de su longitud, para que ("ab","c") y ("a","bc") no colisionen
+     */
+    public static void actualizar(MessageDigest digest, String valor) {
+        byte[] bytes = valor.getBytes(StandardCharsets.UTF_8);
+        int n = bytes.length;
+        digest.update(new byte[]{(byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n});
+        digest.update(bytes);
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
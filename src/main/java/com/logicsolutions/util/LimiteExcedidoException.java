@@ -0,0 +1,40 @@
+package com.logicsolutions.util;
+
+/**
+ * La entrada superó alguno de los {@link LimitesEntrada}: tamaño o relación de compresión de
+ * una entrada del ZIP, número de elementos, anidamiento o plazo del documento.
+ * <p>
+ * Es el único tipo con el que se rechaza un documento por sus límites, lo lancen
+ * {@link MappedZip}, {@link PlazoRender} o los parsers XML. Es no comprobada para poder
+ * lanzarse desde los bucles de reemplazo, y quien atrapa errores de una parte para seguir
+ * con las demás debe relanzarla: un documento rechazado no puede darse por bueno.
+ */
+public class LimiteExcedidoException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Prefijo de los mensajes con los que el JDK rechaza un límite de procesamiento XML */
+    private static final String PREFIJO_JAXP = "JAXP0001";
+
+    public LimiteExcedidoException(String mensaje) {
+        super(mensaje);
+    }
+
+    public LimiteExcedidoException(String mensaje, Throwable causa) {
+        super(mensaje, causa);
+    }
+
+    /**
+     * Traduce el error de un parser XML si se debe a un límite de procesamiento del JDK
+     * (por ejemplo {@code jdk.xml.maxElementDepth})
+     *
+     * @return la excepción equivalente, o null si el error no se debe a un límite
+     */
+    static LimiteExcedidoException deParser(Exception e) {
+        String mensaje = e.getMessage();
+        if (mensaje == null || !mensaje.contains(PREFIJO_JAXP)) {
+            return null;
+        }
+        return new LimiteExcedidoException("Límite excedido: " + mensaje.substring(mensaje.indexOf(PREFIJO_JAXP)), e);
+    }
+}
@@ -0,0 +1,91 @@
+package com.logicsolutions.util;
+
+/**
+ * Límites que protegen a los workers de entradas malformadas o maliciosas (bombas de
+ * descompresión, anidamiento patológico, documentos que no terminan nunca).
+ * <p>
+ * Se aplican mientras se lee: {@link MappedZip} corta la descompresión en cuanto una
+ * entrada o el documento superan su límite, y los parsers rechazan el anidamiento excesivo.
+ * El plazo por documento cubre además el reemplazo y la escritura ({@link PlazoRender}).
+ * Los valores por defecto se pueden cambiar con propiedades del sistema
+ * ({@code -Ddocxtool.limite.entrada.mb=...}); 0 desactiva un límite.
+ */
+public final class LimitesEntrada {
+
+    /** Propiedad JAXP con la que los parsers DOM y StAX del JDK limitan el anidamiento */
+    static final String PROPIEDAD_PROFUNDIDAD = "jdk.xml.maxElementDepth";
+
+    /** Por debajo de este tamaño inflado no se comprueba la relación de compresión */
+    static final long MINIMO_PARA_RELACION = 1024 * 1024;
+
+    private static final LimitesEntrada POR_DEFECTO = new LimitesEntrada(
+            Long.getLong("docxtool.limite.entrada.mb", 512) * 1024 * 1024,
+            Long.getLong("docxtool.limite.total.mb", 2048) * 1024 * 1024,
+            Long.getLong("docxtool.limite.relacion", 500),
+            Integer.getInteger("docxtool.limite.profundidad", 1000),
+            Long.getLong("docxtool.limite.elementos", 50_000_000),
+            Long.getLong("docxtool.limite.segundos", 600) * 1000);
+
+    private final long bytesPorEntrada;
+    private final long bytesTotales;
+    private final long relacionCompresion;
+    private final int profundidadXml;
+    private final long elementosXml;
+    private final long milisegundos;
+
+    public LimitesEntrada(long bytesPorEntrada, long bytesTotales, long relacionCompresion,
+                          int profundidadXml, long elementosXml, long milisegundos) {
+        this.bytesPorEntrada = bytesPorEntrada;
+        this.bytesTotales = bytesTotales;
+        this.relacionCompresion = relacionCompresion;
+        this.profundidadXml = profundidadXml;
+        this.elementosXml = elementosXml;
+        this.milisegundos = milisegundos;
+    }
+
+    public static LimitesEntrada porDefecto() {
+        return POR_DEFECTO;
+    }
+
+    /**
+     * Bytes inflados máximos de una entrada del ZIP
+     */
+    public long getBytesPorEntrada() {
+        return bytesPorEntrada;
+    }
+
+    /**
+     * Bytes inflados máximos de todas las entradas leídas de un documento
+     */
+    public long getBytesTotales() {
+        return bytesTotales;
+    }
+
+    /**
+     * Relación máxima entre tamaño inflado y comprimido de una entrada grande
+     */
+    public long getRelacionCompresion() {
+        return relacionCompresion;
+    }
+
+    /**
+     * Anidamiento máximo de elementos en una parte XML
+     */
+    public int getProfundidadXml() {
+        return profundidadXml;
+    }
+
+    /**
+     * Elementos XML máximos en todas las partes leídas de un documento
+     */
+    public long getElementosXml() {
+        return elementosXml;
+    }
+
+    /**
+     * Tiempo máximo de un renderizado, desde que se abre la plantilla hasta que se escribe el resultado
+     */
+    public long getMilisegundos() {
+        return milisegundos;
+    }
+}
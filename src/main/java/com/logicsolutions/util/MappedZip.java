@@ -0,0 +1,560 @@
+package com.logicsolutions.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Lector de ZIP sobre el archivo mapeado en memoria, con la misma forma que {@link java.util.zip.ZipFile}
+ * para lo que usan los comandos (entries, getEntry, getInputStream).
+ * <p>
+ * El directorio central se parsea una sola vez por plantilla y versión del archivo: {@link #abrir}
+ * comparte el mapeo y el directorio entre los renderizados concurrentes de la misma plantilla. Los
+ * datos de cada entrada son porciones del mapeo ({@link #datos}) y se inflan directamente desde
+ * ahí, sin copiarlos antes a un buffer intermedio.
+ * <p>
+ * Cada vista aplica los {@link LimitesEntrada} del documento mientras infla: tamaño por
+ * entrada y total, relación de compresión, número de elementos XML y tiempo desde que se
+ * abrió. Al superarse uno, la lectura falla en ese momento en lugar de seguir inflando.
+ * <p>
+ * Antes de reutilizar un mapeo se comprueban la fecha, el tamaño y el inodo del archivo y el CRC
+ * de su directorio central. Aun así, las plantillas deben reemplazarse con un archivo nuevo
+ * (copiar y renombrar), no sobrescribirse en el sitio: truncar un archivo mapeado provoca
+ * errores al leerlo.
+ */
+public final class MappedZip implements Closeable {
+
+    private static final int FIRMA_FIN_DIRECTORIO = 0x06054b50;
+    private static final int FIRMA_DIRECTORIO = 0x02014b50;
+    private static final int FIRMA_LOCAL = 0x04034b50;
+    private static final int TAMANO_FIN_DIRECTORIO = 22;
+    private static final int TAMANO_DIRECTORIO = 46;
+    private static final int TAMANO_LOCAL = 30;
+    private static final int BUFFER_COPIA = 64 * 1024;
+    private static final int PLANTILLAS_MAPEADAS = 64;
+
+    private static final Map<Path, Directorio> ABIERTOS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Directorio> eldest) {
+            // El mapeo se libera cuando ningún renderizado en curso lo referencia
+            return size() > PLANTILLAS_MAPEADAS;
+        }
+    };
+
+    // Mapeo que la etapa de lectura del lote entregó al hilo que renderiza
+    private static final ThreadLocal<Directorio> PRECARGADO = new ThreadLocal<>();
+
+    private final Directorio directorio;
+    private final LimitesEntrada limites;
+    private final long finPlazo;
+    // Plazo del hilo que inició esta vista; se termina al cerrarla
+    private PlazoRender plazo;
+    private long bytesInflados;
+    private long elementos;
+
+    private static final class Entrada {
+        final ZipEntry entry;
+        final int inicioDatos;
+
+        Entrada(ZipEntry entry, int inicioDatos) {
+            this.entry = entry;
+            this.inicioDatos = inicioDatos;
+        }
+    }
+
+    private MappedZip(Directorio directorio, LimitesEntrada limites) {
+        this.directorio = directorio;
+        this.limites = limites;
+        this.finPlazo = limites.getMilisegundos() > 0
+                ? System.nanoTime() + limites.getMilisegundos() * 1_000_000 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Abre la plantilla con los límites por defecto
+     */
+    public static MappedZip abrir(String ruta) throws IOException {
+        return abrir(ruta, LimitesEntrada.porDefecto());
+    }
+
+    /**
+     * Devuelve una vista del ZIP mapeado de la ruta. El mapeo y el directorio central se
+     * comparten mientras el archivo no cambie; cada vista lleva sus propios contadores para
+     * los límites, así que corresponde a un renderizado y no debe usarse desde varios hilos.
+     * Si el hilo no tiene un {@link PlazoRender} en curso, la vista lo inicia y lo termina al cerrarse.
+     */
+    public static MappedZip abrir(String ruta, LimitesEntrada limites) throws IOException {
+        MappedZip zip = new MappedZip(directorio(ruta), limites);
+        zip.plazo = PlazoRender.iniciar(limites.getMilisegundos());
+        return zip;
+    }
+
+    /**
+     * Identidad del contenido de la plantilla sin leerla entera: fecha, tamaño, inodo y CRC del
+     * directorio central, las mismas comprobaciones con las que se reutiliza un mapeo. Cambia si
+     * se reescribe el archivo en el mismo segundo y con el mismo tamaño o si se renombra otro
+     * sobre la ruta.
+     */
+    static String identidad(String ruta) throws IOException {
+        Directorio directorio = directorio(ruta);
+        return directorio.modificado.toMillis() + "/" + directorio.mapeo.capacity() + "/"
+                + directorio.claveArchivo + "/" + Long.toHexString(directorio.crcDirectorio);
+    }
+
+    private static Directorio directorio(String ruta) throws IOException {
+        Path path = Paths.get(ruta).toAbsolutePath().normalize();
+        BasicFileAttributes atributos = Files.readAttributes(path, BasicFileAttributes.class);
+        Directorio abierto = PRECARGADO.get();
+        if (abierto == null || !abierto.ruta.equals(path)) {
+            synchronized (ABIERTOS) {
+                abierto = ABIERTOS.get(path);
+            }
+        }
+        if (abierto != null && abierto.vigente(atributos)) {
+            return abierto;
+        }
+
+        Directorio nuevo = new Directorio(path, atributos, mapear(path, atributos.size()));
+        synchronized (ABIERTOS) {
+            ABIERTOS.put(path, nuevo);
+        }
+        return nuevo;
+    }
+
+    /**
+     * Mapea la plantilla, valida su directorio central y carga sus páginas en memoria para que
+     * el renderizado que la use después no espere al disco. Lo usa un hilo de lectura anticipada,
+     * que entrega el resultado al hilo de renderizado con {@link #usarPrecargado}.
+     */
+    public static MappedZip precargar(String ruta) throws IOException {
+        // Sin plazo: el hilo de lectura no renderiza
+        MappedZip zip = new MappedZip(directorio(ruta), LimitesEntrada.porDefecto());
+        zip.directorio.cargarPaginas();
+        return zip;
+    }
+
+    /**
+     * Las llamadas a {@link #abrir} de este hilo sobre la misma ruta usan el mapeo de
+     * {@code precargado} mientras el archivo no cambie, aunque ya haya salido de la caché
+     * compartida. Con null se deja de usar.
+     */
+    public static void usarPrecargado(MappedZip precargado) {
+        if (precargado == null) {
+            PRECARGADO.remove();
+        } else {
+            PRECARGADO.set(precargado.directorio);
+        }
+    }
+
+    private static ByteBuffer mapear(Path path, long tamano) throws IOException {
+        if (tamano > Integer.MAX_VALUE) {
+            throw new ZipException("Archivo demasiado grande para mapearlo: " + path);
+        }
+        try (FileChannel canal = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapeo = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+            return mapeo.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    public Enumeration<ZipEntry> entries() {
+        return Collections.enumeration(directorio.orden);
+    }
+
+    /**
+     * @return la entrada, o null si no existe
+     */
+    public ZipEntry getEntry(String nombre) {
+        Entrada entrada = directorio.entradas.get(nombre);
+        return entrada != null ? entrada.entry : null;
+    }
+
+    public int size() {
+        return directorio.entradas.size();
+    }
+
+    /**
+     * Datos de la entrada tal como están en el archivo (comprimidos si el método es DEFLATED),
+     * como porción de solo lectura del mapeo. No cuenta para los límites.
+     */
+    public ByteBuffer datos(ZipEntry entry) throws ZipException {
+        Entrada entrada = buscar(entry);
+        ByteBuffer porcion = directorio.mapeo.duplicate();
+        porcion.position(entrada.inicioDatos).limit(entrada.inicioDatos + (int) entrada.entry.getCompressedSize());
+        return porcion.slice().asReadOnlyBuffer();
+    }
+
+    public InputStream getInputStream(ZipEntry entry) throws IOException {
+        admitir(entry);
+        return new Lectura(entry, datos(entry));
+    }
+
+    /**
+     * Contenido completo de la entrada, inflado directamente en el arreglo resultante
+     */
+    public byte[] leer(ZipEntry entry) throws IOException {
+        admitir(entry);
+        if (entry.getSize() > Integer.MAX_VALUE - 8) {
+            throw new ZipException("Entrada demasiado grande: " + entry.getName());
+        }
+        byte[] contenido = new byte[(int) entry.getSize()];
+        try (Lectura in = new Lectura(entry, datos(entry))) {
+            if (in.readNBytes(contenido, 0, contenido.length) != contenido.length || in.read() != -1) {
+                throw new ZipException("Entrada truncada: " + entry.getName());
+            }
+        }
+        return contenido;
+    }
+
+    /**
+     * Copia el contenido inflado de la entrada al flujo con un único buffer intermedio
+     */
+    public void copiar(ZipEntry entry, OutputStream destino) throws IOException {
+        try (InputStream in = getInputStream(entry)) {
+            byte[] buffer = new byte[(int) Math.min(BUFFER_COPIA, Math.max(1, entry.getSize()))];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                destino.write(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * No libera el mapeo: es compartido y se descarta cuando ningún renderizado lo usa.
+     * Termina el plazo del hilo si lo inició esta vista.
+     */
+    @Override
+    public void close() {
+        if (plazo != null) {
+            plazo.terminar();
+            plazo = null;
+        }
+    }
+
+    private Entrada buscar(ZipEntry entry) throws ZipException {
+        Entrada entrada = directorio.entradas.get(entry.getName());
+        if (entrada == null) {
+            throw new ZipException("Entrada inexistente: " + entry.getName());
+        }
+        return entrada;
+    }
+
+    /**
+     * Rechaza la entrada antes de inflarla si su tamaño declarado ya supera algún límite.
+     * Mientras se infla, {@link Lectura} no deja pasar más bytes de los declarados.
+     */
+    private void admitir(ZipEntry entry) {
+        verificarPlazo();
+        long tamano = entry.getSize();
+        if (limites.getBytesPorEntrada() > 0 && tamano > limites.getBytesPorEntrada()) {
+            throw new LimiteExcedidoException("Límite excedido: " + entry.getName() + " ocupa " + megas(tamano)
+                    + " MB descomprimida (máximo " + megas(limites.getBytesPorEntrada()) + " MB)");
+        }
+        long relacion = tamano / Math.max(1, entry.getCompressedSize());
+        if (limites.getRelacionCompresion() > 0 && tamano >= LimitesEntrada.MINIMO_PARA_RELACION
+                && relacion > limites.getRelacionCompresion()) {
+            throw new LimiteExcedidoException("Límite excedido: " + entry.getName() + " tiene una relación de compresión de "
+                    + relacion + ":1 (máximo " + limites.getRelacionCompresion() + ":1)");
+        }
+        if (limites.getBytesTotales() > 0 && bytesInflados + tamano > limites.getBytesTotales()) {
+            throw new LimiteExcedidoException("Límite excedido: el documento supera " + megas(limites.getBytesTotales())
+                    + " MB descomprimidos");
+        }
+    }
+
+    private void verificarPlazo() {
+        if (System.nanoTime() > finPlazo) {
+            throw new LimiteExcedidoException("Límite excedido: el documento lleva más de "
+                    + limites.getMilisegundos() / 1000 + " s en proceso");
+        }
+    }
+
+    private static long megas(long bytes) {
+        return (bytes + 1024 * 1024 - 1) / (1024 * 1024);
+    }
+
+    private static boolean esXml(String nombre) {
+        return nombre.endsWith(".xml") || nombre.endsWith(".rels");
+    }
+
+    /**
+     * Lee una entrada desde la porción mapeada (el inflater lee del mapeo sin copia previa)
+     * y lleva las cuentas de los límites mientras se consume
+     */
+    private final class Lectura extends InputStream {
+        private final ZipEntry entry;
+        private final ByteBuffer datos;
+        private final Inflater inflater;
+        private final boolean xml;
+        private long producidos;
+        private boolean despuesDeMenor;
+        private boolean cerrado;
+
+        Lectura(ZipEntry entry, ByteBuffer datos) {
+            this.entry = entry;
+            this.datos = datos;
+            this.xml = esXml(entry.getName());
+            if (entry.getMethod() == ZipEntry.STORED) {
+                this.inflater = null;
+            } else {
+                this.inflater = new Inflater(true);
+                inflater.setInput(datos);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] uno = new byte[1];
+            return read(uno, 0, 1) == -1 ? -1 : uno[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (cerrado) {
+                throw new IOException("Flujo cerrado");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            verificarPlazo();
+            int n = inflater == null ? leerAlmacenado(b, off, len) : inflar(b, off, len);
+            if (n > 0) {
+                contar(b, off, n);
+            }
+            return n;
+        }
+
+        private int leerAlmacenado(byte[] b, int off, int len) {
+            if (!datos.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, datos.remaining());
+            datos.get(b, off, n);
+            return n;
+        }
+
+        private int inflar(byte[] b, int off, int len) throws IOException {
+            try {
+                int n;
+                while ((n = inflater.inflate(b, off, len)) == 0) {
+                    if (inflater.finished() || inflater.needsDictionary()) {
+                        return -1;
+                    }
+                    if (inflater.needsInput()) {
+                        throw new ZipException("Datos comprimidos truncados en " + entry.getName());
+                    }
+                }
+                return n;
+            } catch (DataFormatException e) {
+                throw new ZipException("Datos comprimidos inválidos en " + entry.getName() + ": " + e.getMessage());
+            }
+        }
+
+        private void contar(byte[] b, int off, int n) throws IOException {
+            producidos += n;
+            bytesInflados += n;
+            if (producidos > entry.getSize()) {
+                throw new ZipException("Entrada inválida: " + entry.getName()
+                        + " contiene más datos que su tamaño declarado");
+            }
+            if (!xml || limites.getElementosXml() <= 0) {
+                return;
+            }
+            // Cada etiqueta de inicio empieza con '<' seguido de un nombre; el texto lleva '<' escapado
+            long etiquetas = 0;
+            boolean anteriorMenor = despuesDeMenor;
+            for (int i = off; i < off + n; i++) {
+                byte c = b[i];
+                if (anteriorMenor && c != '/' && c != '?' && c != '!') {
+                    etiquetas++;
+                }
+                anteriorMenor = c == '<';
+            }
+            despuesDeMenor = anteriorMenor;
+            elementos += etiquetas;
+            if (elementos > limites.getElementosXml()) {
+                throw new LimiteExcedidoException("Límite excedido: el documento tiene más de "
+                        + limites.getElementosXml() + " elementos XML");
+            }
+        }
+
+        @Override
+        public int available() {
+            return inflater == null ? datos.remaining() : 0;
+        }
+
+        @Override
+        public void close() {
+            if (!cerrado) {
+                cerrado = true;
+                if (inflater != null) {
+                    inflater.end();
+                }
+            }
+        }
+    }
+
+    /**
+     * Mapeo y directorio central de una versión de la plantilla, compartidos por todas sus vistas
+     */
+    private static final class Directorio {
+        final Path ruta;
+        final FileTime modificado;
+        // Inodo o equivalente: distingue un archivo nuevo renombrado sobre la ruta
+        final Object claveArchivo;
+        final ByteBuffer mapeo;
+        final int inicioDirectorio;
+        final int finDirectorio;
+        final long crcDirectorio;
+        final Map<String, Entrada> entradas;
+        final List<ZipEntry> orden;
+        private volatile boolean paginasCargadas;
+
+        Directorio(Path ruta, BasicFileAttributes atributos, ByteBuffer mapeo) throws IOException {
+            this.ruta = ruta;
+            this.modificado = atributos.lastModifiedTime();
+            this.claveArchivo = atributos.fileKey();
+            this.mapeo = mapeo;
+            this.finDirectorio = buscarFinDirectorio();
+            this.inicioDirectorio = (int) Math.min(u32(finDirectorio + 16), finDirectorio);
+            this.crcDirectorio = calcularCrcDirectorio();
+            this.entradas = Collections.unmodifiableMap(leerDirectorio());
+            List<ZipEntry> lista = new ArrayList<>(entradas.size());
+            entradas.values().forEach(e -> lista.add(e.entry));
+            this.orden = Collections.unmodifiableList(lista);
+        }
+
+        /**
+         * true si el mapeo sigue correspondiendo al archivo de la ruta. Fecha, tamaño e inodo
+         * detectan un reemplazo por renombrado; el CRC del directorio central (que incluye el CRC
+         * de cada entrada) detecta una sobrescritura en el sitio con la misma fecha y tamaño,
+         * ya que el mapeo compartido refleja el contenido nuevo.
+         */
+        boolean vigente(BasicFileAttributes atributos) {
+            return modificado.equals(atributos.lastModifiedTime())
+                    && mapeo.capacity() == atributos.size()
+                    && Objects.equals(claveArchivo, atributos.fileKey())
+                    && crcDirectorio == calcularCrcDirectorio();
+        }
+
+        /**
+         * Lee todas las páginas del mapeo una vez; las plantillas compartidas por muchos
+         * trabajos no se recorren de nuevo en cada uno
+         */
+        void cargarPaginas() {
+            if (!paginasCargadas && mapeo instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) mapeo).load();
+                paginasCargadas = true;
+            }
+        }
+
+        private long calcularCrcDirectorio() {
+            CRC32 crc = new CRC32();
+            crc.update(mapeo.duplicate().limit(finDirectorio + TAMANO_FIN_DIRECTORIO).position(inicioDirectorio));
+            return crc.getValue();
+        }
+
+        private Map<String, Entrada> leerDirectorio() throws IOException {
+            int fin = finDirectorio;
+            int total = u16(fin + 10);
+            long tamanoDirectorio = u32(fin + 12);
+            long inicioDirectorio = u32(fin + 16);
+            if (total == 0xFFFF || inicioDirectorio == 0xFFFFFFFFL) {
+                throw new ZipException("ZIP64 no soportado: " + ruta);
+            }
+            if (inicioDirectorio + tamanoDirectorio > fin) {
+                throw new ZipException("Directorio central inválido: " + ruta);
+            }
+
+            Map<String, Entrada> resultado = new LinkedHashMap<>(total * 2);
+            int pos = (int) inicioDirectorio;
+            for (int i = 0; i < total; i++) {
+                if (pos + TAMANO_DIRECTORIO > fin || mapeo.getInt(pos) != FIRMA_DIRECTORIO) {
+                    throw new ZipException("Directorio central inválido: " + ruta);
+                }
+                int flags = u16(pos + 8);
+                int metodo = u16(pos + 10);
+                long crc = u32(pos + 16);
+                long comprimido = u32(pos + 20);
+                long tamano = u32(pos + 24);
+                int largoNombre = u16(pos + 28);
+                int largoExtra = u16(pos + 30);
+                int largoComentario = u16(pos + 32);
+                long local = u32(pos + 42);
+                String nombre = texto(pos + TAMANO_DIRECTORIO, largoNombre);
+                pos += TAMANO_DIRECTORIO + largoNombre + largoExtra + largoComentario;
+
+                if ((flags & 1) != 0) {
+                    throw new ZipException("Entrada cifrada no soportada: " + nombre);
+                }
+                if (metodo == ZipEntry.STORED && comprimido != tamano) {
+                    throw new ZipException("Entrada inválida: " + nombre);
+                }
+                if (metodo != ZipEntry.STORED && metodo != ZipEntry.DEFLATED) {
+                    throw new ZipException("Método de compresión no soportado (" + metodo + "): " + nombre);
+                }
+                if (local + TAMANO_LOCAL > fin || mapeo.getInt((int) local) != FIRMA_LOCAL) {
+                    throw new ZipException("Cabecera local inválida: " + nombre);
+                }
+                long inicioDatos = local + TAMANO_LOCAL + u16((int) local + 26) + u16((int) local + 28);
+                if (inicioDatos + comprimido > mapeo.capacity()) {
+                    throw new ZipException("Entrada truncada: " + nombre);
+                }
+
+                ZipEntry entry = new ZipEntry(nombre);
+                entry.setMethod(metodo);
+                entry.setCrc(crc);
+                entry.setSize(tamano);
+                entry.setCompressedSize(comprimido);
+                resultado.putIfAbsent(nombre, new Entrada(entry, (int) inicioDatos));
+            }
+            return resultado;
+        }
+
+        private int buscarFinDirectorio() throws ZipException {
+            int limite = Math.max(0, mapeo.capacity() - TAMANO_FIN_DIRECTORIO - 0xFFFF);
+            for (int pos = mapeo.capacity() - TAMANO_FIN_DIRECTORIO; pos >= limite; pos--) {
+                if (mapeo.getInt(pos) == FIRMA_FIN_DIRECTORIO) {
+                    return pos;
+                }
+            }
+            throw new ZipException("No es un archivo ZIP: " + ruta);
+        }
+
+        private int u16(int pos) {
+            return mapeo.getShort(pos) & 0xFFFF;
+        }
+
+        private long u32(int pos) {
+            return mapeo.getInt(pos) & 0xFFFFFFFFL;
+        }
+
+        private String texto(int pos, int largo) {
+            byte[] bytes = new byte[largo];
+            mapeo.duplicate().position(pos).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.logicsolutions.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas del proceso de renderizado en formato de texto de Prometheus.
+ * <p>
+ * Hay un único registro por JVM ({@link #global}). Los contadores son {@link LongAdder}:
+ * los workers registran sin bloquearse entre sí y la exposición solo los suma.
+ */
+public final class Metricas {
+
+    /** Límites superiores de los histogramas de tiempo, en segundos */
+    private static final double[] LIMITES_SEGUNDOS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    private static final Metricas GLOBAL = new Metricas();
+
+    private final ConcurrentHashMap<String, LongAdder> documentos = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histograma> renderizado = new ConcurrentHashMap<>();
+    private final Histograma parseo = new Histograma();
+    private final Histograma serializacion = new Histograma();
+    private final LongAdder bytesEntrada = new LongAdder();
+    private final LongAdder bytesSalida = new LongAdder();
+    private final LongAdder tagsReemplazados = new LongAdder();
+    private final LongAdder tagsSinCoincidencia = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Histograma acumulado con límites fijos
+     */
+    private static final class Histograma {
+        final LongAdder[] cubetas = new LongAdder[LIMITES_SEGUNDOS.length];
+        final LongAdder cuenta = new LongAdder();
+        final DoubleAdder suma = new DoubleAdder();
+
+        Histograma() {
+            for (int i = 0; i < cubetas.length; i++) {
+                cubetas[i] = new LongAdder();
+            }
+        }
+
+        void observar(long nanos) {
+            double segundos = nanos / 1e9;
+            for (int i = 0; i < LIMITES_SEGUNDOS.length; i++) {
+                if (segundos <= LIMITES_SEGUNDOS[i]) {
+                    cubetas[i].increment();
+                    break;
+                }
+            }
+            cuenta.increment();
+            suma.add(segundos);
+        }
+    }
+
+    private Metricas() {
+    }
+
+    public static Metricas global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Un documento terminado (o fallido) por un comando
+     */
+    public void registrarDocumento(String comando, boolean correcto, long nanos) {
+        documentos.computeIfAbsent(comando + (correcto ? "\tok" : "\terror"), k -> new LongAdder()).increment();
+        if (correcto) {
+            renderizado.computeIfAbsent(comando, k -> new Histograma()).observar(nanos);
+        }
+    }
+
+    public void registrarBytes(long entrada, long salida) {
+        bytesEntrada.add(entrada);
+        bytesSalida.add(salida);
+    }
+
+    /**
+     * Reemplazos de un documento y tags pedidos que no aparecieron en él
+     */
+    public void registrarReemplazos(EstadisticasReemplazo delDocumento, Collection<String> tagsPedidos) {
+        tagsReemplazados.add(delDocumento.getTotal());
+        tagsSinCoincidencia.add(delDocumento.faltantes(tagsPedidos).size());
+    }
+
+    public void registrarParseo(long nanos) {
+        parseo.observar(nanos);
+    }
+
+    public void registrarSerializacion(long nanos) {
+        serializacion.observar(nanos);
+    }
+
+    /**
+     * @param nombre "resultados" o "partes"
+     */
+    public void registrarCache(String nombre, boolean acierto) {
+        cache.computeIfAbsent(nombre + (acierto ? "\thit" : "\tmiss"), k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Escribe todas las métricas del registro y de la JVM
+     */
+    public void escribir(StringBuilder sb) {
+        encabezado(sb, "docxtool_documents_total", "counter", "Documentos procesados por comando y resultado");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(documentos).entrySet()) {
+            String[] partes = e.getKey().split("\t");
+            sb.append("docxtool_documents_total{command=\"").append(partes[0]).append("\",result=\"")
+                    .append(partes[1]).append("\"} ").append(e.getValue().sum()).append('\n');
+        }
+
+        encabezado(sb, "docxtool_render_seconds", "histogram", "Tiempo de renderizado de un documento por comando");
+        for (Map.Entry<String, Histograma> e : new TreeMap<>(renderizado).entrySet()) {
+            histograma(sb, "docxtool_render_seconds", "command=\"" + e.getKey() + "\"", e.getValue());
+        }
+        encabezado(sb, "docxtool_parse_seconds", "histogram", "Tiempo de parseo de cada parte XML");
+        histograma(sb, "docxtool_parse_seconds", null, parseo);
+        encabezado(sb, "docxtool_serialize_seconds", "histogram", "Tiempo de serialización de cada parte XML");
+        histograma(sb, "docxtool_serialize_seconds", null, serializacion);
+
+        contador(sb, "docxtool_input_bytes_total", "Bytes de plantillas leídas", bytesEntrada.sum());
+        contador(sb, "docxtool_output_bytes_total", "Bytes de documentos generados", bytesSalida.sum());
+        contador(sb, "docxtool_tags_replaced_total", "Reemplazos de tags realizados", tagsReemplazados.sum());
+        contador(sb, "docxtool_tags_unmatched_total", "Tags pedidos sin coincidencias en su documento",
+                tagsSinCoincidencia.sum());
+
+        encabezado(sb, "docxtool_cache_requests_total", "counter", "Consultas a las cachés por resultado");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(cache).entrySet()) {
+            String[] partes = e.getKey().split("\t");
+            sb.append("docxtool_cache_requests_total{cache=\"").append(partes[0]).append("\",result=\"")
+                    .append(partes[1]).append("\"} ").append(e.getValue().sum()).append('\n');
+        }
+        encabezado(sb, "docxtool_cache_hit_ratio", "gauge", "Proporción de aciertos de cada caché");
+        for (String nombre : new String[]{"resultados", "partes"}) {
+            long aciertos = suma(cache, nombre + "\thit");
+            long total = aciertos + suma(cache, nombre + "\tmiss");
+            if (total > 0) {
+                sb.append("docxtool_cache_hit_ratio{cache=\"").append(nombre).append("\"} ")
+                        .append(decimal((double) aciertos / total)).append('\n');
+            }
+        }
+
+        escribirJvm(sb);
+    }
+
+    private static void escribirJvm(StringBuilder sb) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        indicador(sb, "jvm_memory_heap_used_bytes", "Heap en uso", heap.getUsed());
+        indicador(sb, "jvm_memory_heap_committed_bytes", "Heap reservado", heap.getCommitted());
+        indicador(sb, "jvm_memory_heap_max_bytes", "Heap máximo", heap.getMax());
+
+        encabezado(sb, "jvm_gc_collections_total", "counter", "Recolecciones por colector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sb.append("jvm_gc_collections_total{gc=\"").append(gc.getName()).append("\"} ")
+                    .append(Math.max(0, gc.getCollectionCount())).append('\n');
+        }
+        encabezado(sb, "jvm_gc_seconds_total", "counter", "Tiempo acumulado de recolección por colector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sb.append("jvm_gc_seconds_total{gc=\"").append(gc.getName()).append("\"} ")
+                    .append(decimal(Math.max(0, gc.getCollectionTime()) / 1000.0)).append('\n');
+        }
+        indicador(sb, "jvm_threads_live", "Hilos vivos", ManagementFactory.getThreadMXBean().getThreadCount());
+        indicador(sb, "process_uptime_seconds", "Segundos desde el arranque de la JVM",
+                ManagementFactory.getRuntimeMXBean().getUptime() / 1000);
+    }
+
+    private static long suma(Map<String, LongAdder> mapa, String clave) {
+        LongAdder valor = mapa.get(clave);
+        return valor != null ? valor.sum() : 0;
+    }
+
+    private static void histograma(StringBuilder sb, String nombre, String etiquetas, Histograma h) {
+        String prefijo = etiquetas != null ? etiquetas + "," : "";
+        long acumulado = 0;
+        for (int i = 0; i < LIMITES_SEGUNDOS.length; i++) {
+            acumulado += h.cubetas[i].sum();
+            sb.append(nombre).append("_bucket{").append(prefijo).append("le=\"").append(decimal(LIMITES_SEGUNDOS[i]))
+                    .append("\"} ").append(acumulado).append('\n');
+        }
+        long cuenta = h.cuenta.sum();
+        sb.append(nombre).append("_bucket{").append(prefijo).append("le=\"+Inf\"} ").append(cuenta).append('\n');
+        String sufijo = etiquetas != null ? "{" + etiquetas + "}" : "";
+        sb.append(nombre).append("_sum").append(sufijo).append(' ').append(decimal(h.suma.sum())).append('\n');
+        sb.append(nombre).append("_count").append(sufijo).append(' ').append(cuenta).append('\n');
+    }
+
+    /**
+     * Métrica de valor instantáneo (gauge) con su encabezado
+     */
+    public static void indicador(StringBuilder sb, String nombre, String ayuda, long valor) {
+        encabezado(sb, nombre, "gauge", ayuda);
+        sb.append(nombre).append(' ').append(valor).append('\n');
+    }
+
+    private static void contador(StringBuilder sb, String nombre, String ayuda, long valor) {
+        encabezado(sb, nombre, "counter", ayuda);
+        sb.append(nombre).append(' ').append(valor).append('\n');
+    }
+
+    private static void encabezado(StringBuilder sb, String nombre, String tipo, String ayuda) {
+        sb.append("# HELP ").append(nombre).append(' ').append(ayuda).append('\n');
+        sb.append("# TYPE ").append(nombre).append(' ').append(tipo).append('\n');
+    }
+
+    private static String decimal(double valor) {
+        return String.format(Locale.ROOT, "%.6g", valor).replaceFirst("\\.?0+(e|$)", "$1");
+    }
+}
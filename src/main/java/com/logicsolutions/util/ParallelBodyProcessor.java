@@ -0,0 +1,211 @@
+package com.logicsolutions.util;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Procesa en paralelo el cuerpo (w:body) de una parte grande.
+ * <p>
+ * Los bloques de primer nivel del cuerpo (párrafos, tablas, sectPr) se reparten en tramos
+ * contiguos. Cada tramo se mueve a un documento propio envuelto en un elemento con las
+ * declaraciones de espacios de nombres del cuerpo, igual que los fragmentos de
+ * {@link StreamingXmlProcessor}, así los hilos nunca comparten un DOM. Cada tramo se procesa
+ * y se serializa en su hilo; al final la serialización del documento sin cuerpo se completa
+ * con los tramos en orden.
+ * <p>
+ * Las marcas que dependen de más de un párrafo (p. ej. los w:t de cuadros de texto) deben
+ * ponerse sobre el documento completo antes de llamar a {@link #procesar}: viajan con
+ * cada tramo.
+
+ * <p>
+ * Los tramos se ejecutan en un pool que no es de esta clase: quien reparte varios documentos
+ * crea uno con {@link #crearPool} y lo comparte entre todos, en lugar de abrir hilos nuevos
+ * por cada parte.
+ */
+public class ParallelBodyProcessor {
+
+    /** Tramos por hilo: varios por hilo reparten mejor los bloques de tamaño desigual */
+    private static final int TRAMOS_POR_HILO = 4;
+    private static final String RAIZ_TRAMO = "fragmento";
+    private static final String MARCA_CUERPO = "docx-tool-cuerpo";
+
+    /**
+     * Recibe cada tramo envuelto en un documento propio; se llama desde varios hilos a la vez
+     */
+    public interface ProcesadorTramo {
+        void procesar(Document tramo) throws Exception;
+    }
+
+    private final ExecutorService pool;
+    private final int hilos;
+
+    /**
+     * @param pool  donde se ejecutan los tramos; lo cierra quien lo creó
+     * @param hilos hilos del pool, para decidir en cuántos tramos se reparte el cuerpo
+     */
+    public ParallelBodyProcessor(ExecutorService pool, int hilos) {
+        if (hilos < 1) {
+            throw new IllegalArgumentException("El número de hilos debe ser mayor que cero");
+        }
+        this.pool = pool;
+        this.hilos = hilos;
+    }
+
+    /**
+     * Pool de hilos demonio con el tamaño indicado, para compartir entre los documentos
+     */
+    public static ExecutorService crearPool(int hilos) {
+        return Executors.newFixedThreadPool(hilos, crearFabricaHilos());
+    }
+
+    /**
+     * Procesa el cuerpo del documento por tramos y serializa la parte completa. El documento
+     * queda sin el contenido del cuerpo.
+     *
+     * @return la parte serializada, o null si no tiene cuerpo o tiene muy pocos bloques para
+     * repartir (en ese caso el documento no se modifica)
+     */
+    public byte[] procesar(Document doc, DocumentBuilder builder, Transformer transformer,
+                           ProcesadorTramo procesador) throws Exception {
+        Element cuerpo = DocxUtils.primerDescendiente(doc.getDocumentElement(), "w:body");
+        if (cuerpo == null) {
+            return null;
+        }
+        List<Node> bloques = new ArrayList<>();
+        for (Node n = cuerpo.getFirstChild(); n != null; n = n.getNextSibling()) {
+            bloques.add(n);
+        }
+        if (hilos == 1 || bloques.size() < hilos * 2) {
+            return null;
+        }
+        int numTramos = Math.min(bloques.size(), hilos * TRAMOS_POR_HILO);
+
+        // El DOM de origen solo se lee desde este hilo: Xerces expande los nodos de forma perezosa
+        Map<String, String> declaraciones = declaracionesEnAlcance(cuerpo);
+        List<Document> tramos = new ArrayList<>(numTramos);
+        for (int t = 0; t < numTramos; t++) {
+            int desde = (int) ((long) bloques.size() * t / numTramos);
+            int hasta = (int) ((long) bloques.size() * (t + 1) / numTramos);
+            Document tramo = builder.newDocument();
+            Element raiz = tramo.createElement(RAIZ_TRAMO);
+            declaraciones.forEach((nombre, uri) -> raiz.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, nombre, uri));
+            tramo.appendChild(raiz);
+            for (Node bloque : bloques.subList(desde, hasta)) {
+                // adoptNode mueve el bloque sin copiarlo y lo quita del cuerpo
+                raiz.appendChild(tramo.adoptNode(bloque));
+            }
+            tramos.add(tramo);
+        }
+        cuerpo.appendChild(doc.createProcessingInstruction(MARCA_CUERPO, ""));
+
+        // Los hilos de los tramos trabajan con el plazo y la salida del renderizado que los lanza
+        PlazoRender plazo = PlazoRender.actual();
+        boolean silenciada = Consola.isSilenciada();
+        List<Future<byte[]>> resultados = new ArrayList<>(numTramos);
+        try {
+            for (Document tramo : tramos) {
+                resultados.add(pool.submit(() -> PlazoRender.ejecutarCon(plazo, () -> Consola.ejecutarCon(silenciada, () -> {
+                    procesador.procesar(tramo);
+                    return serializarTramo(tramo);
+                }))));
+            }
+
+            String esqueleto = new String(DocxUtils.documentToBytes(doc, transformer), StandardCharsets.UTF_8);
+            int marca = esqueleto.indexOf("<?" + MARCA_CUERPO);
+            if (marca < 0) {
+                throw new IllegalStateException("No se encontró la marca del cuerpo al serializar");
+            }
+            int finMarca = esqueleto.indexOf("?>", marca) + 2;
+
+            ByteArrayOutputStream salida = new ByteArrayOutputStream(esqueleto.length() + 1024 * 1024);
+            salida.write(esqueleto.substring(0, marca).getBytes(StandardCharsets.UTF_8));
+            for (Future<byte[]> resultado : resultados) {
+                salida.write(esperar(resultado));
+            }
+            salida.write(esqueleto.substring(finMarca).getBytes(StandardCharsets.UTF_8));
+            return salida.toByteArray();
+        } finally {
+            // Si un tramo falló, los demás no deben seguir ocupando el pool compartido
+            for (Future<byte[]> resultado : resultados) {
+                resultado.cancel(true);
+            }
+        }
+    }
+
+    private static byte[] esperar(Future<byte[]> resultado) throws Exception {
+        try {
+            return resultado.get();
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof Exception) {
+                throw (Exception) causa;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Declaraciones xmlns del cuerpo y sus ancestros; la más cercana al cuerpo gana
+     */
+    private static Map<String, String> declaracionesEnAlcance(Element cuerpo) {
+        List<Element> cadena = new ArrayList<>();
+        for (Node n = cuerpo; n != null && n.getNodeType() == Node.ELEMENT_NODE; n = n.getParentNode()) {
+            cadena.add(0, (Element) n);
+        }
+        Map<String, String> declaraciones = new LinkedHashMap<>();
+        for (Element elemento : cadena) {
+            NamedNodeMap atributos = elemento.getAttributes();
+            for (int i = 0; i < atributos.getLength(); i++) {
+                Attr atributo = (Attr) atributos.item(i);
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(atributo.getNamespaceURI())) {
+                    declaraciones.put(atributo.getName(), atributo.getValue());
+                }
+            }
+        }
+        return declaraciones;
+    }
+
+    private static byte[] serializarTramo(Document tramo) throws Exception {
+        // Un Transformer por tramo: no se puede compartir entre hilos
+        Transformer transformer = DocxUtils.createTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        transformer.transform(new DOMSource(tramo), new StreamResult(PlazoRender.vigilar(baos)));
+        String resultado = baos.toString(StandardCharsets.UTF_8);
+
+        int inicio = resultado.indexOf('>') + 1;
+        int fin = resultado.lastIndexOf("</" + RAIZ_TRAMO + ">");
+        return fin < inicio ? new byte[0] : resultado.substring(inicio, fin).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ThreadFactory crearFabricaHilos() {
+        AtomicInteger contador = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "bloques-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
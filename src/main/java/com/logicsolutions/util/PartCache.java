@@ -0,0 +1,120 @@
+package com.logicsolutions.util;
+
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memoización de partes XML ya procesadas (encabezados, pies de página).
+ * <p>
+ * La clave combina el comando, el hash del contenido inflado de la parte y el hash del
+ * mapa de reemplazos. Las plantillas suelen traer header1..header6 idénticos, y los
+ * documentos de un lote comparten plantilla, así que cada parte distinta se procesa
+ * una sola vez por JVM. La caché es LRU y está acotada en bytes.
+ */
+public class PartCache {
+
+    /** Tamaño máximo por defecto de la caché compartida, configurable con -Ddocxtool.cache.partes.mb */
+    private static final long MAX_BYTES_DEFECTO =
+            Long.getLong("docxtool.cache.partes.mb", 64) * 1024 * 1024;
+
+    private static final PartCache COMPARTIDA = new PartCache(MAX_BYTES_DEFECTO);
+
+    /**
+     * Resultado de procesar una parte: bytes serializados, número de reemplazos hechos y
+     * reemplazos por tag (para contabilizarlos también cuando la parte sale de la caché)
+     */
+    public static class ParteProcesada {
+        private final byte[] bytes;
+        private final int reemplazos;
+        private final EstadisticasReemplazo estadisticas;
+
+        public ParteProcesada(byte[] bytes, int reemplazos, EstadisticasReemplazo estadisticas) {
+            this.bytes = bytes;
+            this.reemplazos = reemplazos;
+            this.estadisticas = estadisticas;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public int getReemplazos() {
+            return reemplazos;
+        }
+
+        public EstadisticasReemplazo getEstadisticas() {
+            return estadisticas;
+        }
+    }
+
+    /**
+     * Procesa una parte que no estaba en caché
+     */
+    public interface Procesador {
+        ParteProcesada procesar(byte[] original) throws Exception;
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, ParteProcesada> entradas = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytesActuales;
+
+    public PartCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Caché compartida por todos los comandos de la JVM (y por tanto por todo un lote)
+     */
+    public static PartCache compartida() {
+        return COMPARTIDA;
+    }
+
+    public static String clave(String comando, byte[] parte, String hashReemplazos) {
+        MessageDigest digest = Hashing.sha256();
+        Hashing.actualizar(digest, comando);
+        Hashing.actualizar(digest, hashReemplazos);
+        digest.update(parte);
+        return Hashing.toHex(digest.digest());
+    }
+
+    /**
+     * Devuelve el resultado memorizado para la parte o la procesa y lo guarda
+     */
+    public ParteProcesada procesar(String comando, byte[] original, String hashReemplazos,
+                                   Procesador procesador) throws Exception {
+        String clave = clave(comando, original, hashReemplazos);
+        ParteProcesada parte = obtener(clave);
+        Metricas.global().registrarCache("partes", parte != null);
+        if (parte != null) {
+            Consola.out().println("  Contenido idéntico a una parte ya procesada, se reutiliza el resultado");
+            return parte;
+        }
+        parte = procesador.procesar(original);
+        guardar(clave, parte);
+        return parte;
+    }
+
+    public synchronized ParteProcesada obtener(String clave) {
+        return entradas.get(clave);
+    }
+
+    public synchronized void guardar(String clave, ParteProcesada parte) {
+        long tamano = parte.getBytes().length;
+        if (tamano > maxBytes) {
+            return;
+        }
+        ParteProcesada anterior = entradas.put(clave, parte);
+        if (anterior != null) {
+            bytesActuales -= anterior.getBytes().length;
+        }
+        bytesActuales += tamano;
+
+        Iterator<Map.Entry<String, ParteProcesada>> it = entradas.entrySet().iterator();
+        while (bytesActuales > maxBytes && it.hasNext()) {
+            bytesActuales -= it.next().getValue().getBytes().length;
+            it.remove();
+        }
+    }
+}
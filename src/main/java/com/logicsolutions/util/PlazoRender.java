@@ -0,0 +1,114 @@
+package com.logicsolutions.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Plazo del renderizado en curso en el hilo ({@link LimitesEntrada#getMilisegundos}).
+ * <p>
+ * {@link MappedZip} comprueba el plazo en cada lectura de la plantilla, pero reemplazar y
+ * serializar no leen de ella: un párrafo enorme con miles de tags cuesta
+ * O(texto × tags) sin una sola lectura. Con este contexto también lo comprueban los bucles
+ * por párrafo de los comandos ({@link #verificar}) y los flujos de salida hacia el
+ * Transformer y el ZipOutputStream ({@link #vigilar}).
+ * <p>
+ * Lo inicia la vista de {@link MappedZip} que abre el renderizado y termina al cerrarla; los
+ * hilos auxiliares del mismo renderizado lo heredan con {@link #ejecutarCon}. Una interrupción
+ * del hilo también corta el renderizado en la siguiente comprobación, así el lote puede
+ * cancelar un trabajo aunque esté esperando.
+ */
+public final class PlazoRender {
+
+    private static final ThreadLocal<PlazoRender> ACTUAL = new ThreadLocal<>();
+
+    private final long milisegundos;
+    private final long finPlazo;
+
+    private PlazoRender(long milisegundos) {
+        this.milisegundos = milisegundos;
+        this.finPlazo = System.nanoTime() + milisegundos * 1_000_000;
+    }
+
+    /**
+     * Inicia el plazo del hilo si no hay uno en curso
+     *
+     * @return el plazo iniciado, que debe terminarse con {@link #terminar}; null si ya había
+     * uno (una vista anidada no lo reinicia) o si el límite está desactivado
+     */
+    static PlazoRender iniciar(long milisegundos) {
+        if (milisegundos <= 0 || ACTUAL.get() != null) {
+            return null;
+        }
+        PlazoRender plazo = new PlazoRender(milisegundos);
+        ACTUAL.set(plazo);
+        return plazo;
+    }
+
+    void terminar() {
+        if (ACTUAL.get() == this) {
+            ACTUAL.remove();
+        }
+    }
+
+    /**
+     * Plazo del hilo, o null sin renderizado en curso
+     */
+    public static PlazoRender actual() {
+        return ACTUAL.get();
+    }
+
+    /**
+     * Falla si el hilo fue interrumpido o si venció el plazo del renderizado en curso.
+     * Es barato: se puede llamar una vez por párrafo.
+     *
+     * @throws CancellationException si el hilo fue interrumpido
+     * @throws LimiteExcedidoException si venció el plazo
+     */
+    public static void verificar() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Renderizado interrumpido");
+        }
+        PlazoRender plazo = ACTUAL.get();
+        if (plazo != null && System.nanoTime() > plazo.finPlazo) {
+            throw new LimiteExcedidoException("Límite excedido: el documento lleva más de "
+                    + plazo.milisegundos / 1000 + " s en proceso");
+        }
+    }
+
+    /**
+     * Ejecuta la tarea con el plazo indicado, para los hilos auxiliares de un renderizado
+     */
+    public static <T> T ejecutarCon(PlazoRender plazo, Callable<T> tarea) throws Exception {
+        PlazoRender anterior = ACTUAL.get();
+        if (plazo == null) {
+            ACTUAL.remove();
+        } else {
+            ACTUAL.set(plazo);
+        }
+        try {
+            return tarea.call();
+        } finally {
+            if (anterior == null) {
+                ACTUAL.remove();
+            } else {
+                ACTUAL.set(anterior);
+            }
+        }
+    }
+
+    /**
+     * Envuelve un flujo de salida para comprobar el plazo en cada escritura en bloque
+     */
+    public static OutputStream vigilar(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                verificar();
+                out.write(b, off, len);
+            }
+        };
+    }
+}
@@ -0,0 +1,280 @@
+package com.logicsolutions.util;
+
+import com.logicsolutions.commands.DocxCommand;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caché de documentos ya renderizados, para reimpresiones, reintentos y descargas repetidas.
+ * <p>
+ * La clave combina el formato de la caché y la versión del programa, el hash del contenido
+ * de la plantilla, el comando y el hash canónico del mapa de reemplazos. Tiene dos niveles: memoria (LRU acotada en bytes) y disco
+ * (un archivo por resultado, acotado en tamaño total y desalojado por antigüedad de uso).
+ * Un acierto copia el .docx guardado a la salida sin ningún trabajo XML.
+ */
+public class ResultCache {
+
+    private static final long MAX_MEMORIA_DEFECTO =
+            Long.getLong("docxtool.cache.resultados.memoria.mb", 128) * 1024 * 1024;
+    private static final long MAX_DISCO_DEFECTO =
+            Long.getLong("docxtool.cache.resultados.disco.mb", 1024) * 1024 * 1024;
+
+    private static final Map<Path, ResultCache> ABIERTAS = new ConcurrentHashMap<>();
+
+    /**
+     * Formato de los resultados guardados. Se incrementa cuando un cambio del código altera la
+     * salida de algún comando, para que los resultados de versiones anteriores no se reutilicen.
+     */
+    private static final String FORMATO_CACHE = "2";
+
+    /** Hash de plantillas ya leídas en este proceso, invalidado por {@link MappedZip#identidad} */
+    private static final Map<Path, HashPlantilla> HASHES_PLANTILLA = new ConcurrentHashMap<>();
+
+    private static final class HashPlantilla {
+        final String identidad;
+        final String hash;
+
+        HashPlantilla(String identidad, String hash) {
+            this.identidad = identidad;
+            this.hash = hash;
+        }
+    }
+
+    private final Path carpeta;
+    private final long maxBytesMemoria;
+    private final long maxBytesDisco;
+    private final LinkedHashMap<String, byte[]> memoria = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytesMemoria;
+    private long bytesDisco;
+
+    public ResultCache(Path carpeta, long maxBytesMemoria, long maxBytesDisco) throws IOException {
+        this.carpeta = carpeta.toAbsolutePath();
+        this.maxBytesMemoria = maxBytesMemoria;
+        this.maxBytesDisco = maxBytesDisco;
+        Files.createDirectories(this.carpeta);
+        for (Path archivo : listarDisco()) {
+            bytesDisco += Files.size(archivo);
+        }
+    }
+
+    /**
+     * Devuelve la caché de la carpeta indicada, compartida por toda la JVM
+     */
+    public static ResultCache abrir(Path carpeta) throws IOException {
+        Path clave = carpeta.toAbsolutePath().normalize();
+        ResultCache cache = ABIERTAS.get(clave);
+        if (cache == null) {
+            synchronized (ABIERTAS) {
+                cache = ABIERTAS.get(clave);
+                if (cache == null) {
+                    cache = new ResultCache(clave, MAX_MEMORIA_DEFECTO, MAX_DISCO_DEFECTO);
+                    ABIERTAS.put(clave, cache);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Envuelve el comando para que consulte la caché antes de renderizar.
+     * Si {@code carpeta} es null devuelve el comando tal cual.
+     */
+    public static DocxCommand envolver(String nombreComando, DocxCommand comando, String carpeta) throws IOException {
+        if (carpeta == null) {
+            return comando;
+        }
+        return abrir(Path.of(carpeta)).envolver(nombreComando, comando);
+    }
+
+    public DocxCommand envolver(String nombreComando, DocxCommand comando) {
+        return new DocxCommand() {
+            private volatile boolean reutilizado;
+
+            @Override
+            public void render(String inputDocx, OutputStream output, Map<String, String> reemplazos) throws Exception {
+                String clave = clave(nombreComando, inputDocx, reemplazos);
+                reutilizado = escribirSiExiste(clave, output);
+                Metricas.global().registrarCache("resultados", reutilizado);
+                if (reutilizado) {
+                    Consola.out().println("Resultado obtenido de la caché (" + clave.substring(0, 12) + ")");
+                    return;
+                }
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                comando.render(inputDocx, buffer, reemplazos);
+                byte[] resultado = buffer.toByteArray();
+                output.write(resultado);
+                guardar(clave, resultado);
+            }
+
+            /**
+             * Un acierto no hace reemplazos, así que solo suman los documentos renderizados
+             */
+            @Override
+            public EstadisticasReemplazo getEstadisticas() {
+                return comando.getEstadisticas();
+            }
+
+            @Override
+            public boolean resultadoReutilizado() {
+                return reutilizado;
+            }
+        };
+    }
+
+    public String clave(String nombreComando, String inputDocx, Map<String, String> reemplazos) throws IOException {
+        MessageDigest digest = Hashing.sha256();
+        Hashing.actualizar(digest, FORMATO_CACHE);
+        Hashing.actualizar(digest, String.valueOf(ResultCache.class.getPackage().getImplementationVersion()));
+        Hashing.actualizar(digest, hashPlantilla(Path.of(inputDocx)));
+        Hashing.actualizar(digest, nombreComando);
+        Hashing.actualizar(digest, Hashing.hashReemplazos(reemplazos));
+        return Hashing.toHex(digest.digest());
+    }
+
+    /**
+     * Copia el resultado guardado a la salida
+     *
+     * @return false si no está en ninguno de los dos niveles
+     */
+    public boolean escribirSiExiste(String clave, OutputStream output) throws IOException {
+        byte[] enMemoria;
+        synchronized (this) {
+            enMemoria = memoria.get(clave);
+        }
+        if (enMemoria != null) {
+            output.write(enMemoria);
+            return true;
+        }
+
+        Path archivo = rutaDisco(clave);
+        try (InputStream in = Files.newInputStream(archivo)) {
+            in.transferTo(output);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        // Marca de uso para el desalojo por antigüedad
+        Files.setLastModifiedTime(archivo, FileTime.fromMillis(System.currentTimeMillis()));
+        return true;
+    }
+
+    public void guardar(String clave, byte[] resultado) throws IOException {
+        guardarEnMemoria(clave, resultado);
+
+        Path archivo = rutaDisco(clave);
+        if (resultado.length > maxBytesDisco || Files.exists(archivo)) {
+            return;
+        }
+        Files.createDirectories(archivo.getParent());
+        Path temporal = Files.createTempFile(archivo.getParent(), clave, ".tmp");
+        try {
+            Files.write(temporal, resultado);
+            Files.move(temporal, archivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+
+        boolean desalojar;
+        synchronized (this) {
+            bytesDisco += resultado.length;
+            desalojar = bytesDisco > maxBytesDisco;
+        }
+        if (desalojar) {
+            desalojarDisco();
+        }
+    }
+
+    private synchronized void guardarEnMemoria(String clave, byte[] resultado) {
+        if (resultado.length > maxBytesMemoria) {
+            return;
+        }
+        byte[] anterior = memoria.put(clave, resultado);
+        if (anterior != null) {
+            bytesMemoria -= anterior.length;
+        }
+        bytesMemoria += resultado.length;
+
+        Iterator<Map.Entry<String, byte[]>> it = memoria.entrySet().iterator();
+        while (bytesMemoria > maxBytesMemoria && it.hasNext()) {
+            bytesMemoria -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Borra los resultados usados hace más tiempo hasta volver a estar bajo el límite
+     */
+    private synchronized void desalojarDisco() throws IOException {
+        List<Path> archivos = listarDisco();
+        archivos.sort(Comparator.comparingLong(this::ultimoUso));
+
+        long total = 0;
+        for (Path archivo : archivos) {
+            total += Files.size(archivo);
+        }
+        for (Path archivo : archivos) {
+            if (total <= maxBytesDisco) {
+                break;
+            }
+            long tamano = Files.size(archivo);
+            if (Files.deleteIfExists(archivo)) {
+                total -= tamano;
+            }
+        }
+        bytesDisco = total;
+    }
+
+    private long ultimoUso(Path archivo) {
+        try {
+            return Files.getLastModifiedTime(archivo).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private List<Path> listarDisco() throws IOException {
+        List<Path> archivos = new ArrayList<>();
+        try (DirectoryStream<Path> subcarpetas = Files.newDirectoryStream(carpeta, Files::isDirectory)) {
+            for (Path subcarpeta : subcarpetas) {
+                try (DirectoryStream<Path> docs = Files.newDirectoryStream(subcarpeta, "*.docx")) {
+                    docs.forEach(archivos::add);
+                }
+            }
+        }
+        return archivos;
+    }
+
+    private Path rutaDisco(String clave) {
+        return carpeta.resolve(clave.substring(0, 2)).resolve(clave + ".docx");
+    }
+
+    private static String hashPlantilla(Path plantilla) throws IOException {
+        Path clave = plantilla.toAbsolutePath().normalize();
+        String identidad = MappedZip.identidad(clave.toString());
+
+        HashPlantilla conocido = HASHES_PLANTILLA.get(clave);
+        if (conocido != null && conocido.identidad.equals(identidad)) {
+            return conocido.hash;
+        }
+
+        String hash = Hashing.sha256Hex(clave);
+        HASHES_PLANTILLA.put(clave, new HashPlantilla(identidad, hash));
+        return hash;
+    }
+}
@@ -0,0 +1,286 @@
+package com.logicsolutions.util;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Procesa una parte XML de Word en modo de memoria acotada.
+ * <p>
+ * En lugar de cargar la parte completa como DOM, la recorre con StAX y copia todo
+ * directamente a la salida, excepto los párrafos (w:p): cada párrafo se acumula,
+ * se convierte en un DOM pequeño, se entrega al procesador y se vuelve a escribir.
+ * Así la memoria residente depende del párrafo más grande y no del tamaño de la parte.
+ * La salida va directamente a la entrada del ZIP, por lo que no hace falta volcarla
+ * a un archivo temporal.
+ */
+public class StreamingXmlProcessor {
+
+    /** Bytes de heap estimados por carácter de párrafo (texto + DOM del fragmento) */
+    static final int BYTES_POR_CARACTER = 12;
+
+    private static final int TAMANO_BLOQUE_ESCRITURA = 64 * 1024;
+    private static final String RAIZ_FRAGMENTO = "fragmento";
+
+    /**
+     * Recibe cada párrafo envuelto en un documento propio. Los elementos conservan sus
+     * nombres calificados (w:p, w:r, w:t...) igual que en el DOM de la parte completa.
+     */
+    public interface ProcesadorParrafo {
+        void procesar(Document fragmento) throws Exception;
+    }
+
+    private final long limiteBytes;
+    private final long maxCaracteresParrafo;
+    // Se crean una vez por instancia: crearlos en cada llamada domina cuando se procesan muchas partes pequeñas
+    private XMLInputFactory factory;
+    private Transformer transformer;
+
+    /**
+     * Una instancia puede procesar muchas partes seguidas, pero no desde varios hilos a la vez.
+     */
+    public StreamingXmlProcessor(long limiteBytes) {
+        this.limiteBytes = limiteBytes;
+        this.maxCaracteresParrafo = Math.max(1, limiteBytes / BYTES_POR_CARACTER);
+    }
+
+    /**
+     * Copia la parte desde {@code in} hacia {@code out} aplicando el procesador a cada párrafo.
+     * El flujo de salida no se cierra.
+     *
+     * @return número de párrafos procesados
+     */
+    public int procesar(InputStream in, OutputStream out, DocumentBuilder builder,
+                        ProcesadorParrafo procesador) throws Exception {
+        if (factory == null) {
+            factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            int profundidad = LimitesEntrada.porDefecto().getProfundidadXml();
+            if (profundidad > 0) {
+                factory.setProperty(LimitesEntrada.PROPIEDAD_PROFUNDIDAD, String.valueOf(profundidad));
+            }
+
+            transformer = DocxUtils.createTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        }
+
+        Writer writer = new OutputStreamWriter(DocxUtils.nonClosing(out), StandardCharsets.UTF_8);
+        Escritor salida = new Escritor(new StringBuilder(TAMANO_BLOQUE_ESCRITURA), Long.MAX_VALUE);
+        // Declaraciones de espacios de nombres de los elementos abiertos, para envolver los fragmentos
+        Deque<String> declaraciones = new ArrayDeque<>();
+        int parrafos = 0;
+
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            salida.sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+
+            while (reader.hasNext()) {
+                int evento = reader.next();
+                if (evento == XMLStreamConstants.START_ELEMENT
+                        && "p".equals(reader.getLocalName())
+                        && DocxUtils.WORD_NS.equals(reader.getNamespaceURI())) {
+                    String parrafo = capturarElemento(reader);
+                    salida.cerrarInicioPendiente();
+                    salida.sb.append(procesarParrafo(parrafo, declaraciones, builder, transformer, procesador));
+                    parrafos++;
+                } else {
+                    if (evento == XMLStreamConstants.START_ELEMENT) {
+                        declaraciones.push(declaracionesDe(reader));
+                    } else if (evento == XMLStreamConstants.END_ELEMENT) {
+                        declaraciones.pop();
+                    }
+                    salida.escribirEvento(reader, evento);
+                }
+
+                if (salida.sb.length() >= TAMANO_BLOQUE_ESCRITURA) {
+                    salida.volcar(writer);
+                }
+            }
+            salida.cerrarInicioPendiente();
+            salida.volcar(writer);
+            writer.flush();
+        } catch (XMLStreamException | SAXParseException e) {
+            LimiteExcedidoException limite = LimiteExcedidoException.deParser(e);
+            throw limite != null ? limite : e;
+        } finally {
+            reader.close();
+        }
+        return parrafos;
+    }
+
+    /**
+     * Serializa el elemento actual y todo su contenido, respetando el límite de memoria
+     */
+    private String capturarElemento(XMLStreamReader reader) throws Exception {
+        Escritor captura = new Escritor(new StringBuilder(), maxCaracteresParrafo);
+        int profundidad = 0;
+        int evento = reader.getEventType();
+        while (true) {
+            captura.escribirEvento(reader, evento);
+            if (evento == XMLStreamConstants.START_ELEMENT) {
+                profundidad++;
+            } else if (evento == XMLStreamConstants.END_ELEMENT && --profundidad == 0) {
+                break;
+            }
+            evento = reader.next();
+        }
+        captura.cerrarInicioPendiente();
+        return captura.sb.toString();
+    }
+
+    private String procesarParrafo(String parrafo, Deque<String> declaraciones, DocumentBuilder builder,
+                                   Transformer transformer, ProcesadorParrafo procesador) throws Exception {
+        StringBuilder envoltorio = new StringBuilder(parrafo.length() + 512);
+        envoltorio.append('<').append(RAIZ_FRAGMENTO);
+        declaraciones.descendingIterator().forEachRemaining(envoltorio::append);
+        envoltorio.append('>').append(parrafo).append("</").append(RAIZ_FRAGMENTO).append('>');
+
+        Document fragmento = builder.parse(new InputSource(new StringReader(envoltorio.toString())));
+        fragmento.getDocumentElement().normalize();
+        procesador.procesar(fragmento);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(parrafo.length() + 512);
+        transformer.transform(new DOMSource(fragmento), new StreamResult(baos));
+        String resultado = baos.toString(StandardCharsets.UTF_8);
+
+        int inicio = resultado.indexOf('>') + 1;
+        int fin = resultado.lastIndexOf("</" + RAIZ_FRAGMENTO + ">");
+        return fin < inicio ? "" : resultado.substring(inicio, fin);
+    }
+
+    private static String declaracionesDe(XMLStreamReader reader) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefijo = reader.getNamespacePrefix(i);
+            sb.append(prefijo == null || prefijo.isEmpty() ? " xmlns" : " xmlns:" + prefijo)
+                    .append("=\"").append(escapar(reader.getNamespaceURI(i), true)).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String escapar(String texto, boolean atributo) {
+        StringBuilder sb = null;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            String reemplazo = null;
+            if (c == '&') {
+                reemplazo = "&amp;";
+            } else if (c == '<') {
+                reemplazo = "&lt;";
+            } else if (c == '>') {
+                reemplazo = "&gt;";
+            } else if (c == '"' && atributo) {
+                reemplazo = "&quot;";
+            }
+            if (reemplazo != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(texto.length() + 16).append(texto, 0, i);
+                }
+                sb.append(reemplazo);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? texto : sb.toString();
+    }
+
+    private static String nombre(String prefijo, String local) {
+        return prefijo == null || prefijo.isEmpty() ? local : prefijo + ":" + local;
+    }
+
+    /**
+     * Serializador mínimo de eventos StAX. Difiere el cierre de la etiqueta de inicio
+     * para escribir los elementos vacíos como {@code <w:b/>}.
+     */
+    private final class Escritor {
+        private final StringBuilder sb;
+        private final long limite;
+        private boolean inicioPendiente;
+
+        Escritor(StringBuilder sb, long limite) {
+            this.sb = sb;
+            this.limite = limite;
+        }
+
+        void escribirEvento(XMLStreamReader reader, int evento) {
+            switch (evento) {
+                case XMLStreamConstants.START_ELEMENT:
+                    cerrarInicioPendiente();
+                    sb.append('<').append(nombre(reader.getPrefix(), reader.getLocalName()));
+                    sb.append(declaracionesDe(reader));
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        sb.append(' ').append(nombre(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)))
+                                .append("=\"").append(escapar(reader.getAttributeValue(i), true)).append('"');
+                    }
+                    inicioPendiente = true;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (inicioPendiente) {
+                        sb.append("/>");
+                        inicioPendiente = false;
+                    } else {
+                        sb.append("</").append(nombre(reader.getPrefix(), reader.getLocalName())).append('>');
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    cerrarInicioPendiente();
+                    sb.append(escapar(reader.getText(), false));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    cerrarInicioPendiente();
+                    sb.append("<!--").append(reader.getText()).append("-->");
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    cerrarInicioPendiente();
+                    sb.append("<?").append(reader.getPITarget());
+                    if (reader.getPIData() != null && !reader.getPIData().isEmpty()) {
+                        sb.append(' ').append(reader.getPIData());
+                    }
+                    sb.append("?>");
+                    break;
+                default:
+                    break;
+            }
+            if (sb.length() > limite) {
+                throw new IllegalStateException("Un párrafo supera el límite de memoria configurado ("
+                        + (limiteBytes / (1024 * 1024)) + " MB); aumente --baja-memoria o use el modo normal");
+            }
+        }
+
+        void cerrarInicioPendiente() {
+            if (inicioPendiente) {
+                sb.append('>');
+                inicioPendiente = false;
+            }
+        }
+
+        void volcar(Writer writer) throws IOException {
+            writer.append(sb);
+            sb.setLength(0);
+        }
+    }
+}
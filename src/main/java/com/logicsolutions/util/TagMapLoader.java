@@ -0,0 +1,297 @@
+package com.logicsolutions.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Carga mapas de reemplazo desde archivo en lugar de pares de argumentos, evitando el
+ * límite ARG_MAX del sistema con formularios de miles de tags.
+ * <p>
+ * Formatos según la extensión:
+ * <ul>
+ *   <li>.json: objeto plano {"&lt;&lt;TAG&gt;&gt;": "valor", ...}</li>
+ *   <li>.properties: formato estándar de Java</li>
+ *   <li>.tsv / .txt: una línea "tag &lt;TAB&gt; valor" (escapes \t, \n, \\); los archivos
+ *       grandes se leen con memoria mapeada</li>
+ *   <li>.tagsbin: forma binaria precompilada (ver {@link #guardarBinario})</li>
+ * </ul>
+ * En todos los casos se conserva el orden del archivo, que es el orden de aplicación.
+ */
+public final class TagMapLoader {
+
+    /** A partir de este tamaño los TSV se leen con memoria mapeada */
+    static final long UMBRAL_MAPEO = 8L * 1024 * 1024;
+
+    private static final int MAGIA = 0x4458544D; // "DXTM"
+    private static final int VERSION = 1;
+
+    private TagMapLoader() {
+    }
+
+    public static Map<String, String> cargar(Path archivo) throws IOException {
+        String nombre = archivo.getFileName().toString().toLowerCase();
+        if (nombre.endsWith(".json")) {
+            return cargarJson(archivo);
+        } else if (nombre.endsWith(".properties")) {
+            return cargarProperties(archivo);
+        } else if (nombre.endsWith(".tagsbin")) {
+            return cargarBinario(archivo);
+        } else if (nombre.endsWith(".tsv") || nombre.endsWith(".txt")) {
+            return cargarTsv(archivo);
+        }
+        throw new IllegalArgumentException("Formato de mapa de tags no reconocido: " + archivo
+                + " (use .json, .properties, .tsv o .tagsbin)");
+    }
+
+    /**
+     * Escribe la forma binaria: magia, versión, número de entradas y, por cada entrada,
+     * longitud + bytes UTF-8 de tag y valor. Se carga sin ningún análisis de texto.
+     */
+    public static void guardarBinario(Map<String, String> reemplazos, Path destino) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(destino), 64 * 1024))) {
+            out.writeInt(MAGIA);
+            out.writeInt(VERSION);
+            out.writeInt(reemplazos.size());
+            for (Map.Entry<String, String> entry : reemplazos.entrySet()) {
+                escribirCadena(out, entry.getKey());
+                escribirCadena(out, entry.getValue());
+            }
+        }
+    }
+
+    private static Map<String, String> cargarBinario(Path archivo) throws IOException {
+        byte[] datos = Files.readAllBytes(archivo);
+        ByteBuffer buffer = ByteBuffer.wrap(datos);
+        if (datos.length < 12 || buffer.getInt() != MAGIA) {
+            throw new IOException("No es un mapa de tags binario: " + archivo);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Versión de mapa binario no soportada: " + version);
+        }
+        int entradas = buffer.getInt();
+        Map<String, String> reemplazos = new LinkedHashMap<>(entradas * 4 / 3 + 1);
+        for (int i = 0; i < entradas; i++) {
+            String tag = leerCadena(buffer, datos);
+            reemplazos.put(tag, leerCadena(buffer, datos));
+        }
+        return reemplazos;
+    }
+
+    private static void escribirCadena(DataOutputStream out, String valor) throws IOException {
+        byte[] bytes = valor.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String leerCadena(ByteBuffer buffer, byte[] datos) {
+        int longitud = buffer.getInt();
+        String valor = new String(datos, buffer.position(), longitud, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + longitud);
+        return valor;
+    }
+
+    private static Map<String, String> cargarProperties(Path archivo) throws IOException {
+        Map<String, String> reemplazos = new LinkedHashMap<>();
+        // Properties es un Hashtable: se intercepta put para conservar el orden del archivo
+        Properties properties = new Properties() {
+            @Override
+            public synchronized Object put(Object key, Object value) {
+                reemplazos.put((String) key, (String) value);
+                return super.put(key, value);
+            }
+        };
+        try (Reader reader = Files.newBufferedReader(archivo, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return reemplazos;
+    }
+
+    private static Map<String, String> cargarTsv(Path archivo) throws IOException {
+        CharSequence contenido;
+        if (Files.size(archivo) >= UMBRAL_MAPEO) {
+            try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+                MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+                contenido = StandardCharsets.UTF_8.newDecoder().decode(mapa);
+            }
+        } else {
+            contenido = CharBuffer.wrap(Files.readString(archivo));
+        }
+
+        Map<String, String> reemplazos = new LinkedHashMap<>();
+        int inicio = 0;
+        int numeroLinea = 0;
+        int longitud = contenido.length();
+        while (inicio < longitud) {
+            int fin = inicio;
+            while (fin < longitud && contenido.charAt(fin) != '\n') {
+                fin++;
+            }
+            numeroLinea++;
+            int finSinRetorno = fin > inicio && contenido.charAt(fin - 1) == '\r' ? fin - 1 : fin;
+            CharSequence linea = contenido.subSequence(inicio, finSinRetorno);
+            if (linea.length() > 0 && linea.charAt(0) != '#') {
+                List<String> campos = Tsv.dividirCampos(linea);
+                if (campos.size() != 2) {
+                    throw new IOException(archivo + ":" + numeroLinea + ": se esperaba 'tag <TAB> valor'");
+                }
+                reemplazos.put(campos.get(0), campos.get(1));
+            }
+            inicio = fin + 1;
+        }
+        return reemplazos;
+    }
+
+    private static Map<String, String> cargarJson(Path archivo) throws IOException {
+        String json = Files.readString(archivo);
+        return new ParserJson(json, archivo.toString()).parsearObjetoPlano();
+    }
+
+    /**
+     * Analizador mínimo para un objeto JSON plano de cadenas (los números y booleanos
+     * se toman como texto). Evita añadir dependencias al jar.
+     */
+    private static final class ParserJson {
+        private final String json;
+        private final String nombre;
+        private int pos;
+
+        ParserJson(String json, String nombre) {
+            this.json = json;
+            this.nombre = nombre;
+        }
+
+        Map<String, String> parsearObjetoPlano() throws IOException {
+            Map<String, String> reemplazos = new LinkedHashMap<>();
+            saltarEspacios();
+            esperar('{');
+            saltarEspacios();
+            if (mirar() == '}') {
+                pos++;
+                return reemplazos;
+            }
+            while (true) {
+                saltarEspacios();
+                String tag = leerCadena();
+                saltarEspacios();
+                esperar(':');
+                saltarEspacios();
+                reemplazos.put(tag, leerValor());
+                saltarEspacios();
+                char c = siguiente();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw error("se esperaba ',' o '}'");
+                }
+            }
+            saltarEspacios();
+            if (pos < json.length()) {
+                throw error("contenido inesperado después del objeto");
+            }
+            return reemplazos;
+        }
+
+        private String leerValor() throws IOException {
+            if (mirar() == '"') {
+                return leerCadena();
+            }
+            int inicio = pos;
+            while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = json.substring(inicio, pos);
+            if (literal.isEmpty() || literal.equals("null") || literal.startsWith("{") || literal.startsWith("[")) {
+                throw error("solo se admiten valores de texto, número o booleano");
+            }
+            return literal;
+        }
+
+        private String leerCadena() throws IOException {
+            esperar('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = siguiente();
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = siguiente();
+                switch (e) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw error("escape \\u incompleto");
+                        }
+                        sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(e);
+                }
+            }
+        }
+
+        private void saltarEspacios() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char mirar() throws IOException {
+            if (pos >= json.length()) {
+                throw error("fin inesperado");
+            }
+            return json.charAt(pos);
+        }
+
+        private char siguiente() throws IOException {
+            char c = mirar();
+            pos++;
+            return c;
+        }
+
+        private void esperar(char c) throws IOException {
+            if (siguiente() != c) {
+                throw error("se esperaba '" + c + "'");
+            }
+        }
+
+        private IOException error(String mensaje) {
+            return new IOException(nombre + ": JSON inválido en la posición " + pos + ": " + mensaje);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.logicsolutions.util;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Texto concatenado de los w:t de un párrafo sobre búferes reutilizables por hilo.
+ * <p>
+ * Los caracteres se copian a un char[] y un arreglo de desplazamientos indica dónde
+ * empieza cada w:t, así la búsqueda de tags no crea objetos: solo se construyen
+ * Strings para los párrafos que de verdad cambian. Se recorren los w:t de cada w:r
+ * en el mismo orden que {@code getElementsByTagName("w:r")} y luego {@code ("w:t")},
+ * omitiendo los marcados con "ignorar".
+ * <p>
+ * Los reemplazos ({@link #reemplazar}) editan solo los w:t que solapan cada coincidencia:
+ * el valor va al run donde empieza el tag, los runs intermedios quedan vacíos y el último
+ * conserva el texto que sigue al tag. El resto del párrafo y su formato no se tocan, y
+ * {@link #aplicarCambios} escribe en el DOM únicamente los w:t modificados.
+ * <p>
+ * Una instancia no es reentrante: se carga un párrafo, se procesa y se pasa al siguiente.
+ * Al terminar el documento debe llamarse a {@link #limpiar()} para no retener sus nodos.
+ */
+public final class TextoParrafo implements CharSequence {
+
+    private static final ThreadLocal<TextoParrafo> POR_HILO = ThreadLocal.withInitial(TextoParrafo::new);
+
+    // Un párrafo excepcional no debe dejar búferes enormes vivos en el hilo
+    private static final int CAPACIDAD_RETENIDA = 64 * 1024;
+
+    private char[] texto = new char[512];
+    private int longitud;
+    private Element[] nodos = new Element[16];
+    private String[] textos = new String[16];
+    private int[] inicios = new int[17];
+    private boolean[] modificados = new boolean[16];
+    private int numeroNodos;
+
+    private TextoParrafo() {
+    }
+
+    public static TextoParrafo delHilo() {
+        return POR_HILO.get();
+    }
+
+    /**
+     * Reemplaza el contenido por el texto del párrafo indicado
+     */
+    public TextoParrafo cargar(Element parrafo) {
+        longitud = 0;
+        numeroNodos = 0;
+        recorrerRuns(parrafo);
+        inicios[numeroNodos] = longitud;
+        return this;
+    }
+
+    /**
+     * Reemplaza el contenido por los w:t indicados, en ese orden; para quien ya recorrió el
+     * párrafo con sus propias reglas (los cuadros de texto no entran en párrafos anidados)
+     */
+    public TextoParrafo cargar(List<? extends Node> textosParrafo) {
+        longitud = 0;
+        numeroNodos = 0;
+        for (Node nodo : textosParrafo) {
+            agregar((Element) nodo);
+        }
+        inicios[numeroNodos] = longitud;
+        return this;
+    }
+
+    private void recorrerRuns(Node nodo) {
+        for (Node hijo = nodo.getFirstChild(); hijo != null; hijo = hijo.getNextSibling()) {
+            if (hijo.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            if ("w:r".equals(hijo.getNodeName())) {
+                agregarTextos(hijo);
+            }
+            recorrerRuns(hijo);
+        }
+    }
+
+    private void agregarTextos(Node run) {
+        for (Node hijo = run.getFirstChild(); hijo != null; hijo = hijo.getNextSibling()) {
+            if (hijo.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            Element elemento = (Element) hijo;
+            if ("w:t".equals(elemento.getNodeName()) && !elemento.hasAttribute("ignorar")) {
+                agregar(elemento);
+            }
+            agregarTextos(elemento);
+        }
+    }
+
+    private void agregar(Element elemento) {
+        String contenido = elemento.getTextContent();
+        if (numeroNodos == nodos.length) {
+            int capacidad = nodos.length * 2;
+            nodos = Arrays.copyOf(nodos, capacidad);
+            textos = Arrays.copyOf(textos, capacidad);
+            inicios = Arrays.copyOf(inicios, capacidad + 1);
+            modificados = Arrays.copyOf(modificados, capacidad);
+        }
+        int requerido = longitud + contenido.length();
+        if (requerido > texto.length) {
+            texto = Arrays.copyOf(texto, Math.max(requerido, texto.length * 2));
+        }
+        contenido.getChars(0, contenido.length(), texto, longitud);
+        nodos[numeroNodos] = elemento;
+        textos[numeroNodos] = contenido;
+        inicios[numeroNodos] = longitud;
+        modificados[numeroNodos] = false;
+        numeroNodos++;
+        longitud = requerido;
+    }
+
+    public boolean estaVacio() {
+        return numeroNodos == 0;
+    }
+
+    public int getNumeroNodos() {
+        return numeroNodos;
+    }
+
+    public Element getNodo(int indice) {
+        return nodos[indice];
+    }
+
+    /**
+     * Texto actual del w:t: el del DOM (sin copiar) mientras no haya reemplazos que lo afecten
+     */
+    public String getTextoNodo(int indice) {
+        return textos[indice];
+    }
+
+    /**
+     * Desplazamiento del primer carácter del w:t en el texto concatenado
+     */
+    public int getInicioNodo(int indice) {
+        return inicios[indice];
+    }
+
+    /**
+     * Índice del w:t que contiene el carácter en la posición indicada
+     */
+    public int nodoEn(int posicion) {
+        int bajo = 0;
+        int alto = numeroNodos - 1;
+        while (bajo < alto) {
+            int medio = (bajo + alto + 1) >>> 1;
+            if (inicios[medio] <= posicion) {
+                bajo = medio;
+            } else {
+                alto = medio - 1;
+            }
+        }
+        return bajo;
+    }
+
+    public boolean contiene(String patron) {
+        return indexOf(patron, 0) >= 0;
+    }
+
+    /**
+     * Si aparece alguno de los patrones; un párrafo sin ninguno no necesita más trabajo.
+     * Cada patrón recorre el párrafo entero, así que se comprueba el {@link PlazoRender} en cada uno.
+     */
+    public boolean contieneAlguno(Iterable<String> patrones) {
+        for (String patron : patrones) {
+            PlazoRender.verificar();
+            if (indexOf(patron, 0) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Como {@link String#indexOf(String, int)} sobre el texto concatenado
+     */
+    public int indexOf(String patron, int desde) {
+        int largo = patron.length();
+        if (largo == 0) {
+            return Math.min(Math.max(desde, 0), longitud);
+        }
+        char primero = patron.charAt(0);
+        int ultimoInicio = longitud - largo;
+        for (int i = Math.max(desde, 0); i <= ultimoInicio; i++) {
+            if (texto[i] != primero) {
+                continue;
+            }
+            int j = 1;
+            while (j < largo && texto[i + j] == patron.charAt(j)) {
+                j++;
+            }
+            if (j == largo) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isModificado(int indice) {
+        return modificados[indice];
+    }
+
+    /**
+     * Reemplaza el rango [inicio, fin) del texto concatenado editando solo los w:t que lo
+     * solapan. El texto y los desplazamientos se actualizan, así que las búsquedas
+     * siguientes ven el resultado; el DOM no cambia hasta {@link #aplicarCambios}.
+     */
+    public void reemplazar(int inicio, int fin, String valor) {
+        int primero = nodoEn(inicio);
+        int ultimo = fin > inicio ? nodoEn(fin - 1) : primero;
+        String textoPrimero = textos[primero];
+        String prefijo = textoPrimero.substring(0, inicio - inicios[primero]);
+
+        if (primero == ultimo) {
+            cambiar(primero, prefijo + valor + textoPrimero.substring(fin - inicios[primero]));
+        } else {
+            cambiar(primero, prefijo + valor);
+            for (int i = primero + 1; i < ultimo; i++) {
+                cambiar(i, "");
+            }
+            cambiar(ultimo, textos[ultimo].substring(fin - inicios[ultimo]));
+        }
+        reconstruirDesde(primero);
+    }
+
+    private void cambiar(int indice, String nuevo) {
+        if (!nuevo.equals(textos[indice])) {
+            textos[indice] = nuevo;
+            modificados[indice] = true;
+        }
+    }
+
+    private void reconstruirDesde(int primero) {
+        int total = inicios[primero];
+        for (int i = primero; i < numeroNodos; i++) {
+            total += textos[i].length();
+        }
+        if (total > texto.length) {
+            texto = Arrays.copyOf(texto, Math.max(total, texto.length * 2));
+        }
+        int posicion = inicios[primero];
+        for (int i = primero; i < numeroNodos; i++) {
+            inicios[i] = posicion;
+            textos[i].getChars(0, textos[i].length(), texto, posicion);
+            posicion += textos[i].length();
+        }
+        inicios[numeroNodos] = posicion;
+        longitud = posicion;
+    }
+
+    /**
+     * Escribe en el DOM los w:t modificados, sin interpretar ||BR||
+     *
+     * @return w:t escritos
+     */
+    public int aplicarCambios() {
+        int escritos = 0;
+        for (int i = 0; i < numeroNodos; i++) {
+            if (modificados[i]) {
+                escribir(nodos[i], textos[i]);
+                escritos++;
+            }
+        }
+        return escritos;
+    }
+
+    /**
+     * Escribe en el DOM los w:t modificados; los que contienen ||BR|| se dividen en runs
+     * con saltos de línea, copiando el formato de su propio run
+     *
+     * @return w:t escritos
+     */
+    public int aplicarCambios(Document document, ValorReemplazo ultimoValor) {
+        int escritos = 0;
+        for (int i = 0; i < numeroNodos; i++) {
+            if (!modificados[i]) {
+                continue;
+            }
+            if (textos[i].contains(ValorReemplazo.SALTO)) {
+                DocxUtils.insertarTextoConSaltos(document, nodos[i], ValorReemplazo.paraTexto(textos[i], ultimoValor));
+            } else {
+                escribir(nodos[i], textos[i]);
+            }
+            escritos++;
+        }
+        return escritos;
+    }
+
+    private static void escribir(Element nodo, String contenido) {
+        nodo.setTextContent(contenido);
+        // El texto que queda junto al tag puede empezar o terminar en espacio
+        if (!contenido.isEmpty() && ValorReemplazo.requierePreservarEspacios(contenido)) {
+            nodo.setAttribute("xml:space", "preserve");
+        }
+    }
+
+    /**
+     * Suelta las referencias al documento y recorta los búferes que crecieron demasiado
+     */
+    public void limpiar() {
+        Arrays.fill(nodos, 0, numeroNodos, null);
+        Arrays.fill(textos, 0, numeroNodos, null);
+        numeroNodos = 0;
+        longitud = 0;
+        if (texto.length > CAPACIDAD_RETENIDA) {
+            texto = new char[512];
+        }
+        if (nodos.length > CAPACIDAD_RETENIDA / 16) {
+            nodos = new Element[16];
+            textos = new String[16];
+            inicios = new int[17];
+            modificados = new boolean[16];
+        }
+    }
+
+    @Override
+    public int length() {
+        return longitud;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= longitud) {
+            throw new IndexOutOfBoundsException("Posición " + index + " fuera del texto de " + longitud);
+        }
+        return texto[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(texto, start, end - start);
+    }
+
+    /**
+     * Copia el texto concatenado a un String nuevo: solo para párrafos que cambian
+     */
+    @Override
+    public String toString() {
+        return new String(texto, 0, longitud);
+    }
+}
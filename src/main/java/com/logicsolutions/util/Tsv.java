@@ -0,0 +1,79 @@
+package com.logicsolutions.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utilidades para los archivos separados por tabuladores (trabajos de lote, mapas de tags).
+ * Dentro de un campo se admiten los escapes \t, \n y \\; una barra seguida de cualquier
+ * otro carácter se conserva tal cual.
+ */
+public final class Tsv {
+
+    private Tsv() {
+    }
+
+    public static List<String> dividirCampos(CharSequence linea) {
+        return dividirCampos(linea, 0);
+    }
+
+    /**
+     * Divide la línea sin interpretar escapes en las primeras {@code columnasLiterales}
+     * columnas: son rutas escritas a mano, y en {@code C:\plantillas\nueva.docx} el
+     * {@code \n} no es un salto de línea
+     */
+    public static List<String> dividirCampos(CharSequence linea, int columnasLiterales) {
+        List<String> campos = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        for (int i = 0; i < linea.length(); i++) {
+            char c = linea.charAt(i);
+            if (c == '\t') {
+                campos.add(actual.toString());
+                actual.setLength(0);
+            } else if (c == '\\' && i + 1 < linea.length() && campos.size() >= columnasLiterales) {
+                char siguiente = linea.charAt(i + 1);
+                switch (siguiente) {
+                    case 't':
+                        actual.append('\t');
+                        i++;
+                        break;
+                    case 'n':
+                        actual.append('\n');
+                        i++;
+                        break;
+                    case '\\':
+                        actual.append('\\');
+                        i++;
+                        break;
+                    default:
+                        actual.append(c);
+                }
+            } else {
+                actual.append(c);
+            }
+        }
+        campos.add(actual.toString());
+        return campos;
+    }
+
+    public static String escapar(String campo) {
+        StringBuilder sb = new StringBuilder(campo.length() + 8);
+        for (int i = 0; i < campo.length(); i++) {
+            char c = campo.charAt(i);
+            switch (c) {
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
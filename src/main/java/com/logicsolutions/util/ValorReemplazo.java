@@ -0,0 +1,150 @@
+package com.logicsolutions.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Valor de reemplazo analizado una sola vez por renderizado: líneas ya separadas por
+ * ||BR|| y, para cada línea, si su w:t necesita xml:space="preserve".
+ * Un valor usado mil veces en el documento se analiza una sola vez, también cuando el
+ * w:t tiene texto antes o después del tag (ver {@link #paraTexto}).
+ * <p>
+ * No se guarda el texto escapado para XML: los valores siempre se escriben como nodos de
+ * texto del DOM (también en el modo de baja memoria, que parsea cada párrafo a un DOM), y
+ * el serializador los escapa al escribir la parte; un texto pre-escapado no tendría dónde usarse.
+ */
+public final class ValorReemplazo {
+
+    public static final String SALTO = "||BR||";
+
+    private final String texto;
+    private final String[] lineas;
+    private final boolean[] preservarEspacios;
+    // Posición tras el último ||BR|| usado al dividir (0 si no tiene)
+    private final int finUltimoSalto;
+
+    public ValorReemplazo(String texto) {
+        this.texto = texto;
+        this.lineas = dividirSaltos(texto);
+        this.preservarEspacios = new boolean[lineas.length];
+        for (int i = 0; i < lineas.length; i++) {
+            preservarEspacios[i] = requierePreservarEspacios(lineas[i]);
+        }
+        // No sirve lastIndexOf: puede encontrar un ||BR|| solapado que la división no usó
+        this.finUltimoSalto = lineas.length > 1 ? texto.length() - lineas[lineas.length - 1].length() : 0;
+    }
+
+    private ValorReemplazo(String texto, String[] lineas, boolean[] preservarEspacios, int finUltimoSalto) {
+        this.texto = texto;
+        this.lineas = lineas;
+        this.preservarEspacios = preservarEspacios;
+        this.finUltimoSalto = finUltimoSalto;
+    }
+
+    /**
+     * Compila un mapa tag -> texto conservando el orden de aplicación
+     */
+    public static Map<String, ValorReemplazo> compilar(Map<String, String> reemplazos) {
+        Map<String, ValorReemplazo> valores = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : reemplazos.entrySet()) {
+            valores.put(entry.getKey(), new ValorReemplazo(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(valores);
+    }
+
+    /**
+     * Análisis del texto de un w:t después de reemplazar, reutilizando el del último valor aplicado.
+     * <ul>
+     *   <li>Si el texto es exactamente el valor (el w:t solo tenía el tag) se devuelve el valor.</li>
+     *   <li>Si es el valor con texto de la plantilla antes o después sin ||BR||, se reutilizan
+     *       sus líneas y marcas ya calculadas: solo cambian la primera y la última línea.</li>
+     *   <li>En otro caso (varios valores con saltos, saltos en la propia plantilla) se analiza.</li>
+     * </ul>
+     */
+    public static ValorReemplazo paraTexto(String texto, ValorReemplazo ultimoAplicado) {
+        if (ultimoAplicado == null) {
+            return new ValorReemplazo(texto);
+        }
+        if (ultimoAplicado.texto.equals(texto)) {
+            return ultimoAplicado;
+        }
+        int inicio = ultimoAplicado.texto.isEmpty() ? -1 : texto.indexOf(ultimoAplicado.texto);
+        if (inicio < 0) {
+            return new ValorReemplazo(texto);
+        }
+        // Los ||BR|| del texto deben ser exactamente los del valor: ninguno antes de él ni
+        // a caballo entre el valor y lo que lo rodea, y ninguno después de su último salto
+        int primerSalto = texto.indexOf(SALTO);
+        if ((primerSalto >= 0 && primerSalto < inicio)
+                || texto.indexOf(SALTO, inicio + ultimoAplicado.finUltimoSalto) >= 0) {
+            return new ValorReemplazo(texto);
+        }
+        String antes = texto.substring(0, inicio);
+        String despues = texto.substring(inicio + ultimoAplicado.texto.length());
+        return ultimoAplicado.rodeadoDe(texto, antes, despues);
+    }
+
+    private ValorReemplazo rodeadoDe(String textoCompleto, String antes, String despues) {
+        String[] nuevasLineas = lineas.clone();
+        boolean[] nuevasMarcas = preservarEspacios.clone();
+        int ultima = nuevasLineas.length - 1;
+        nuevasLineas[0] = antes + nuevasLineas[0];
+        nuevasLineas[ultima] = nuevasLineas[ultima] + despues;
+        nuevasMarcas[0] = requierePreservarEspacios(nuevasLineas[0]);
+        nuevasMarcas[ultima] = requierePreservarEspacios(nuevasLineas[ultima]);
+        int fin = finUltimoSalto > 0 ? antes.length() + finUltimoSalto : 0;
+        return new ValorReemplazo(textoCompleto, nuevasLineas, nuevasMarcas, fin);
+    }
+
+    /**
+     * Divide por ||BR|| sin expresiones regulares. Igual que split(..., -1): conserva las
+     * líneas vacías, también al principio y al final.
+     */
+    public static String[] dividirSaltos(String texto) {
+        int idx = texto.indexOf(SALTO);
+        if (idx < 0) {
+            return new String[]{texto};
+        }
+        List<String> partes = new ArrayList<>();
+        int inicio = 0;
+        while (idx >= 0) {
+            partes.add(texto.substring(inicio, idx));
+            inicio = idx + SALTO.length();
+            idx = texto.indexOf(SALTO, inicio);
+        }
+        partes.add(texto.substring(inicio));
+        return partes.toArray(new String[0]);
+    }
+
+    public static boolean requierePreservarEspacios(String linea) {
+        return linea.startsWith(" ") || linea.endsWith(" ") || linea.isEmpty();
+    }
+
+    public String getTexto() {
+        return texto;
+    }
+
+    public boolean tieneSaltos() {
+        return lineas.length > 1;
+    }
+
+    public int getNumeroLineas() {
+        return lineas.length;
+    }
+
+    public String getLinea(int i) {
+        return lineas[i];
+    }
+
+    public boolean preservarEspacios(int i) {
+        return preservarEspacios[i];
+    }
+
+    @Override
+    public String toString() {
+        return texto;
+    }
+}
@@ -0,0 +1,153 @@
+package com.logicsolutions.commands;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Regresiones de rendimiento, ejecutadas con failsafe en el perfil "regresion" del pom
+ * ({@code mvn -P regresion verify}).
+ * <p>
+ * Para cada comando renderiza documentos de muestra de tamaño creciente y comprueba que:
+ * - al duplicar los párrafos el tiempo no crece más de {@link #FACTOR_MAXIMO} veces
+ * - la memoria asignada por documento tampoco, y no supera el presupuesto por párrafo
+ */
+class EscaladoIT {
+
+    static final double FACTOR_MAXIMO = 2.2;
+
+    private static final int[] TAMANOS = {250, 500, 1000, 2000};
+    private static final int REPETICIONES = 5;
+    private static final int RONDAS_EXTRA = 2;
+    // Por debajo de este tiempo las diferencias son ruido del planificador, no escalado
+    private static final long PISO_NANOS = 20_000_000L;
+
+    /** Presupuesto de asignación por párrafo del documento, en KB (-Ddocxtool.regresion.kb.parrafo) */
+    private static final long KB_POR_PARRAFO = Long.getLong("docxtool.regresion.kb.parrafo", 16);
+
+    @TempDir
+    static Path directorio;
+
+    private static Path[] porTamano;
+    private static PrintStream salidaOriginal;
+
+    @BeforeAll
+    static void preparar() throws Exception {
+        porTamano = new Path[TAMANOS.length];
+        for (int i = 0; i < TAMANOS.length; i++) {
+            porTamano[i] = Regresion.muestra(directorio, TAMANOS[i]);
+        }
+        salidaOriginal = Regresion.silenciar();
+    }
+
+    @AfterAll
+    static void restaurar() {
+        System.setOut(salidaOriginal);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"todos", "loop", "cuadros", "encabezados", "pies", "predeterminado"})
+    void escalaLinealmente(String comando) throws Exception {
+        // Calentamiento: el JIT compila las rutas calientes antes de medir
+        for (int i = 0; i < REPETICIONES; i++) {
+            Regresion.renderizar(comando, porTamano[1]);
+        }
+        Medida[] medidas = new Medida[TAMANOS.length];
+        for (int i = 0; i < TAMANOS.length; i++) {
+            medidas[i] = new Medida();
+        }
+        medir(comando, medidas);
+        // En una máquina cargada una pausa aislada infla una medida: se repite antes de fallar
+        for (int ronda = 0; ronda < RONDAS_EXTRA && !escalaEnTiempo(medidas); ronda++) {
+            medir(comando, medidas);
+        }
+
+        List<String> fallos = verificar(comando, medidas);
+        assertTrue(fallos.isEmpty(), String.join("\n", fallos));
+    }
+
+    /**
+     * Mínimo de las repeticiones: la medida menos afectada por GC y planificación
+     */
+    private static final class Medida {
+        long nanos = Long.MAX_VALUE;
+        long bytesAsignados = Long.MAX_VALUE;
+
+        void registrar(long nanos, long bytesAsignados) {
+            this.nanos = Math.min(this.nanos, nanos);
+            this.bytesAsignados = Math.min(this.bytesAsignados, bytesAsignados);
+        }
+    }
+
+    /**
+     * Repite cada tamaño intercalando los tamaños, para que la deriva del JIT o del GC
+     * afecte a todos por igual
+     */
+    private static void medir(String comando, Medida[] medidas) throws Exception {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long hilo = Thread.currentThread().getId();
+        for (int r = 0; r < REPETICIONES; r++) {
+            for (int i = 0; i < porTamano.length; i++) {
+                long asignadoAntes = threads.getThreadAllocatedBytes(hilo);
+                long inicio = System.nanoTime();
+                Regresion.renderizar(comando, porTamano[i]);
+                medidas[i].registrar(System.nanoTime() - inicio, threads.getThreadAllocatedBytes(hilo) - asignadoAntes);
+            }
+        }
+    }
+
+    private static double factorTiempo(Medida[] medidas, int i) {
+        return (double) Math.max(medidas[i].nanos, PISO_NANOS) / Math.max(medidas[i - 1].nanos, PISO_NANOS);
+    }
+
+    private static boolean escalaEnTiempo(Medida[] medidas) {
+        for (int i = 1; i < medidas.length; i++) {
+            if (factorTiempo(medidas, i) > FACTOR_MAXIMO) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> verificar(String comando, Medida[] medidas) {
+        List<String> fallos = new ArrayList<>();
+        StringBuilder linea = new StringBuilder(String.format(Locale.ROOT, "%-15s", comando));
+        for (int i = 0; i < TAMANOS.length; i++) {
+            Medida medida = medidas[i];
+            linea.append(String.format(Locale.ROOT, "  %d: %.1f ms %d KB", TAMANOS[i], medida.nanos / 1e6,
+                    medida.bytesAsignados / 1024));
+
+            long presupuesto = KB_POR_PARRAFO * 1024 * TAMANOS[i];
+            if (medida.bytesAsignados > presupuesto) {
+                fallos.add(String.format(Locale.ROOT, "%s: %d párrafos asignan %d KB (presupuesto %d KB)",
+                        comando, TAMANOS[i], medida.bytesAsignados / 1024, presupuesto / 1024));
+            }
+            if (i == 0) {
+                continue;
+            }
+            double factorTiempo = factorTiempo(medidas, i);
+            double factorMemoria = (double) medida.bytesAsignados / medidas[i - 1].bytesAsignados;
+            if (factorTiempo > FACTOR_MAXIMO) {
+                fallos.add(String.format(Locale.ROOT, "%s: de %d a %d párrafos el tiempo crece %.2fx (máximo %.1fx)",
+                        comando, TAMANOS[i - 1], TAMANOS[i], factorTiempo, FACTOR_MAXIMO));
+            }
+            if (factorMemoria > FACTOR_MAXIMO) {
+                fallos.add(String.format(Locale.ROOT, "%s: de %d a %d párrafos la memoria asignada crece %.2fx (máximo %.1fx)",
+                        comando, TAMANOS[i - 1], TAMANOS[i], factorMemoria, FACTOR_MAXIMO));
+            }
+        }
+        salidaOriginal.println(linea);
+        return fallos;
+    }
+}
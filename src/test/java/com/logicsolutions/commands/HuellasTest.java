@@ -0,0 +1,97 @@
+package com.logicsolutions.commands;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * El documento que genera cada comando a partir de la muestra de {@value #PARRAFOS} párrafos
+ * debe coincidir con la huella registrada en regresion/huellas.properties.
+ * <p>
+ * Si un cambio de resultado es intencionado, las huellas se regeneran con
+ * {@code mvn test -Dtest=HuellasTest -Ddocxtool.huellas.actualizar=true}.
+ */
+class HuellasTest {
+
+    private static final int PARRAFOS = 40;
+    private static final Path HUELLAS = Paths.get(System.getProperty("docxtool.huellas", "regresion/huellas.properties"));
+    private static final boolean ACTUALIZAR = Boolean.getBoolean("docxtool.huellas.actualizar");
+
+    @TempDir
+    static Path directorio;
+
+    private static Path plantilla;
+    private static Properties registradas;
+    private static PrintStream salidaOriginal;
+
+    @BeforeAll
+    static void preparar() throws IOException {
+        plantilla = Regresion.muestra(directorio, PARRAFOS);
+        registradas = cargar(HUELLAS);
+        salidaOriginal = Regresion.silenciar();
+    }
+
+    @AfterAll
+    static void terminar() throws IOException {
+        System.setOut(salidaOriginal);
+        if (ACTUALIZAR) {
+            guardar(HUELLAS, registradas);
+            System.out.println("Huellas actualizadas en " + HUELLAS);
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"todos", "loop", "cuadros", "encabezados", "pies", "predeterminado"})
+    void elDocumentoGeneradoNoCambia(String comando) throws Exception {
+        String huella = Regresion.huella(Regresion.renderizar(comando, plantilla));
+        if (ACTUALIZAR) {
+            registradas.setProperty(comando, huella);
+            return;
+        }
+        String esperada = registradas.getProperty(comando);
+        assertNotNull(esperada, comando + ": sin huella registrada (regenerar con -Ddocxtool.huellas.actualizar=true)");
+        assertEquals(esperada, huella, comando + ": el documento generado cambió");
+    }
+
+    private static Properties cargar(Path ruta) throws IOException {
+        Properties propiedades = new Properties();
+        if (Files.exists(ruta)) {
+            try (Reader reader = Files.newBufferedReader(ruta, StandardCharsets.UTF_8)) {
+                propiedades.load(reader);
+            }
+        }
+        return propiedades;
+    }
+
+    private static void guardar(Path ruta, Properties huellas) throws IOException {
+        if (ruta.getParent() != null) {
+            Files.createDirectories(ruta.getParent());
+        }
+        Map<String, String> ordenadas = new TreeMap<>();
+        huellas.stringPropertyNames().forEach(comando -> ordenadas.put(comando, huellas.getProperty(comando)));
+        try (Writer writer = Files.newBufferedWriter(ruta, StandardCharsets.UTF_8)) {
+            writer.write("# Huellas de los documentos de muestra (" + PARRAFOS + " párrafos) por comando.\n");
+            writer.write("# Regenerar con: mvn test -Dtest=HuellasTest -Ddocxtool.huellas.actualizar=true\n");
+            for (Map.Entry<String, String> entrada : ordenadas.entrySet()) {
+                writer.write(entrada.getKey() + "=" + entrada.getValue() + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.util.DocxUtils;
+import com.logicsolutions.util.LimiteExcedidoException;
+import com.logicsolutions.util.ParallelBodyProcessor;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Resultados concretos de los comandos sobre documentos mínimos: qué queda en el XML generado
+ * y no solo si cambió. {@link HuellasTest} sigue detectando cualquier otro cambio de salida.
+ */
+class ReemplazoTest {
+
+    private static PrintStream salidaOriginal;
+
+    @TempDir
+    Path directorio;
+
+    @BeforeAll
+    static void preparar() {
+        salidaOriginal = Regresion.silenciar();
+    }
+
+    @AfterAll
+    static void terminar() {
+        System.setOut(salidaOriginal);
+    }
+
+    @Test
+    void tagFragmentadoEnTresRunsConservaElFormatoDeLosRunsVecinos() throws Exception {
+        Path plantilla = Regresion.documento(directorio, "fragmentado.docx", "<w:p>"
+                + "<w:r><w:rPr><w:b/></w:rPr><w:t xml:space=\"preserve\">Hola </w:t></w:r>"
+                + "<w:r><w:rPr><w:u w:val=\"single\"/></w:rPr><w:t>&lt;&lt;NO</w:t></w:r>"
+                + "<w:r><w:t>MB</w:t></w:r>"
+                + "<w:r><w:t>RE&gt;&gt;</w:t></w:r>"
+                + "<w:r><w:rPr><w:i/></w:rPr><w:t xml:space=\"preserve\"> fin</w:t></w:r>"
+                + "</w:p>");
+
+        Document documento = Regresion.parte(
+                Regresion.renderizar(new TodosCommand(), plantilla, Map.of("<<NOMBRE>>", "Juan")), "word/document.xml");
+
+        assertEquals("Hola Juan fin", Regresion.texto(documento));
+        assertNotNull(DocxUtils.primerDescendiente(run(documento, "Hola "), "w:b"));
+        assertNotNull(DocxUtils.primerDescendiente(run(documento, "Juan"), "w:u"));
+        assertNotNull(DocxUtils.primerDescendiente(run(documento, " fin"), "w:i"));
+    }
+
+    @Test
+    void saltoDeLineaGeneraBrYCopiaElFormatoDelRun() throws Exception {
+        Path plantilla = Regresion.documento(directorio, "salto.docx", "<w:p>"
+                + "<w:r><w:rPr><w:b/></w:rPr><w:t>&lt;&lt;DIRECCION&gt;&gt;</w:t></w:r>"
+                + "</w:p>");
+
+        Document documento = Regresion.parte(Regresion.renderizar(new TodosCommand(), plantilla,
+                Map.of("<<DIRECCION>>", "Calle 1||BR||Bogotá")), "word/document.xml");
+
+        List<Element> saltos = DocxUtils.elementos(documento, "w:br");
+        assertEquals(1, saltos.size());
+        assertEquals("Calle 1Bogotá", Regresion.texto(documento));
+
+        Element primera = run(documento, "Calle 1");
+        Element segunda = (Element) saltos.get(0).getParentNode();
+        assertEquals(segunda, run(documento, "Bogotá"));
+        assertNotNull(DocxUtils.primerDescendiente(primera, "w:b"));
+        assertNotNull(DocxUtils.primerDescendiente(segunda, "w:b"));
+        assertNotSame(DocxUtils.primerDescendiente(primera, "w:rPr"), DocxUtils.primerDescendiente(segunda, "w:rPr"));
+    }
+
+    @Test
+    void cuadroEnFallbackSeReemplazaPeroNoSeContabiliza() throws Exception {
+        String caja = "<w:txbxContent><w:p><w:r><w:t>Caja &lt;&lt;NOMBRE&gt;&gt;</w:t></w:r></w:p></w:txbxContent>";
+        Path plantilla = Regresion.documento(directorio, "cuadro.docx", "<w:p><w:r><mc:AlternateContent>"
+                + "<mc:Choice Requires=\"wps\"><w:drawing><wps:txbx>" + caja + "</wps:txbx></w:drawing></mc:Choice>"
+                + "<mc:Fallback><w:pict><v:textbox>" + caja + "</v:textbox></w:pict></mc:Fallback>"
+                + "</mc:AlternateContent></w:r></w:p>");
+
+        CuadrosTextoCommand comando = new CuadrosTextoCommand();
+        Document documento = Regresion.parte(
+                Regresion.renderizar(comando, plantilla, Map.of("<<NOMBRE>>", "Juan")), "word/document.xml");
+
+        List<Element> cajas = DocxUtils.elementos(documento, "w:txbxContent");
+        assertEquals(2, cajas.size());
+        for (Element contenido : cajas) {
+            assertEquals("Caja Juan", Regresion.texto(contenido));
+        }
+        assertEquals(1, comando.getEstadisticas().getReemplazos("<<NOMBRE>>"));
+    }
+
+    @Test
+    void combinarRenumeraDibujosYMarcadoresEnCadaCopia() throws Exception {
+        Path plantilla = Regresion.documento(directorio, "combinar.docx", "<w:p>"
+                + "<w:bookmarkStart w:id=\"3\" w:name=\"Inicio\"/><w:r><w:t>Hola &lt;&lt;NOMBRE&gt;&gt;</w:t></w:r>"
+                + "<w:bookmarkEnd w:id=\"3\"/>"
+                + "<w:r><w:drawing><wp:inline><wp:docPr id=\"7\" name=\"Imagen\"/></wp:inline></w:drawing></w:r>"
+                + "</w:p>");
+
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        int total = new CombinarCommand().combinar(plantilla.toString(),
+                new BufferedReader(new StringReader("<<NOMBRE>>\nAna\nLuis\nEva\n")), salida);
+        Document documento = Regresion.parte(salida.toByteArray(), "word/document.xml");
+
+        assertEquals(3, total);
+        assertEquals("Hola AnaHola LuisHola Eva", Regresion.texto(documento));
+        assertEquals(3, distintos(DocxUtils.elementos(documento, "wp:docPr"), "id"));
+        assertEquals(3, distintos(DocxUtils.elementos(documento, "w:bookmarkStart"), "w:id"));
+        assertEquals(3, distintos(DocxUtils.elementos(documento, "w:bookmarkStart"), "w:name"));
+    }
+
+    @Test
+    void cuerpoEnParaleloConPoolCompartidoIgualQueEnSerie() throws Exception {
+        StringBuilder cuerpo = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            cuerpo.append("<w:p><w:r><w:t>").append(i).append(" &lt;&lt;NO</w:t></w:r><w:r><w:t>MBRE&gt;&gt;</w:t></w:r></w:p>");
+        }
+        Path plantilla = Regresion.documento(directorio, "paralelo.docx", cuerpo.toString());
+        Map<String, String> tags = Map.of("<<NOMBRE>>", "Juan");
+
+        String enSerie = Regresion.texto(Regresion.parte(
+                Regresion.renderizar(new TodosCommand(), plantilla, tags), "word/document.xml"));
+        ExecutorService pool = ParallelBodyProcessor.crearPool(4);
+        try {
+            for (int documento = 0; documento < 2; documento++) {
+                TodosCommand comando = new TodosCommand();
+                comando.setPoolCuerpo(pool, 4);
+                Document resultado = Regresion.parte(Regresion.renderizar(comando, plantilla, tags), "word/document.xml");
+
+                assertEquals(enSerie, Regresion.texto(resultado));
+                assertEquals(40, comando.getEstadisticas().getReemplazos("<<NOMBRE>>"));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(enSerie.startsWith("0 Juan1 Juan"), enSerie);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"todos", "loop", "cuadros", "predeterminado"})
+    void anidamientoExcesivoRechazaElDocumento(String comando) throws Exception {
+        int niveles = 1100;
+        Path plantilla = Regresion.documento(directorio, "profundo.docx", "<w:customXml>".repeat(niveles)
+                + "<w:p><w:r><w:t>&lt;&lt;NOMBRE&gt;&gt;</w:t></w:r></w:p>" + "</w:customXml>".repeat(niveles));
+
+        assertThrows(LimiteExcedidoException.class, () -> Regresion.renderizar(comando, plantilla));
+    }
+
+    @Test
+    void relacionDeCompresionExcesivaRechazaElDocumento() throws Exception {
+        // Dos millones de caracteres iguales se comprimen por encima de 1000:1
+        Path plantilla = Regresion.documento(directorio, "bomba.docx",
+                "<w:p><w:r><w:t>" + "a".repeat(2_000_000) + "</w:t></w:r></w:p>");
+
+        LimiteExcedidoException e = assertThrows(LimiteExcedidoException.class,
+                () -> Regresion.renderizar("todos", plantilla));
+        assertTrue(e.getMessage().contains("relación de compresión"), e.getMessage());
+    }
+
+    /**
+     * Run cuyo texto es exactamente el indicado
+     */
+    private static Element run(Document documento, String texto) {
+        for (Element run : DocxUtils.elementos(documento, "w:r")) {
+            if (texto.equals(Regresion.texto(run))) {
+                return run;
+            }
+        }
+        throw new AssertionError("Ningún run tiene el texto \"" + texto + "\"");
+    }
+
+    private static int distintos(List<Element> elementos, String atributo) {
+        Set<String> valores = new HashSet<>();
+        for (Element elemento : elementos) {
+            assertFalse(elemento.getAttribute(atributo).isEmpty(), "Falta " + atributo);
+            valores.add(elemento.getAttribute(atributo));
+        }
+        return valores.size();
+    }
+}
@@ -0,0 +1,149 @@
+package com.logicsolutions.commands;
+
+import com.logicsolutions.util.DocxDeMuestra;
+import com.logicsolutions.util.DocxUtils;
+import com.logicsolutions.util.Hashing;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Apoyo común de las pruebas de regresión: documentos de muestra y mínimos, renderizado,
+ * partes del documento generado y su huella.
+ */
+final class Regresion {
+
+    private static final String DECLARACION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+
+    private static final String NS = "xmlns:w=\"" + DocxUtils.WORD_NS + "\""
+            + " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\""
+            + " xmlns:mc=\"http://schemas.openxmlformats.org/markup-compatibility/2006\""
+            + " xmlns:wp=\"http://schemas.openxmlformats.org/drawingml/2006/wordprocessingDrawing\""
+            + " xmlns:wps=\"http://schemas.microsoft.com/office/word/2010/wordprocessingShape\""
+            + " xmlns:v=\"urn:schemas-microsoft-com:vml\"";
+
+    private Regresion() {
+    }
+
+    static Path muestra(Path directorio, int parrafos) throws IOException {
+        Path archivo = directorio.resolve("muestra_" + parrafos + ".docx");
+        try (OutputStream out = Files.newOutputStream(archivo)) {
+            DocxDeMuestra.generar(out, parrafos);
+        }
+        return archivo;
+    }
+
+    /**
+     * Documento mínimo cuyo cuerpo (w:body) es el XML indicado; el cuerpo puede usar los
+     * prefijos w, r, mc, wp, wps y v
+     */
+    static Path documento(Path directorio, String nombre, String cuerpo) throws IOException {
+        Path archivo = directorio.resolve(nombre);
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archivo))) {
+            escribir(zip, "[Content_Types].xml", DECLARACION
+                    + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                    + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                    + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                    + "<Override PartName=\"/word/document.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/>"
+                    + "</Types>");
+            escribir(zip, "_rels/.rels", DECLARACION
+                    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"word/document.xml\"/>"
+                    + "</Relationships>");
+            escribir(zip, "word/document.xml", DECLARACION + "<w:document " + NS + "><w:body>" + cuerpo
+                    + "<w:sectPr/></w:body></w:document>");
+        }
+        return archivo;
+    }
+
+    static byte[] renderizar(String comando, Path plantilla) throws Exception {
+        Map<String, String> reemplazos = "predeterminado".equals(comando)
+                ? Map.of(PredeterminadoCommand.TAG_PREDETERMINADO, "[PENDIENTE]")
+                : DocxDeMuestra.reemplazosDeMuestra();
+        return renderizar(Comandos.crear(comando), plantilla, reemplazos);
+    }
+
+    static byte[] renderizar(DocxCommand comando, Path plantilla, Map<String, String> reemplazos) throws Exception {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(64 * 1024);
+        comando.render(plantilla.toString(), salida, reemplazos);
+        return salida.toByteArray();
+    }
+
+    /**
+     * Parte del documento generado, parseada como DOM
+     */
+    static Document parte(byte[] docx, String nombre) throws Exception {
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(docx))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().equals(nombre)) {
+                    return DocxUtils.createDocumentBuilder().parse(new ByteArrayInputStream(zip.readAllBytes()));
+                }
+            }
+        }
+        throw new IOException("El documento no tiene la parte " + nombre);
+    }
+
+    /**
+     * Texto de los w:t de un nodo, en orden de documento
+     */
+    static String texto(Node nodo) {
+        StringBuilder sb = new StringBuilder();
+        for (Node t : DocxUtils.buscarNodosRecursivamente(nodo, "w:t")) {
+            sb.append(t.getTextContent());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * SHA-256 de los nombres y el contenido descomprimido de las entradas, en orden de nombre:
+     * no depende de fechas ni del nivel de compresión
+     */
+    static String huella(byte[] docx) throws IOException {
+        Map<String, byte[]> entradas = new TreeMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(docx))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entradas.put(entry.getName(), zip.readAllBytes());
+            }
+        }
+        MessageDigest digest = Hashing.sha256();
+        for (Map.Entry<String, byte[]> entrada : entradas.entrySet()) {
+            digest.update(entrada.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(entrada.getValue());
+        }
+        return Hashing.toHex(digest.digest());
+    }
+
+    private static void escribir(ZipOutputStream zip, String nombre, String contenido) throws IOException {
+        zip.putNextEntry(new ZipEntry(nombre));
+        zip.write(contenido.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    /**
+     * Los comandos informan cada reemplazo por consola: miles de líneas que no aportan a la prueba
+     *
+     * @return la salida original, para restaurarla al terminar
+     */
+    static PrintStream silenciar() {
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return original;
+    }
+}
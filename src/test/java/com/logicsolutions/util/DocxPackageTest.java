@@ -0,0 +1,32 @@
+package com.logicsolutions.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DocxPackageTest {
+
+    @Test
+    void targetsRelativosYAbsolutos() {
+        assertEquals("word/document.xml", DocxPackage.resolver("", "word/document.xml"));
+        assertEquals("word/document.xml", DocxPackage.resolver("", "/word/document.xml"));
+        assertEquals("word/header1.xml", DocxPackage.resolver("word/", "header1.xml"));
+        assertEquals("word/header1.xml", DocxPackage.resolver("word/", "./header1.xml"));
+        assertEquals("custom/pie.xml", DocxPackage.resolver("word/", "../custom/pie.xml"));
+        assertEquals("word/header1.xml", DocxPackage.resolver("word/", "header1.xml#inicio"));
+    }
+
+    @Test
+    void targetsQueUriRechaza() {
+        assertEquals("word/encabezado 1.xml", DocxPackage.resolver("word/", "encabezado 1.xml"));
+        assertEquals("word/pie [copia].xml", DocxPackage.resolver("word/", "pie [copia].xml"));
+        assertEquals("word/100%.xml", DocxPackage.resolver("word/", "100%.xml"));
+        assertEquals("word/50%zz.xml", DocxPackage.resolver("word/", "50%zz.xml"));
+    }
+
+    @Test
+    void secuenciasCodificadasSeDecodificanComoUtf8() {
+        assertEquals("word/encabezado 1.xml", DocxPackage.resolver("word/", "encabezado%201.xml"));
+        assertEquals("word/año.xml", DocxPackage.resolver("word/", "a%C3%B1o.xml"));
+    }
+}
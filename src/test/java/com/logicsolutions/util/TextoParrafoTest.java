@@ -0,0 +1,138 @@
+package com.logicsolutions.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Reemplazos sobre el texto concatenado y su escritura en los w:t: los límites entre nodos,
+ * los w:t vacíos y los desplazamientos después de cada cambio.
+ */
+class TextoParrafoTest {
+
+    private final TextoParrafo texto = TextoParrafo.delHilo();
+
+    @AfterEach
+    void limpiar() {
+        texto.limpiar();
+    }
+
+    @Test
+    void coincidenciaQueEmpiezaEnElUltimoCaracterDeUnNodo() throws Exception {
+        Element parrafo = parrafo("Hola <", "<NOMBRE>", "> fin");
+        texto.cargar(parrafo);
+
+        int posicion = texto.indexOf("<<NOMBRE>>", 0);
+        assertEquals(5, posicion);
+        assertEquals(0, texto.nodoEn(posicion));
+        texto.reemplazar(posicion, posicion + "<<NOMBRE>>".length(), "Juan");
+
+        assertEquals("Hola Juan fin", texto.toString());
+        assertEquals(3, texto.aplicarCambios());
+        assertEquals(List.of("Hola Juan", "", " fin"), textos(parrafo));
+        assertEquals("preserve", DocxUtils.elementos(parrafo.getOwnerDocument(), "w:t").get(2).getAttribute("xml:space"));
+    }
+
+    @Test
+    void wTVacioEntreRunsNoRecibeElValor() throws Exception {
+        Element parrafo = parrafo("", "<<NOM", "", "BRE>> y");
+        texto.cargar(parrafo);
+
+        assertEquals(1, texto.nodoEn(0));
+        assertEquals(3, texto.nodoEn(5));
+        texto.reemplazar(0, "<<NOMBRE>>".length(), "Juan");
+
+        assertEquals("Juan y", texto.toString());
+        assertFalse(texto.isModificado(0));
+        assertFalse(texto.isModificado(2));
+        assertEquals(2, texto.aplicarCambios());
+        assertEquals(List.of("", "Juan", "", " y"), textos(parrafo));
+    }
+
+    @Test
+    void variasCoincidenciasDespuesDeReconstruirLosDesplazamientos() throws Exception {
+        Element parrafo = parrafo("<<A>>-<<", "A>>", "-<<A>>");
+        texto.cargar(parrafo);
+
+        assertEquals(3, reemplazarTodas("<<A>>", "valor"));
+
+        assertEquals("valor-valor-valor", texto.toString());
+        assertEquals(0, texto.getInicioNodo(0));
+        assertEquals(11, texto.getInicioNodo(1));
+        assertEquals(11, texto.getInicioNodo(2));
+        assertEquals(2, texto.nodoEn(11));
+        texto.aplicarCambios();
+        assertEquals(List.of("valor-valor", "", "-valor"), textos(parrafo));
+    }
+
+    @Test
+    void valorMasCortoQueElTagDesplazaLasCoincidenciasSiguientes() throws Exception {
+        Element parrafo = parrafo("<<LARGO>> <<LAR", "GO>>", " <<LARGO>>");
+        texto.cargar(parrafo);
+
+        assertEquals(3, reemplazarTodas("<<LARGO>>", "x"));
+
+        assertEquals("x x x", texto.toString());
+        texto.aplicarCambios();
+        assertEquals(List.of("x x", "", " x"), textos(parrafo));
+    }
+
+    @Test
+    void valorQueContieneElPropioTagNoSeVuelveAReemplazar() throws Exception {
+        Element parrafo = parrafo("<<A>> y ", "<<A>>");
+        texto.cargar(parrafo);
+
+        assertEquals(2, reemplazarTodas("<<A>>", "[<<A>>]"));
+
+        assertEquals("[<<A>>] y [<<A>>]", texto.toString());
+        texto.aplicarCambios();
+        assertEquals(List.of("[<<A>>] y ", "[<<A>>]"), textos(parrafo));
+    }
+
+    /**
+     * Reemplaza como los comandos: la búsqueda sigue después del valor insertado
+     *
+     * @return coincidencias reemplazadas
+     */
+    private int reemplazarTodas(String tag, String valor) {
+        int reemplazos = 0;
+        int posicion = texto.indexOf(tag, 0);
+        while (posicion >= 0) {
+            texto.reemplazar(posicion, posicion + tag.length(), valor);
+            reemplazos++;
+            posicion = texto.indexOf(tag, posicion + valor.length());
+        }
+        return reemplazos;
+    }
+
+    /**
+     * Párrafo con un run por texto
+     */
+    private static Element parrafo(String... textos) throws Exception {
+        StringBuilder xml = new StringBuilder("<w:p xmlns:w=\"" + DocxUtils.WORD_NS + "\">");
+        for (String t : textos) {
+            xml.append("<w:r><w:t>").append(t.replace("<", "&lt;").replace(">", "&gt;")).append("</w:t></w:r>");
+        }
+        xml.append("</w:p>");
+        Document documento = DocxUtils.createDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8)));
+        return documento.getDocumentElement();
+    }
+
+    private static List<String> textos(Element parrafo) {
+        List<String> textos = new ArrayList<>();
+        for (Element t : DocxUtils.elementos(parrafo.getOwnerDocument(), "w:t")) {
+            textos.add(t.getTextContent());
+        }
+        return textos;
+    }
+}
@@ -0,0 +1,31 @@
+package com.logicsolutions.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TsvTest {
+
+    @Test
+    void escapesConocidosYBarrasSueltas() {
+        assertEquals(List.of("a\tb", "línea 1\nlínea 2", "barra \\", "C:\\plantillas\\carta.docx"),
+                Tsv.dividirCampos("a\\tb\tlínea 1\\nlínea 2\tbarra \\\\\tC:\\plantillas\\carta.docx"));
+    }
+
+    @Test
+    void columnasLiteralesNoInterpretanEscapes() {
+        String linea = "1\ttodos\tC:\\plantillas\\nueva.docx\tC:\\salida\\tabla.docx\t<<DIR>>\tCalle 1\\nBogotá";
+
+        assertEquals(List.of("1", "todos", "C:\\plantillas\\nueva.docx", "C:\\salida\\tabla.docx", "<<DIR>>", "Calle 1\nBogotá"),
+                Tsv.dividirCampos(linea, 4));
+    }
+
+    @Test
+    void escaparEsLaInversaDeDividir() {
+        String campo = "C:\\plantillas\\nueva.docx\tcon tabulador\ny salto";
+
+        assertEquals(List.of(campo, "otro"), Tsv.dividirCampos(Tsv.escapar(campo) + "\totro"));
+    }
+}